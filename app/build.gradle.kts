@@ -16,6 +16,8 @@ plugins {
     application
     java
     id("com.google.protobuf") version "0.9.5"
+    // microbenchmarks under src/jmh: ./gradlew jmh
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 repositories {
@@ -56,6 +58,10 @@ dependencies {
     testImplementation("org.junit.jupiter:junit-jupiter")
 }
 
+jmh {
+    jmhVersion = "1.37"
+}
+
 protobuf {
     protoc { artifact = "com.google.protobuf:protoc:$protobufJava"}
     plugins {
@@ -0,0 +1,135 @@
+package org.jraft.state;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.jraft.rpc.LogEntry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * one appender against several readers on the same FileLogStore: the
+ * appender writes one entry per op, readers call entryAt and termAt at random
+ * indices of the retained log, and lastIndex.
+ *
+ * OS_ONLY keeps fsync out of the appender's loop, so what is measured is
+ * the locking between them. the log is trimmed to the last RETAINED entries
+ * as it grows, which also exercises rotation and truncatePrefix under load.
+ * with tailCacheBytes=0 every entryAt reads a segment.
+ *
+ *   ./gradlew jmhJar && java -jar app/build/libs/app-jmh.jar FileLogStoreContention
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileLogStoreContentionBenchmark {
+  private static final long RETAINED = 100_000;
+  private static final int TRIM_EVERY = 10_000;
+
+  @Param({"0", "16777216"})
+  public long tailCacheBytes;
+
+  @Param({"256"})
+  public int entryBytes;
+
+  private Path dir;
+  private FileLogStore log;
+  private ByteString data;
+
+  @Setup(Level.Trial)
+  public void open() throws IOException {
+    dir = Files.createTempDirectory("wal-bench");
+    FileLogStore.Options options = FileLogStore.Options.defaults()
+      .withSegmentSize(4 * 1024 * 1024)
+      .withSyncMode(FileLogStore.SyncMode.OS_ONLY)
+      .withTailCacheBytes(tailCacheBytes);
+    log = new FileLogStore(dir, options, null);
+    data = ByteString.copyFrom(new byte[entryBytes]);
+
+    // start with a full window, so readers have the whole range to pick from
+    for (long i = 1; i <= RETAINED; i += 1000) {
+      LogEntry[] batch = new LogEntry[1000];
+      for (int k = 0; k < batch.length; k++) {
+        batch[k] = entry(i + k);
+      }
+      log.append(List.of(batch));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void close() throws IOException {
+    log.close();
+    try (Stream<Path> files = Files.walk(dir)) {
+      for (Path p : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.deleteIfExists(p);
+      }
+    }
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public long append() {
+    long next = log.lastIndex() + 1;
+    log.append(List.of(entry(next)));
+    if (next % TRIM_EVERY == 0) {
+      log.truncatePrefix(next - RETAINED);
+    }
+    return next;
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(2)
+  public LogEntry entryAt() {
+    return log.entryAt(randomIndex());
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(2)
+  public long termAt() {
+    return log.termAt(randomIndex());
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public long lastIndex() {
+    return log.lastIndex();
+  }
+
+  private long randomIndex() {
+    // the newest RETAINED / 2 entries stay put across a trim
+    long last = log.lastIndex();
+    return last - ThreadLocalRandom.current().nextLong(RETAINED / 2);
+  }
+
+  private LogEntry entry(long index) {
+    return LogEntry.newBuilder().setIndex(index).setTerm(1 + index / 50_000).setData(data).build();
+  }
+}
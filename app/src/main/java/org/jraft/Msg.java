@@ -7,17 +7,59 @@ import org.jraft.rpc.AppendEntriesResponse;
 import org.jraft.rpc.RequestVoteRequest;
 import org.jraft.rpc.RequestVoteResponse;
 
-sealed interface Msg permits TickElection, TickHeartbeat, RpcAppendReq, RpcVoteReq, ClientPropose, RpcReplyComplete {}
+/**
+ * everything that happens to a raft node, as a message to its event loop.
+ *
+ * timers, rpc handlers, clients and I/O completions only ever post these;
+ * the loop handles them one at a time on its own thread, so the node's state
+ * needs no locks. anything slow (fsync, network) runs elsewhere and posts
+ * its result back.
+ */
+public sealed interface Msg {
 
-record TickElection() implements Msg {}
-record TickHeartbeat() implements Msg {}
+  /**
+   * handling this message threw: complete whatever future it carries with
+   * cause, so nobody waits on it forever
+   */
+  default void fail(Throwable cause) {}
 
-// gRPC -> actor; include a place to complete replies
-record RpcAppendReq(AppendEntriesRequest req, CompletableFuture<AppendEntriesResponse> reply) implements Msg {}
-record RpcVoteReq(RequestVoteRequest req, CompletableFuture<RequestVoteResponse> reply) implements Msg {}
+  record TickElection() implements Msg {}
+  record TickHeartbeat() implements Msg {}
 
-// client proposal (e.g., a command)
-record ClientPropose(byte[] data, CompletableFuture<Boolean> ack) implements Msg {}
+  // gRPC -> actor; include a place to complete replies
+  record RpcAppendReq(AppendEntriesRequest req, CompletableFuture<AppendEntriesResponse> reply) implements Msg {
+    @Override public void fail(Throwable cause) { reply.completeExceptionally(cause); }
+  }
+  record RpcVoteReq(RequestVoteRequest req, CompletableFuture<RequestVoteResponse> reply) implements Msg {
+    @Override public void fail(Throwable cause) { reply.completeExceptionally(cause); }
+  }
 
-// replication completion notifications (from per-peer sender)
-record RpcReplyComplete(String followerId, long sentLastIndex, AppendEntriesResponse resp) implements Msg {}
+  // client proposal (e.g., a command): completes with its log index, or -1 if not leader
+  record ClientPropose(byte[] data, long enqueuedNanos, CompletableFuture<Long> index) implements Msg {
+    @Override public void fail(Throwable cause) { index.completeExceptionally(cause); }
+  }
+
+  // replication completion notifications (from per-peer sender). requestId
+  // names the request in the peer's window, 0 for an untracked heartbeat
+  record RpcReplyComplete(String followerId, long requestId, long sentLastIndex,
+                          AppendEntriesResponse resp) implements Msg {}
+
+  // a vote from the election held in electionTerm
+  record RpcVoteReply(String voterId, long electionTerm, RequestVoteResponse resp) implements Msg {}
+
+  // the local log reached disk up to index
+  record LogDurable(long index) implements Msg {}
+
+  // the local log failed to make appended entries durable
+  record LogFailed(Throwable cause) implements Msg {}
+
+  // drop log entries below index; completes with the log's first index after
+  record Compact(long index, CompletableFuture<Long> firstIndex) implements Msg {
+    @Override public void fail(Throwable cause) { firstIndex.completeExceptionally(cause); }
+  }
+
+  // completes once every message posted before it has been handled
+  record Barrier(CompletableFuture<Void> done) implements Msg {
+    @Override public void fail(Throwable cause) { done.completeExceptionally(cause); }
+  }
+}
@@ -1,6 +1,7 @@
 package org.jraft.core;
 
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 import org.jraft.rpc.AppendEntriesRequest;
 import org.jraft.rpc.AppendEntriesResponse;
@@ -11,12 +12,22 @@ import org.jraft.state.RaftState;
 
 public final class FollowerHandlers {
   public static AppendEntriesResponse onAppendEntries(StateMachine fsm, LogStore log, RaftState state, AppendEntriesRequest req) {
+    return onAppendEntriesAsync(fsm, log, state, req).join();
+  }
+
+  /**
+   * handle req without waiting on the disk: the log and state change right
+   * away, the response completes once the appended entries are durable. a
+   * success must not reach the leader before then.
+   */
+  public static CompletableFuture<AppendEntriesResponse> onAppendEntriesAsync(
+      StateMachine fsm, LogStore log, RaftState state, AppendEntriesRequest req) {
     // Never accept commands or votes from older terms
     if (state.getCurrentTerm() > req.getTerm()) {
-      return AppendEntriesResponse.newBuilder()
+      return CompletableFuture.completedFuture(AppendEntriesResponse.newBuilder()
         .setTerm(state.getCurrentTerm())
         .setSuccess(false)
-        .build();
+        .build());
     }
 
     // Update our own state if the request is on a newer term
@@ -32,27 +43,32 @@ public final class FollowerHandlers {
     var res = RaftAlgorithms.applyLogPatch(log, req.getPrevLogIndex(), req.getPrevLogTerm(), req.getEntriesList());
   
     if (!res.accepted()) {
-      return AppendEntriesResponse.newBuilder()
+      var reject = AppendEntriesResponse.newBuilder()
         .setTerm(state.getCurrentTerm())
-        .setSuccess(false)
-        .build();
+        .setSuccess(false);
+      // tell the leader where to retry so it can skip a whole term per round
+      // trip: our log ends before prevIndex (conflict term 0, our last index
+      // + 1), or the term we hold at prevIndex and where it starts
+      long prev = req.getPrevLogIndex();
+      if (prev > log.lastIndex()) {
+        reject.setConflictTerm(0).setConflictStartIndex(log.lastIndex() + 1);
+      } else if (prev >= log.firstIndex()) {
+        reject.setConflictTerm(log.termAt(prev)).setConflictStartIndex(RaftAlgorithms.firstIndexOfTerm(log, prev));
+      }
+      return CompletableFuture.completedFuture(reject.build());
     }
 
     long newCommit = Math.min(req.getLeaderCommit(), log.lastIndex());
     if (newCommit > state.getCommitIndex()) {
       state.setCommitIndex(Math.max(state.getCommitIndex(), newCommit));
-      while (state.getLastApplied() < state.getCommitIndex()) {
-        long index = state.getLastApplied() + 1;
-        var entry = log.entryAt(index);
-        fsm.apply(entry);
-        state.setLastApplied(index);
-      }
+      RaftAlgorithms.applyCommitted(log, state, fsm);
     }
-    return AppendEntriesResponse.newBuilder()
+    var accept = AppendEntriesResponse.newBuilder()
       .setTerm(state.getCurrentTerm())
       .setSuccess(true)
       .setMatchIndex(Math.max(req.getPrevLogIndex(), res.lastNewIndex()))
       .build();
+    return res.durable().thenApply(durable -> accept);
   }
 
   public static RequestVoteResponse onRequestVote(LogStore log, RaftState state, RequestVoteRequest req) {
@@ -1,13 +1,18 @@
 package org.jraft.core;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.jraft.rpc.LogEntry;
 import org.jraft.state.LogStore;
+import org.jraft.state.RaftState;
 
 public final class RaftAlgorithms {
   private RaftAlgorithms() {}
 
+  // how much log data to pull per ranged read when applying committed entries
+  public static final long APPLY_BATCH_BYTES = 4L * 1024 * 1024;
+
   // raft spec 5.4.1 candidate is at least as up-to-date as local
   public static boolean isCandidateUpToDate(LogStore log, long candidateLastTerm, long candidateLastIndex) {
     long localIndex = log.lastIndex();
@@ -17,10 +22,70 @@ public final class RaftAlgorithms {
     return candidateLastIndex >= localIndex;
   }
 
-  public record ApplyResult(boolean accepted, long lastNewIndex) {}
+  // terms never decrease along a log: where a term's run starts or ends is a
+  // binary search over termAt, not a scan back one entry at a time
+
+  /**
+   * first index of the term run containing index, no earlier than firstIndex()
+   * (what was compacted was committed, it matches any leader's log anyway)
+   */
+  public static long firstIndexOfTerm(LogStore log, long index) {
+    long term = log.termAt(index);
+    long lo = Math.max(1, log.firstIndex());
+    long hi = index;
+    if (hi < lo) return index;
+    while (lo < hi) {
+      long mid = (lo + hi) >>> 1;
+      if (log.termAt(mid) >= term) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * last index at or below upTo holding an entry of term, or 0 if there is none
+   */
+  public static long lastIndexOfTerm(LogStore log, long term, long upTo) {
+    long lo = log.firstIndex() - 1;
+    long hi = Math.min(upTo, log.lastIndex());
+    if (term <= 0 || hi < lo || log.termAt(lo) > term) return 0;
+    while (lo < hi) {
+      long mid = (lo + hi + 1) >>> 1;
+      if (log.termAt(mid) <= term) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return log.termAt(lo) == term ? lo : 0;
+  }
+
+  /**
+   * durable completes once whatever the patch appended is on disk; it is
+   * already complete if nothing was appended
+   */
+  public record ApplyResult(boolean accepted, long lastNewIndex, CompletableFuture<Long> durable) {
+    public ApplyResult(boolean accepted, long lastNewIndex) {
+      this(accepted, lastNewIndex, CompletableFuture.completedFuture(lastNewIndex));
+    }
+  }
 
   public static ApplyResult applyLogPatch(
     LogStore log, long prevIndex, long prevTerm, List<LogEntry> entries) {
+      long compacted = log.firstIndex() - 1;
+      if (prevIndex < compacted) {
+        // entries up to the compaction point were committed before they were
+        // dropped, so they match the leader's: skip them and resume at the boundary
+        if (!entries.isEmpty() && entries.get(0).getIndex() != prevIndex + 1)
+          return new ApplyResult(false, prevIndex);
+        int skip = (int) Math.min(entries.size(), compacted - prevIndex);
+        if (skip == entries.size())
+          return new ApplyResult(true, prevIndex + skip);
+        return applyLogPatch(log, compacted, log.termAt(compacted), entries.subList(skip, entries.size()));
+      }
       if (log.termAt(prevIndex) != prevTerm)
         return new ApplyResult(false, prevIndex);
       if (entries.isEmpty())
@@ -37,9 +102,9 @@ public final class RaftAlgorithms {
         
         if (localTermAtI == 0) {
           // beyond current end: append all remaining and finish
-          log.append(entries.subList(k, entries.size()));
+          var durable = log.appendAsync(entries.subList(k, entries.size()));
           lastNew = log.lastIndex();
-          return new ApplyResult(true, lastNew);
+          return new ApplyResult(true, lastNew, durable);
         } else if (localTermAtI == e.getTerm()) {
             // already have identical entry at i
             lastNew = Math.max(lastNew, i);
@@ -47,9 +112,9 @@ public final class RaftAlgorithms {
         } else {
             // first conflict: nuke suffix from i and append remainder
             log.truncateFrom(i);
-            log.append(entries.subList(k, entries.size()));
+            var durable = log.appendAsync(entries.subList(k, entries.size()));
             lastNew = log.lastIndex();
-            return new ApplyResult(true, lastNew);
+            return new ApplyResult(true, lastNew, durable);
         }
 
         // if we got here, all entries matched (nothing appended)
@@ -57,4 +122,18 @@ public final class RaftAlgorithms {
     return new ApplyResult(true, lastNew);
     }
 
+  // apply everything up to commitIndex, reading the log in ranged batches
+  public static void applyCommitted(LogStore log, RaftState state, StateMachine fsm) {
+    while (state.getLastApplied() < state.getCommitIndex()) {
+      List<LogEntry> batch = log.entries(state.getLastApplied() + 1, state.getCommitIndex(), APPLY_BATCH_BYTES);
+      if (batch.isEmpty()) return;
+      for (LogEntry entry : batch) {
+        if (fsm != null) {
+          fsm.apply(entry);
+        }
+        state.setLastApplied(entry.getIndex());
+      }
+    }
+  }
+
 }
@@ -7,4 +7,13 @@ public interface StateMachine {
 
   ApplyResult apply(LogEntry e);
 
+  /**
+   * highest index a snapshot of this state machine covers: what it can
+   * restore on restart without replaying the log. 0 if it keeps none, which
+   * means the log must never be compacted.
+   */
+  default long snapshotIndex() {
+    return 0;
+  }
+
 }
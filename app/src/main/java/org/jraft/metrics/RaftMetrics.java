@@ -1,6 +1,7 @@
 package org.jraft.metrics;
 
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class RaftMetrics {
   private final AtomicLong electionsTotal = new AtomicLong();
@@ -9,6 +10,38 @@ public class RaftMetrics {
   private final AtomicLong appendEntriesFailed = new AtomicLong();
   private final AtomicLong requestVoteSent = new AtomicLong();
   private final AtomicLong requestVoteFailed = new AtomicLong();
+  // messages (or idle work) the node's event loop failed to handle
+  private final AtomicLong eventLoopErrors = new AtomicLong();
+
+  // WAL fsyncs: batch size is entries made durable by one fsync
+  private final AtomicLong walFsyncsTotal = new AtomicLong();
+  private final AtomicLong walFsyncEntriesTotal = new AtomicLong();
+  private final AtomicLong walFsyncMaxBatch = new AtomicLong();
+  private final AtomicLong walFsyncMicrosTotal = new AtomicLong();
+  private final AtomicLong walFsyncMaxMicros = new AtomicLong();
+
+  // AppendEntries batches the leader sends: entries and encoded bytes per
+  // request. bucket k of the histogram counts batches of up to 2^k entries
+  // (more than 2^(k-1)); the last bucket takes everything larger.
+  private static final int APPEND_BATCH_BUCKETS = 16;
+  private final AtomicLong appendBatchesTotal = new AtomicLong();
+  private final AtomicLong appendBatchEntriesTotal = new AtomicLong();
+  private final AtomicLong appendBatchMaxEntries = new AtomicLong();
+  private final AtomicLong appendBatchBytesTotal = new AtomicLong();
+  private final AtomicLong appendBatchMaxBytes = new AtomicLong();
+  private final AtomicLongArray appendBatchEntriesHistogram = new AtomicLongArray(APPEND_BATCH_BUCKETS);
+
+  // client proposals the leader appends together, and how long they queued
+  // for it (summed over proposals, and the longest single wait)
+  private final AtomicLong proposalBatchesTotal = new AtomicLong();
+  private final AtomicLong proposalsTotal = new AtomicLong();
+  private final AtomicLong proposalMaxBatch = new AtomicLong();
+  private final AtomicLong proposalQueueMicrosTotal = new AtomicLong();
+  private final AtomicLong proposalQueueMaxMicros = new AtomicLong();
+
+  // log reads served from the in-memory tail cache vs. the segments
+  private final AtomicLong logCacheHits = new AtomicLong();
+  private final AtomicLong logCacheMisses = new AtomicLong();
 
   public void incElections() { electionsTotal.incrementAndGet(); }
   public void incLeaderChanges() { leaderChangesTotal.incrementAndGet(); }
@@ -16,6 +49,38 @@ public class RaftMetrics {
   public void incAppendEntriesFailed() { appendEntriesFailed.incrementAndGet(); }
   public void incRequestVoteSent() { requestVoteSent.incrementAndGet(); }
   public void incRequestVoteFailed() { requestVoteFailed.incrementAndGet(); }
+  public void incEventLoopErrors() { eventLoopErrors.incrementAndGet(); }
+
+  public void incLogCacheHits() { logCacheHits.incrementAndGet(); }
+  public void incLogCacheMisses() { logCacheMisses.incrementAndGet(); }
+  public void addLogCacheMisses(long n) { logCacheMisses.addAndGet(n); }
+
+  public void recordWalSync(long entries, long nanos) {
+    long micros = nanos / 1_000;
+    walFsyncsTotal.incrementAndGet();
+    walFsyncEntriesTotal.addAndGet(entries);
+    walFsyncMaxBatch.accumulateAndGet(entries, Math::max);
+    walFsyncMicrosTotal.addAndGet(micros);
+    walFsyncMaxMicros.accumulateAndGet(micros, Math::max);
+  }
+
+  public void recordAppendBatch(long entries, long bytes) {
+    appendBatchesTotal.incrementAndGet();
+    appendBatchEntriesTotal.addAndGet(entries);
+    appendBatchMaxEntries.accumulateAndGet(entries, Math::max);
+    appendBatchBytesTotal.addAndGet(bytes);
+    appendBatchMaxBytes.accumulateAndGet(bytes, Math::max);
+    int bucket = entries <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(entries - 1);
+    appendBatchEntriesHistogram.incrementAndGet(Math.min(bucket, APPEND_BATCH_BUCKETS - 1));
+  }
+
+  public void recordProposalBatch(long proposals, long queuedNanos, long maxQueuedNanos) {
+    proposalBatchesTotal.incrementAndGet();
+    proposalsTotal.addAndGet(proposals);
+    proposalMaxBatch.accumulateAndGet(proposals, Math::max);
+    proposalQueueMicrosTotal.addAndGet(queuedNanos / 1_000);
+    proposalQueueMaxMicros.accumulateAndGet(maxQueuedNanos / 1_000, Math::max);
+  }
 
   public long getElectionsTotal() { return electionsTotal.get(); }
   public long getLeaderChangesTotal() { return leaderChangesTotal.get(); }
@@ -23,4 +88,29 @@ public class RaftMetrics {
   public long getAppendEntriesFailed() { return appendEntriesFailed.get(); }
   public long getRequestVoteSent() { return requestVoteSent.get(); }
   public long getRequestVoteFailed() { return requestVoteFailed.get(); }
+  public long getEventLoopErrors() { return eventLoopErrors.get(); }
+  public long getWalFsyncsTotal() { return walFsyncsTotal.get(); }
+  public long getWalFsyncEntriesTotal() { return walFsyncEntriesTotal.get(); }
+  public long getWalFsyncMaxBatch() { return walFsyncMaxBatch.get(); }
+  public long getWalFsyncMicrosTotal() { return walFsyncMicrosTotal.get(); }
+  public long getWalFsyncMaxMicros() { return walFsyncMaxMicros.get(); }
+  public long getAppendBatchesTotal() { return appendBatchesTotal.get(); }
+  public long getAppendBatchEntriesTotal() { return appendBatchEntriesTotal.get(); }
+  public long getAppendBatchMaxEntries() { return appendBatchMaxEntries.get(); }
+  public long getAppendBatchBytesTotal() { return appendBatchBytesTotal.get(); }
+  public long getAppendBatchMaxBytes() { return appendBatchMaxBytes.get(); }
+  public long[] getAppendBatchEntriesHistogram() {
+    long[] out = new long[APPEND_BATCH_BUCKETS];
+    for (int i = 0; i < out.length; i++) {
+      out[i] = appendBatchEntriesHistogram.get(i);
+    }
+    return out;
+  }
+  public long getProposalBatchesTotal() { return proposalBatchesTotal.get(); }
+  public long getProposalsTotal() { return proposalsTotal.get(); }
+  public long getProposalMaxBatch() { return proposalMaxBatch.get(); }
+  public long getProposalQueueMicrosTotal() { return proposalQueueMicrosTotal.get(); }
+  public long getProposalQueueMaxMicros() { return proposalQueueMaxMicros.get(); }
+  public long getLogCacheHits() { return logCacheHits.get(); }
+  public long getLogCacheMisses() { return logCacheMisses.get(); }
 }
@@ -6,9 +6,19 @@ import org.jraft.rpc.AppendEntriesRequest;
 import org.jraft.rpc.AppendEntriesResponse;
 import org.jraft.rpc.RequestVoteRequest;
 import org.jraft.rpc.RequestVoteResponse;
+import org.jraft.state.EncodedEntries;
 
 public interface RaftTransport {
   public void requestVote(String peerId, RequestVoteRequest req, Consumer<RequestVoteResponse> cb);
   public void appendEntries(String peerId, AppendEntriesRequest req, Consumer<AppendEntriesResponse> cb);
-  
+
+  /**
+   * AppendEntries carrying entries that are already encoded; req holds every
+   * other field. transports that serialize requests themselves can put the
+   * bytes on the wire as they are, the rest get the assembled request.
+   */
+  default void appendEntries(String peerId, AppendEntriesRequest req, EncodedEntries entries,
+                             Consumer<AppendEntriesResponse> cb) {
+    appendEntries(peerId, entries.count() == 0 ? req : entries.appendTo(req), cb);
+  }
 }
@@ -0,0 +1,95 @@
+package org.jraft.net.grpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.jraft.rpc.AppendEntriesRequest;
+import org.jraft.state.EncodedEntries;
+
+import com.google.protobuf.ByteString;
+
+import io.grpc.Drainable;
+import io.grpc.KnownLength;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * marshaller for AppendEntries requests whose entries are already encoded.
+ *
+ * gRPC drains the stream straight into its outgoing frames: the request header
+ * is serialized there and the entries' bytes follow as they were encoded,
+ * without being parsed into LogEntry messages first.
+ */
+final class EncodedAppendMarshaller implements MethodDescriptor.Marshaller<EncodedAppendMarshaller.Request> {
+  static final EncodedAppendMarshaller INSTANCE = new EncodedAppendMarshaller();
+
+  /**
+   * every field of the request but its entries, and the entries
+   */
+  record Request(AppendEntriesRequest header, EncodedEntries entries) {}
+
+  private EncodedAppendMarshaller() {}
+
+  @Override
+  public InputStream stream(Request value) {
+    return new Stream(value);
+  }
+
+  @Override
+  public Request parse(InputStream stream) {
+    try {
+      return new Request(AppendEntriesRequest.parseFrom(stream), EncodedEntries.EMPTY);
+    } catch (IOException e) {
+      throw Status.INTERNAL.withDescription("failed to parse AppendEntriesRequest").withCause(e).asRuntimeException();
+    }
+  }
+
+  private static final class Stream extends InputStream implements Drainable, KnownLength {
+    private Request value;
+    private InputStream fallback;  // only if gRPC reads instead of draining
+
+    Stream(Request value) {
+      this.value = value;
+    }
+
+    @Override
+    public int drainTo(OutputStream target) throws IOException {
+      int written = available();
+      if (fallback != null) {
+        fallback.transferTo(target);
+      } else if (value != null) {
+        value.header().writeTo(target);
+        value.entries().writeTo(target);
+      }
+      value = null;
+      fallback = null;
+      return written;
+    }
+
+    @Override
+    public int available() throws IOException {
+      if (fallback != null) return fallback.available();
+      return value == null ? 0 : value.header().getSerializedSize() + value.entries().size();
+    }
+
+    @Override
+    public int read() throws IOException {
+      return input().read();
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      return input().read(b, off, len);
+    }
+
+    private InputStream input() throws IOException {
+      if (fallback == null) {
+        ByteString.Output copy = ByteString.newOutput(available());
+        drainTo(copy);
+        fallback = copy.toByteString().newInput();
+      }
+      return fallback;
+    }
+  }
+}
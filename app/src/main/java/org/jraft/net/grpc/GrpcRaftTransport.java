@@ -17,12 +17,18 @@ import org.jraft.rpc.AppendEntriesResponse;
 import org.jraft.rpc.RaftGrpc;
 import org.jraft.rpc.RequestVoteRequest;
 import org.jraft.rpc.RequestVoteResponse;
+import org.jraft.state.EncodedEntries;
 
+import io.grpc.CallOptions;
 import io.grpc.NameResolverRegistry;
 import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
 import io.grpc.StatusRuntimeException;
 import io.grpc.internal.DnsNameResolverProvider;
 import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.StreamObserver;
 
 /**
  * gRPC-based implementation of the Raft transport.
@@ -38,6 +44,12 @@ public class GrpcRaftTransport implements RaftTransport, AutoCloseable {
   private final RaftMetrics metrics;
   private static final AtomicBoolean DNS_REGISTERED = new AtomicBoolean(false);
 
+  // the AppendEntries method with a pre-serialized request: same name and
+  // wire format, so peers see an ordinary AppendEntriesRequest
+  private static final MethodDescriptor<EncodedAppendMarshaller.Request, AppendEntriesResponse> APPEND_ENTRIES_ENCODED =
+    RaftGrpc.getAppendEntriesMethod().toBuilder(EncodedAppendMarshaller.INSTANCE,
+      ProtoUtils.marshaller(AppendEntriesResponse.getDefaultInstance())).build();
+
   public GrpcRaftTransport(Map<String, String> peerAddressById) {
     this(peerAddressById, 2_000, null);
   }
@@ -82,6 +94,48 @@ public class GrpcRaftTransport implements RaftTransport, AutoCloseable {
     dispatch(() -> stub.withDeadlineAfter(rpcTimeoutMs, TimeUnit.MILLISECONDS).appendEntries(req), cb, "AppendEntries");
   }
 
+  /**
+   * sends the request header and the encoded entries as one message without
+   * parsing them: the entries go to the wire straight from the log's bytes.
+   *
+   * the call starts on the caller's thread rather than the executor, so
+   * requests the leader pipelines to a peer leave in the order it sent them.
+   */
+  @Override
+  public void appendEntries(String peerId, AppendEntriesRequest req, EncodedEntries entries,
+                            Consumer<AppendEntriesResponse> cb) {
+    ManagedChannel channel = channels.get(peerId);
+    if (channel == null) {
+      System.err.printf("appendEntries: unknown peer %s%n", peerId);
+      return;
+    }
+    if (metrics != null) metrics.incAppendEntriesSent();
+    var message = new EncodedAppendMarshaller.Request(req, entries);
+    var call = channel.newCall(APPEND_ENTRIES_ENCODED,
+      CallOptions.DEFAULT.withDeadlineAfter(rpcTimeoutMs, TimeUnit.MILLISECONDS).withExecutor(executor));
+    try {
+      ClientCalls.asyncUnaryCall(call, message, new StreamObserver<>() {
+        @Override
+        public void onNext(AppendEntriesResponse resp) {
+          cb.accept(resp);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+          System.err.printf("AppendEntries RPC failed: %s%n", t.getMessage());
+          markFailure("AppendEntries");
+        }
+
+        @Override
+        public void onCompleted() {
+        }
+      });
+    } catch (RuntimeException e) {
+      System.err.printf("AppendEntries RPC error: %s%n", e.getMessage());
+      markFailure("AppendEntries");
+    }
+  }
+
   private <T> void dispatch(Supplier<T> call, Consumer<T> cb, String opName) {
     executor.submit(() -> {
       try {
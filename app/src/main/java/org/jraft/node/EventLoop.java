@@ -0,0 +1,166 @@
+package org.jraft.node;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jraft.Msg;
+
+/**
+ * runs a raft node's messages one at a time.
+ *
+ * any thread may post; the queue is a lock-free linked queue, so posting
+ * never blocks. onThread() handles messages on a dedicated daemon thread
+ * that parks when the queue runs dry. onCaller() has no thread of its own:
+ * whichever poster finds it idle handles everything queued before returning,
+ * which lets tests drive a node step by step. either way only one message is
+ * handled at a time and handlers never run concurrently.
+ */
+public final class EventLoop {
+
+  /**
+   * what the loop runs
+   */
+  interface Handler {
+    void handle(Msg msg);
+
+    /**
+     * the queue ran dry. returns how long the loop may sleep before calling
+     * this again, or Long.MAX_VALUE to sleep until the next message. when
+     * canWait is false there is no sleeping: whatever is pending goes now.
+     */
+    long onIdle(boolean canWait);
+
+    /**
+     * handling a message or the idle work threw. the message's own future
+     * has already been failed with e
+     */
+    void onFailure(RuntimeException e);
+  }
+
+  private final String name;
+  private final ConcurrentLinkedQueue<Msg> queue = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean draining = new AtomicBoolean();
+  private Handler handler;
+  private volatile Thread thread;
+  private volatile Thread drainer;
+  private volatile boolean sleeping;
+
+  private EventLoop(String name) {
+    this.name = name;
+  }
+
+  /**
+   * a loop with its own thread, started when the node is built
+   */
+  public static EventLoop onThread(String name) {
+    return new EventLoop(name);
+  }
+
+  /**
+   * a loop that runs on the posting threads
+   */
+  public static EventLoop onCaller() {
+    return new EventLoop(null);
+  }
+
+  synchronized void start(Handler handler) {
+    if (this.handler != null) throw new IllegalStateException("event loop already started");
+    this.handler = handler;
+    if (name != null) {
+      Thread t = new Thread(this::run, name);
+      t.setDaemon(true);
+      thread = t;
+      t.start();
+    }
+  }
+
+  void post(Msg msg) {
+    queue.add(msg);
+    Thread t = thread;
+    if (t != null) {
+      if (sleeping) LockSupport.unpark(t);
+    } else {
+      drainOnCaller();
+    }
+  }
+
+  /**
+   * post msg and wait until it has been handled
+   */
+  void await(Msg msg) {
+    Thread current = Thread.currentThread();
+    if (current == thread || current == drainer) {
+      throw new IllegalStateException("the event loop can't wait on itself");
+    }
+    var done = new CompletableFuture<Void>();
+    post(msg);
+    post(new Msg.Barrier(done));
+    done.join();
+  }
+
+  boolean inLoop() {
+    Thread current = Thread.currentThread();
+    return current == thread || current == drainer;
+  }
+
+  private void run() {
+    while (true) {
+      Msg msg = queue.poll();
+      if (msg != null) {
+        dispatch(msg);
+        continue;
+      }
+      long sleepNanos = idle(true);
+      if (!queue.isEmpty()) continue;
+
+      // set sleeping before the last look, so a post after it unparks us
+      sleeping = true;
+      if (queue.isEmpty()) {
+        if (sleepNanos == Long.MAX_VALUE) {
+          LockSupport.park(this);
+        } else if (sleepNanos > 0) {
+          LockSupport.parkNanos(this, sleepNanos);
+        }
+      }
+      sleeping = false;
+    }
+  }
+
+  private void drainOnCaller() {
+    // a poster that loses the race leaves its message to the one draining;
+    // that one looks at the queue again after letting go
+    while (!queue.isEmpty() && draining.compareAndSet(false, true)) {
+      drainer = Thread.currentThread();
+      try {
+        Msg msg;
+        while ((msg = queue.poll()) != null) {
+          dispatch(msg);
+        }
+        idle(false);
+      } finally {
+        drainer = null;
+        draining.set(false);
+      }
+    }
+  }
+
+  private void dispatch(Msg msg) {
+    try {
+      handler.handle(msg);
+    } catch (RuntimeException e) {
+      msg.fail(e);
+      handler.onFailure(e);
+    }
+  }
+
+  private long idle(boolean canWait) {
+    try {
+      return handler.onIdle(canWait);
+    } catch (RuntimeException e) {
+      handler.onFailure(e);
+      return Long.MAX_VALUE;
+    }
+  }
+}
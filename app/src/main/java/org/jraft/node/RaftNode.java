@@ -4,9 +4,13 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.jraft.Msg;
 import org.jraft.core.FollowerHandlers;
+import org.jraft.core.RaftAlgorithms;
 import org.jraft.core.RepeatingTask;
 import org.jraft.core.StateMachine;
 import org.jraft.metrics.RaftMetrics;
@@ -17,6 +21,7 @@ import org.jraft.rpc.LogEntry;
 import org.jraft.rpc.NodeId;
 import org.jraft.rpc.RequestVoteRequest;
 import org.jraft.rpc.RequestVoteResponse;
+import org.jraft.state.EncodedEntries;
 import org.jraft.state.LogStore;
 import org.jraft.state.RaftState;
 import org.jraft.state.RaftState.Role;
@@ -24,7 +29,60 @@ import org.jraft.util.ElectionTimer;
 
 import com.google.protobuf.ByteString;
 
+/**
+ * one raft server. everything it does runs on its event loop, one message at
+ * a time: the public methods post a message and wait for it, timers and
+ * transport callbacks post without waiting, and the log's fsync posts back
+ * when it is done. nothing here needs a lock and nothing on the loop waits
+ * on the network or on an fsync.
+ */
 public class RaftNode {
+  /**
+   * replication tuning; start from defaults() and override with the with* methods
+   */
+  public record ReplicationOptions(int maxInFlight, long inFlightTimeoutMs,
+                                   int maxBatchEntries, long maxBatchBytes,
+                                   int maxProposalBatch, long proposalLingerMicros) {
+    public static ReplicationOptions defaults() {
+      return new ReplicationOptions(DEFAULT_MAX_IN_FLIGHT, DEFAULT_IN_FLIGHT_TIMEOUT_MS,
+        DEFAULT_MAX_BATCH_ENTRIES, DEFAULT_MAX_BATCH_BYTES, DEFAULT_MAX_PROPOSAL_BATCH, 0);
+    }
+
+    /** AppendEntries requests outstanding per peer at once */
+    public ReplicationOptions withMaxInFlight(int v) {
+      return new ReplicationOptions(v, inFlightTimeoutMs, maxBatchEntries, maxBatchBytes,
+        maxProposalBatch, proposalLingerMicros);
+    }
+    /** how long a request may go unanswered before it counts as lost and its entries are sent again */
+    public ReplicationOptions withInFlightTimeoutMs(long v) {
+      return new ReplicationOptions(maxInFlight, v, maxBatchEntries, maxBatchBytes,
+        maxProposalBatch, proposalLingerMicros);
+    }
+    /** entries in one AppendEntries at most */
+    public ReplicationOptions withMaxBatchEntries(int v) {
+      return new ReplicationOptions(maxInFlight, inFlightTimeoutMs, v, maxBatchBytes,
+        maxProposalBatch, proposalLingerMicros);
+    }
+    /** encoded entry bytes in one AppendEntries at most; a larger single entry still goes out alone */
+    public ReplicationOptions withMaxBatchBytes(long v) {
+      return new ReplicationOptions(maxInFlight, inFlightTimeoutMs, maxBatchEntries, v,
+        maxProposalBatch, proposalLingerMicros);
+    }
+    /** client proposals appended and replicated together at most */
+    public ReplicationOptions withMaxProposalBatch(int v) {
+      return new ReplicationOptions(maxInFlight, inFlightTimeoutMs, maxBatchEntries, maxBatchBytes,
+        v, proposalLingerMicros);
+    }
+    /**
+     * how long a batch of proposals waits for more before it is appended.
+     * 0 (the default) waits for none: batches are whatever queued up meanwhile
+     */
+    public ReplicationOptions withProposalLingerMicros(long v) {
+      return new ReplicationOptions(maxInFlight, inFlightTimeoutMs, maxBatchEntries, maxBatchBytes,
+        maxProposalBatch, v);
+    }
+  }
+
   private final String id;
   private final List<String> peers;
   
@@ -45,12 +103,39 @@ public class RaftNode {
   private int votesGranted = 0;
   public final Map<String, Long> nextIndex = new HashMap<>();
   public final Map<String, Long> matchIndex = new HashMap<>();
-  
 
+  // per peer, the AppendEntries sent and not answered yet. nextIndex only
+  // moves on answers; new entries go out after the last request in flight.
+  private final Map<String, ReplicationWindow> windows = new HashMap<>();
+
+  // what one AppendEntries carries at most: a peer far behind catches up
+  // through a stream of these instead of one request past the message limit
+  private final int maxBatchEntries;
+  private final long maxBatchBytes;
+
+  private final EventLoop loop;
+
+  // proposals wait here until the loop runs out of messages (or the linger
+  // runs out), then go as one append and one replication round. with no
+  // linger the batch is whatever queued up while the loop was busy
+  private final List<Msg.ClientPropose> proposals = new ArrayList<>();
+  private final int maxProposalBatch;
+  private final long proposalLingerNanos;
+
+  // the reply to the last AppendEntries accepted. a reply may vouch for
+  // entries an earlier request appended, so none goes out before the one
+  // before it: replies leave in order, each once its entries are durable
+  private CompletableFuture<?> appendReplies = CompletableFuture.completedFuture(null);
 
   public static final long DEFAULT_HEARTBEAT_PERIOD_MS = 100;
   public static final long DEFAULT_MIN_ELECTION_MS = 250;
   public static final long DEFAULT_MAX_ELECTION_MS = 1000;
+  public static final int DEFAULT_MAX_IN_FLIGHT = 8;
+  public static final long DEFAULT_IN_FLIGHT_TIMEOUT_MS = 1000;
+  // well under gRPC's default 4MB message limit
+  public static final int DEFAULT_MAX_BATCH_ENTRIES = 1024;
+  public static final long DEFAULT_MAX_BATCH_BYTES = 1024 * 1024;
+  public static final int DEFAULT_MAX_PROPOSAL_BATCH = 1024;
 
   public RaftNode(String id, List<String> peers, RaftState state,
                   LogStore log, RaftTransport net, StateMachine stateMachine,
@@ -72,6 +157,28 @@ public class RaftNode {
                   RepeatingTask heartbeatTask, ElectionTimer electionTimer,
                   long minElectionMs, long maxElectionMs, long heartbeatPeriodMs,
                   RaftMetrics metrics) {
+    this(id, peers, state, log, net, stateMachine, heartbeatTask, electionTimer,
+      minElectionMs, maxElectionMs, heartbeatPeriodMs, metrics, ReplicationOptions.defaults());
+  }
+
+  public RaftNode(String id, List<String> peers, RaftState state,
+                  LogStore log, RaftTransport net, StateMachine stateMachine,
+                  RepeatingTask heartbeatTask, ElectionTimer electionTimer,
+                  long minElectionMs, long maxElectionMs, long heartbeatPeriodMs,
+                  RaftMetrics metrics, ReplicationOptions replication) {
+    this(id, peers, state, log, net, stateMachine, heartbeatTask, electionTimer,
+      minElectionMs, maxElectionMs, heartbeatPeriodMs, metrics, replication, EventLoop.onCaller());
+  }
+
+  /**
+   * loop runs the node: EventLoop.onThread for a server, EventLoop.onCaller
+   * (what the other constructors use) to handle everything on the calling thread
+   */
+  public RaftNode(String id, List<String> peers, RaftState state,
+                  LogStore log, RaftTransport net, StateMachine stateMachine,
+                  RepeatingTask heartbeatTask, ElectionTimer electionTimer,
+                  long minElectionMs, long maxElectionMs, long heartbeatPeriodMs,
+                  RaftMetrics metrics, ReplicationOptions replication, EventLoop loop) {
     this.id = id; this.peers = peers; this.raftState = state;
     this.stateMachine = stateMachine; this.log = log; this.net = net;
     this.heartbeatTask = heartbeatTask; this.electionTimer = electionTimer;
@@ -79,15 +186,68 @@ public class RaftNode {
     this.maxElectionMs = maxElectionMs;
     this.heartbeatPeriodMs = heartbeatPeriodMs;
     this.metrics = metrics;
+    this.maxBatchEntries = Math.max(1, replication.maxBatchEntries());
+    this.maxBatchBytes = replication.maxBatchBytes();
+    this.maxProposalBatch = Math.max(1, replication.maxProposalBatch());
+    this.proposalLingerNanos = Math.max(0, TimeUnit.MICROSECONDS.toNanos(replication.proposalLingerMicros()));
+    for (String p : peers) {
+      windows.put(p, new ReplicationWindow(replication.maxInFlight(),
+        TimeUnit.MILLISECONDS.toNanos(replication.inFlightTimeoutMs())));
+    }
+
+    this.loop = loop;
+    loop.start(new EventLoop.Handler() {
+      @Override public void handle(Msg msg) { RaftNode.this.handle(msg); }
+      @Override public long onIdle(boolean canWait) { return flushProposals(canWait); }
+      @Override public void onFailure(RuntimeException e) {
+        if (metrics != null) metrics.incEventLoopErrors();
+      }
+    });
 
     if (this.electionTimer != null) {
-      this.electionTimer.start(this.minElectionMs, this.maxElectionMs, this::onElectionTick);
+      this.electionTimer.start(this.minElectionMs, this.maxElectionMs, this::postElectionTick);
+    }
+  }
+
+  private void handle(Msg msg) {
+    if (msg instanceof Msg.RpcReplyComplete m) {
+      onAppendEntriesResponse(m);
+    } else if (msg instanceof Msg.ClientPropose m) {
+      onPropose(m);
+    } else if (msg instanceof Msg.RpcAppendReq m) {
+      onAppendEntriesRequest(m);
+    } else if (msg instanceof Msg.LogDurable) {
+      onLocalDurable();
+    } else if (msg instanceof Msg.LogFailed) {
+      onLocalLogFailed();
+    } else if (msg instanceof Msg.Compact m) {
+      onCompact(m);
+    } else if (msg instanceof Msg.TickHeartbeat) {
+      broadcastHeartbeats();
+    } else if (msg instanceof Msg.TickElection) {
+      electionTimeout();
+    } else if (msg instanceof Msg.RpcVoteReq m) {
+      onRequestVoteRequest(m);
+    } else if (msg instanceof Msg.RpcVoteReply m) {
+      onRequestVoteResponse(m);
+    } else if (msg instanceof Msg.Barrier m) {
+      m.done().complete(null);
     }
   }
 
+  private void postElectionTick() { loop.post(new Msg.TickElection()); }
+  private void postHeartbeatTick() { loop.post(new Msg.TickHeartbeat()); }
+
+  /**
+   * what the election timer does: start an election unless leader
+   */
   public void onElectionTick() {
+    loop.await(new Msg.TickElection());
+  }
+
+  private void electionTimeout() {
     if (raftState.getRole() == RaftState.Role.LEADER) return;
-    startElection();
+    beginElection();
   }
 
   public int getElectionResetCount() { return electionResetProbe.get(); }
@@ -99,7 +259,14 @@ public class RaftNode {
     }
   }
 
+  /**
+   * same as an election timeout
+   */
   public void startElection() {
+    onElectionTick();
+  }
+
+  private void beginElection() {
     if (metrics != null) metrics.incElections();
     raftState.setCurrentTerm(raftState.getCurrentTerm() + 1);
     raftState.setVotedFor(id);
@@ -115,8 +282,9 @@ public class RaftNode {
                     .setLastLogTerm(lastTerm)
                     .build();
 
+    long term = raftState.getCurrentTerm();
     for (String peer : peers) {
-      net.requestVote(peer, request, resp -> onRequestVoteResponse(peer, resp));
+      net.requestVote(peer, request, resp -> loop.post(new Msg.RpcVoteReply(peer, term, resp)));
     }
 
     // Reset election timer so if this election fails (split vote), we'll try again
@@ -126,26 +294,36 @@ public class RaftNode {
   private int majority() { return (peers.size() + 1) / 2 + 1;}
 
   private void stepDown(long newTerm) {
-    if (heartbeatTask != null) heartbeatTask.stop();
-    
     raftState.setCurrentTerm(newTerm);
     raftState.setVotedFor(null);
+    becomeFollower();
+  }
+
+  /**
+   * stop leading or campaigning without a new term: the vote already cast
+   * in this one stands
+   */
+  private void becomeFollower() {
+    if (heartbeatTask != null) heartbeatTask.stop();
     raftState.becomeFollower();
     raftState.setLeader(null);
 
     if (electionTimer != null && !electionTimer.isRunning()) {
-      electionTimer.start(minElectionMs, maxElectionMs, this::onElectionTick);
+      electionTimer.start(minElectionMs, maxElectionMs, this::postElectionTick);
     } else if (electionTimer != null) {
       electionTimer.reset();
     }
   }
 
 
-  private void onRequestVoteResponse(String peerId, RequestVoteResponse resp) {
+  private void onRequestVoteResponse(Msg.RpcVoteReply msg) {
+    RequestVoteResponse resp = msg.resp();
     if (resp.getTerm() > raftState.getCurrentTerm()) {
       stepDown(resp.getTerm());
       return;
     }
+    // a late vote from an election we've since given up on
+    if (msg.electionTerm() != raftState.getCurrentTerm()) return;
 
     var role = raftState.getRole();
 
@@ -182,26 +360,73 @@ public class RaftNode {
     for (String p : peers) {
       nextIndex.put(p, ni);
       matchIndex.put(p, 0L);
+      windows.get(p).clear();
     }
 
     // Immediately send one round of heartbeats
-    sendHeartbeats();
+    broadcastHeartbeats();
 
     if (heartbeatTask != null && !heartbeatTask.isRunning()) {
-      heartbeatTask.start(this::sendHeartbeats, heartbeatPeriodMs);
+      heartbeatTask.start(this::postHeartbeatTick, heartbeatPeriodMs);
     }
   }
 
-  private void sendAppendEntriesToPeer(String p) {
-    long next = nextIndex.get(p);
+  /**
+   * send p whatever it is due: the entries past nextIndex if its window has
+   * room, otherwise (on a heartbeat) an empty request to keep it from timing out
+   */
+  private void sendAppendEntriesToPeer(String p, boolean heartbeat) {
+    ReplicationWindow window = windows.get(p);
+    long now = System.nanoTime();
+    if (window.expired(now)) {
+      // no answer in time: assume everything in flight was lost, send it again
+      window.clear();
+    } else if (heartbeat && !window.isEmpty() && window.onlyProbes()) {
+      // probes carry no entries: a fresh one costs nothing, and the peer's
+      // answer to it is as good as the answer to the old ones
+      window.clear();
+    }
+
+    long next = window.sendFrom(nextIndex.get(p));
+    if (next < log.firstIndex()) {
+      // the peer needs entries we have compacted away and there is no
+      // InstallSnapshot yet: keep it from timing out without touching its log
+      if (heartbeat) sendEmptyHeartbeat(p, 0);
+      return;
+    }
+    long last = log.lastIndex();
+    boolean probe = window.isEmpty();
+    if (window.isFull() || (next > last && !probe)) {
+      // in flight already: those requests carry the entries and keep the peer's
+      // timer reset. a heartbeat still goes out in case they are slow to land.
+      if (heartbeat) sendEmptyHeartbeat(p, matchIndex.getOrDefault(p, 0L));
+      return;
+    }
+    if (next > last && !heartbeat) return;
+
+    // with nothing in flight this also probes where the peer's log matches ours
+    sendBatch(p, window, next, last, now);
+
+    // once the peer is known to match up to nextIndex, fill the window: a
+    // peer far behind gets batch after batch without waiting on each answer.
+    // while still probing, one request at a time, most would be rejected.
+    if (matchIndex.getOrDefault(p, 0L) < nextIndex.get(p) - 1) return;
+    while (!window.isFull() && (next = window.sendFrom(nextIndex.get(p))) <= last) {
+      sendBatch(p, window, next, last, now);
+    }
+  }
+
+  /**
+   * send p the entries from next, as many up to last as one batch holds
+   */
+  private void sendBatch(String p, ReplicationWindow window, long next, long last, long now) {
     long prev = next - 1;
     long prevTerm = log.termAt(prev);
 
-    List<LogEntry> entries = new ArrayList<>();
-    long lastIdx = log.lastIndex();
-    for (long i = next; i <= lastIdx; i++) {
-      entries.add(log.entryAt(i));
-    }
+    // entries go out as the log's own bytes, never parsed and re-serialized
+    long to = Math.min(last, next + maxBatchEntries - 1);
+    EncodedEntries entries = next > last ? EncodedEntries.EMPTY : log.encodedEntries(next, to, maxBatchBytes);
+    if (metrics != null && entries.count() > 0) metrics.recordAppendBatch(entries.count(), entries.size());
 
     var req = AppendEntriesRequest.newBuilder()
         .setTerm(raftState.getCurrentTerm())
@@ -209,15 +434,50 @@ public class RaftNode {
         .setPrevLogIndex(prev)
         .setPrevLogTerm(prevTerm)
         .setLeaderCommit(raftState.getCommitIndex())
-        .addAllEntries(entries)
         .build();
 
-    net.appendEntries(p, req, (resp) -> onAppendEntriesResponse(p, prev, entries.size(), resp));
+    // optimistic: the next request starts where this one ends
+    ReplicationWindow.Flight flight = window.send(prev, prev + entries.count(), now);
+    long requestId = flight.id;
+    long sentLast = flight.lastIndex;
+    net.appendEntries(p, req, entries,
+      (resp) -> loop.post(new Msg.RpcReplyComplete(p, requestId, sentLast, resp)));
+  }
+
+  /**
+   * heartbeat anchored at an index the peer is known to match (0 always
+   * does). leaderCommit goes no further than that index, so the peer never
+   * commits entries we could not check. it is not part of the window.
+   */
+  private void sendEmptyHeartbeat(String p, long anchor) {
+    if (anchor < log.firstIndex() - 1) anchor = 0;
+    var req = AppendEntriesRequest.newBuilder()
+        .setTerm(raftState.getCurrentTerm())
+        .setLeaderId(NodeId.newBuilder().setId(id))
+        .setPrevLogIndex(anchor)
+        .setPrevLogTerm(log.termAt(anchor))
+        .setLeaderCommit(Math.min(anchor, raftState.getCommitIndex()))
+        .build();
+
+    long sentLast = anchor;
+    net.appendEntries(p, req, (resp) -> loop.post(new Msg.RpcReplyComplete(p, 0, sentLast, resp)));
   }
 
   public void sendHeartbeats() {
+    loop.await(new Msg.TickHeartbeat());
+  }
+
+  private void broadcastHeartbeats() {
     if (raftState.getRole() != RaftState.Role.LEADER) return;
-    for (String p : peers) sendAppendEntriesToPeer(p);
+    for (String p : peers) sendAppendEntriesToPeer(p, true);
+  }
+
+  /**
+   * send new entries to every peer whose window has room
+   */
+  private void replicate() {
+    if (raftState.getRole() != RaftState.Role.LEADER) return;
+    for (String p : peers) sendAppendEntriesToPeer(p, false);
   }
 
   private void advanceCommitIndex() {
@@ -225,8 +485,9 @@ public class RaftNode {
       // only commit entries from the current term
       if (log.termAt(n) != raftState.getCurrentTerm()) continue;
       
-      // how many nodes have this entry?
-      int replicationCount = 1; // leader has it!
+      // how many nodes have this entry on disk? the leader's own fsync may
+      // still be in flight, so it counts like any peer
+      int replicationCount = log.durableIndex() >= n ? 1 : 0;
       for (String peer : peers) {
         if (matchIndex.getOrDefault(peer, 0L) >= n) {
           replicationCount++;
@@ -242,79 +503,247 @@ public class RaftNode {
   }
 
   private void applyCommitedEntries() {
-    while (raftState.getLastApplied() < raftState.getCommitIndex()) {
-      long index = raftState.getLastApplied() + 1;
-      var entry = log.entryAt(index);
-      if (stateMachine != null) {
-        stateMachine.apply(entry);
-      }
-      raftState.setLastApplied(index);
-    }
+    RaftAlgorithms.applyCommitted(log, raftState, stateMachine);
   }
 
 
-  private void onAppendEntriesResponse(String peerId, long sentPrevIndex, int entriesCount, AppendEntriesResponse resp) {
+  /**
+   * responses may come back in any order, more than once, or after their
+   * request was given up on. a success is a fact about the peer's log whenever
+   * it arrives; a rejection only counts while its request is in the window.
+   */
+  private void onAppendEntriesResponse(Msg.RpcReplyComplete msg) {
+    AppendEntriesResponse resp = msg.resp();
     if (resp.getTerm() > raftState.getCurrentTerm()) {
       stepDown(resp.getTerm());
       return;
     }
+    // an empty heartbeat: only its term mattered
+    if (msg.requestId() == 0) return;
     if (raftState.getRole() != RaftState.Role.LEADER) return;
 
+    String peerId = msg.followerId();
+    ReplicationWindow window = windows.get(peerId);
     if (resp.getSuccess()) {
-      long match = sentPrevIndex + entriesCount;
+      window.complete(msg.requestId());
+      // the peer says how far it matches; never past what this request carried.
+      // peers that don't report it leave it 0
+      long sent = msg.sentLastIndex();
+      long reported = resp.getMatchIndex() > 0 ? Math.min(resp.getMatchIndex(), sent) : sent;
+      long match = Math.max(reported, matchIndex.getOrDefault(peerId, 0L));
       matchIndex.put(peerId, match);
-      nextIndex.put(peerId, match + 1);
+      if (nextIndex.get(peerId) <= match) nextIndex.put(peerId, match + 1);
       advanceCommitIndex();
+      // room in the window again: keep the stream going
+      sendAppendEntriesToPeer(peerId, false);
       return;
     }
 
     if (metrics != null) metrics.incAppendEntriesFailed();
-    long currentNext = nextIndex.getOrDefault(peerId, 1L);
-    if (currentNext > 1) {
-      long backedOff = currentNext - 1;   // move left by one
-      nextIndex.put(peerId, backedOff);
-      // immediate retry using the new (prevIndex, prevTerm)
-      sendAppendEntriesToPeer(peerId);
-    } else {
-      // nextIndex already at 1 → prevIdx will be 0; retry once more at base
-      // (this is idempotent; it may have already been tried)
-      sendAppendEntriesToPeer(peerId);
+    if (window.hasEarlier(msg.requestId())) {
+      // the peer may just not have seen an earlier request yet (requests can
+      // overtake each other): resend this one's entries once those are answered
+      window.dropFrom(msg.requestId());
+      return;
     }
+    ReplicationWindow.Flight flight = window.complete(msg.requestId());
+    if (flight == null) return;  // already voided or expired
+
+    // the peer's log doesn't match ours at prevIndex: everything sent after it
+    // is void too. back off and retry right away
+    window.clear();
+    nextIndex.put(peerId, backtrack(peerId, flight, resp));
+    sendAppendEntriesToPeer(peerId, false);
   }
 
+  /**
+   * where to resume after peer rejected flight. with the peer's conflict hint
+   * this skips a term per round trip: just past our last entry of its
+   * conflicting term if we have one (the logs agree up to there), else where
+   * that term starts on the peer, or the end of a log too short to reach
+   * prevIndex. without a hint, one entry left. always left of the rejected
+   * request and never at or below matchIndex.
+   */
+  private long backtrack(String peerId, ReplicationWindow.Flight flight, AppendEntriesResponse resp) {
+    long next = flight.prevIndex;
+    if (resp.getConflictStartIndex() > 0) {
+      long ours = RaftAlgorithms.lastIndexOfTerm(log, resp.getConflictTerm(), flight.prevIndex);
+      next = ours > 0 ? ours + 1 : resp.getConflictStartIndex();
+    }
+    long floor = Math.max(1, matchIndex.getOrDefault(peerId, 0L) + 1);
+    return Math.max(floor, Math.min(next, flight.prevIndex));
+  }
 
+  /**
+   * answers once the entries req appended are durable
+   */
   public AppendEntriesResponse onAppendEntriesRequest(AppendEntriesRequest req) {
+    var reply = new CompletableFuture<AppendEntriesResponse>();
+    loop.post(new Msg.RpcAppendReq(req, reply));
+    return reply.join();
+  }
+
+  private void onAppendEntriesRequest(Msg.RpcAppendReq msg) {
+    AppendEntriesRequest req = msg.req();
     // Reset election timer if term is >= current (even on failure)
     // This prevents unnecessary elections when receiving valid heartbeats
     if (req.getTerm() >= raftState.getCurrentTerm()) {
       resetElectionTimer();
     }
-    return FollowerHandlers.onAppendEntries(stateMachine, log, raftState, req);
+    var response = FollowerHandlers.onAppendEntriesAsync(stateMachine, log, raftState, req);
+    var reply = appendReplies.handle((r, e) -> null).thenCompose(ignored -> response);
+    appendReplies = reply;
+    reply.whenComplete((r, e) -> {
+      if (e != null) {
+        msg.reply().completeExceptionally(e);
+      } else {
+        msg.reply().complete(r);
+      }
+    });
   }
 
   public RequestVoteResponse onRequestVoteRequest(RequestVoteRequest req) {
-    var response = FollowerHandlers.onRequestVote(log, raftState, req);
+    var reply = new CompletableFuture<RequestVoteResponse>();
+    loop.post(new Msg.RpcVoteReq(req, reply));
+    return reply.join();
+  }
+
+  private void onRequestVoteRequest(Msg.RpcVoteReq msg) {
+    var response = FollowerHandlers.onRequestVote(log, raftState, msg.req());
     if (response.getVoteGranted()) {
       resetElectionTimer();
     }
-    return response;
+    msg.reply().complete(response);
   }
 
+  /**
+   * append data to the log and start replicating it. returns its index once
+   * appended, or -1 if this node is not the leader.
+   */
   public long propose(byte[] data) {
-    if (raftState.getRole() != Role.LEADER) return -1;
+    if (loop.inLoop()) throw new IllegalStateException("propose from the event loop would wait on itself");
+    return proposeAsync(data).join();
+  }
 
-    long index = log.lastIndex() + 1;
+  /**
+   * propose without waiting: completes with the index, or -1 if this node
+   * was not the leader when the proposal's batch ran
+   */
+  public CompletableFuture<Long> proposeAsync(byte[] data) {
+    var proposal = new Msg.ClientPropose(data, System.nanoTime(), new CompletableFuture<>());
+    loop.post(proposal);
+    return proposal.index();
+  }
+
+  private void onPropose(Msg.ClientPropose msg) {
+    if (raftState.getRole() != Role.LEADER) {
+      msg.index().complete(-1L);
+      return;
+    }
+    proposals.add(msg);
+    if (proposals.size() >= maxProposalBatch) appendProposals();
+  }
+
+  /**
+   * the loop ran out of messages: append the proposals waiting, unless the
+   * linger says to hold them a while longer. returns how long that is.
+   */
+  private long flushProposals(boolean canWait) {
+    if (proposals.isEmpty()) return Long.MAX_VALUE;
+    if (canWait && proposalLingerNanos > 0) {
+      long wait = proposals.get(0).enqueuedNanos() + proposalLingerNanos - System.nanoTime();
+      if (wait > 0) return wait;
+    }
+    appendProposals();
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * the proposals waiting, as a single append and a single replication round.
+   * they leave the queue once appended; if the append throws, each fails
+   * with the error instead
+   */
+  private void appendProposals() {
+    List<Msg.ClientPropose> batch = new ArrayList<>(proposals);
+    if (raftState.getRole() != Role.LEADER) {
+      proposals.clear();
+      for (Msg.ClientPropose p : batch) p.index().complete(-1L);
+      return;
+    }
+
+    long first = log.lastIndex() + 1;
     long term = raftState.getCurrentTerm();
+    long now = System.nanoTime();
+    long queuedNanos = 0;
+    long maxQueuedNanos = 0;
+    List<LogEntry> entries = new ArrayList<>(batch.size());
+    for (Msg.ClientPropose p : batch) {
+      entries.add(LogEntry.newBuilder()
+                    .setIndex(first + entries.size())
+                    .setTerm(term)
+                    .setData(ByteString.copyFrom(p.data()))
+                    .build());
+      queuedNanos += now - p.enqueuedNanos();
+      maxQueuedNanos = Math.max(maxQueuedNanos, now - p.enqueuedNanos());
+    }
 
-    var entry = LogEntry.newBuilder()
-                  .setIndex(index)
-                  .setTerm(term)
-                  .setData(ByteString.copyFrom(data))
-                  .build();
-    
-    log.append(List.of(entry));
-    sendHeartbeats();
-    return index;
+    CompletableFuture<Long> durable;
+    try {
+      durable = log.appendAsync(entries);
+    } catch (RuntimeException e) {
+      proposals.clear();
+      for (Msg.ClientPropose p : batch) p.index().completeExceptionally(e);
+      throw e;
+    }
+    proposals.clear();
+    if (metrics != null) metrics.recordProposalBatch(batch.size(), queuedNanos, maxQueuedNanos);
+    durable.whenComplete((index, e) -> loop.post(e == null ? new Msg.LogDurable(index) : new Msg.LogFailed(e)));
+
+    // replicate while our own fsync is in flight; commit waits for both
+    try {
+      replicate();
+    } finally {
+      for (int i = 0; i < batch.size(); i++) {
+        batch.get(i).index().complete(first + i);
+      }
+    }
+  }
+
+  private void onLocalDurable() {
+    if (raftState.getRole() != Role.LEADER) return;
+    advanceCommitIndex();
+  }
+
+  /**
+   * our own fsync failed: entries we appended may never reach disk, so we
+   * can't count ourselves toward a commit. let another node lead
+   */
+  private void onLocalLogFailed() {
+    if (raftState.getRole() != Role.LEADER) return;
+    becomeFollower();
+  }
+
+  /**
+   * drop log entries below index, but never past what has been applied or
+   * what the state machine's snapshot covers: a restarted node only replays
+   * what is left. completes with the log's first index once done, or fails
+   * if the state machine keeps no snapshot.
+   */
+  public CompletableFuture<Long> compactLog(long index) {
+    var compact = new Msg.Compact(index, new CompletableFuture<>());
+    loop.post(compact);
+    return compact.firstIndex();
+  }
+
+  private void onCompact(Msg.Compact msg) {
+    long snapshot = stateMachine == null ? 0 : stateMachine.snapshotIndex();
+    if (snapshot == 0) {
+      msg.firstIndex().completeExceptionally(new UnsupportedOperationException(
+        "log compaction needs a state machine snapshot: a restarted node would lose the dropped entries"));
+      return;
+    }
+    log.truncatePrefix(Math.min(msg.index(), Math.min(raftState.getLastApplied(), snapshot) + 1));
+    msg.firstIndex().complete(log.firstIndex());
   }
 
   // --- accessors for testing ---
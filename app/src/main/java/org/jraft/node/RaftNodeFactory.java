@@ -6,12 +6,12 @@ import java.nio.file.Path;
 import java.util.List;
 import java.util.Objects;
 
+import org.jraft.core.RaftAlgorithms;
 import org.jraft.core.RepeatingTask;
 import org.jraft.core.StateMachine;
 import org.jraft.metrics.RaftMetrics;
 import org.jraft.net.RaftTransport;
 import org.jraft.state.FileLogStore;
-import org.jraft.state.LogStore;
 import org.jraft.state.PersistentState;
 import org.jraft.state.RaftState;
 import org.jraft.util.ElectionTimer;
@@ -77,6 +77,48 @@ public class RaftNodeFactory {
       long maxElectionMs,
       long heartbeatMs,
       RaftMetrics metrics) throws IOException {
+    return create(nodeId, peers, dataDir, stateMachine, transport,
+      minElectionMs, maxElectionMs, heartbeatMs, metrics, FileLogStore.Options.defaults());
+  }
+
+  /**
+   * create a raft node with custom log storage options (segment size, sync mode
+   * and its interval, recovery threads, ...). whatever the sync mode, the leader
+   * only counts itself toward a commit once the log reports the entry durable.
+   */
+  public static RaftNode create(
+      String nodeId,
+      List<String> peers,
+      Path dataDir,
+      StateMachine stateMachine,
+      RaftTransport transport,
+      long minElectionMs,
+      long maxElectionMs,
+      long heartbeatMs,
+      RaftMetrics metrics,
+      FileLogStore.Options logOptions) throws IOException {
+    return create(nodeId, peers, dataDir, stateMachine, transport,
+      minElectionMs, maxElectionMs, heartbeatMs, metrics, logOptions, RaftNode.ReplicationOptions.defaults());
+  }
+
+  /**
+   * create a raft node with custom replication options: how many AppendEntries
+   * it keeps in flight per peer, how long it waits on one before sending it
+   * again, how many entries and bytes one may carry, and how client
+   * proposals are batched into log appends
+   */
+  public static RaftNode create(
+      String nodeId,
+      List<String> peers,
+      Path dataDir,
+      StateMachine stateMachine,
+      RaftTransport transport,
+      long minElectionMs,
+      long maxElectionMs,
+      long heartbeatMs,
+      RaftMetrics metrics,
+      FileLogStore.Options logOptions,
+      RaftNode.ReplicationOptions replication) throws IOException {
 
     Files.createDirectories(dataDir);
 
@@ -85,7 +127,7 @@ public class RaftNodeFactory {
 
     // recover or create log storage
     Path logDir = dataDir.resolve("log");
-    LogStore log = new FileLogStore(logDir);
+    FileLogStore log = new FileLogStore(logDir, logOptions, metrics);
 
     // create raft state and wire persistence hooks
     // initialize directly to avoid triggering persistence on load
@@ -99,21 +141,27 @@ public class RaftNodeFactory {
     // note: commitIndex is volatile and starts at 0 on recovery
     // however, we conservatively replay all log entries to the state machine
     // this provides better recovery UX and is safe if operations are idempotent
+    // entries before firstIndex are gone: only a snapshot can stand in for
+    // them. starting without one would serve partial state
+    if (stateMachine != null && log.firstIndex() > 1 && stateMachine.snapshotIndex() < log.firstIndex() - 1) {
+      log.close();
+      throw new IOException("log in " + logDir + " was compacted up to index " + (log.firstIndex() - 1) +
+        " but the state machine has no snapshot covering it");
+    }
     if (stateMachine != null && log.lastIndex() > 0) {
-      for (long i = 1; i <= log.lastIndex(); i++) {
-        var entry = log.entryAt(i);
-        if (entry != null) {
-          stateMachine.apply(entry);
-          raftState.setCommitIndex(i);
-          raftState.setLastApplied(i);
-        }
-      }
+      // a compacted log can only replay what it still holds
+      raftState.setLastApplied(log.firstIndex() - 1);
+      raftState.setCommitIndex(log.lastIndex());
+      RaftAlgorithms.applyCommitted(log, raftState, stateMachine);
     }
 
     // create timer implementations
     ElectionTimer electionTimer = new ExecutorElectionTimer("raft-election-" + nodeId);
     RepeatingTask heartbeatTask = new ExecutorRepeatingTask();
 
+    // everything the node does runs on this thread
+    EventLoop loop = EventLoop.onThread("raft-" + nodeId);
+
     return new RaftNode(
       nodeId,
       peers,
@@ -126,7 +174,9 @@ public class RaftNodeFactory {
       minElectionMs,
       maxElectionMs,
       heartbeatMs,
-      metrics
+      metrics,
+      replication,
+      loop
     );
   }
 
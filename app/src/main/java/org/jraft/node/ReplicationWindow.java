@@ -0,0 +1,142 @@
+package org.jraft.node;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * AppendEntries requests sent to one peer and not answered yet, oldest first.
+ *
+ * the leader sends a peer new entries from where its last request in flight
+ * ended rather than from nextIndex, which only moves on acknowledgements: new
+ * entries follow right behind ones still in flight and nothing is sent twice
+ * while a request is out. at most maxInFlight requests are outstanding at once.
+ *
+ * a request leaves the window when its response arrives, when a rejection
+ * voids it and everything sent after it, or when the oldest one has waited
+ * longer than the timeout: the transport never reports a lost request, so
+ * silence is the only sign of one.
+ *
+ * requests are named by an id, unique within the window, so a response
+ * posted back to the node's event loop can find its request. only the loop
+ * touches the window.
+ */
+final class ReplicationWindow {
+
+  /**
+   * one request in flight: it carried the entries in (prevIndex, lastIndex].
+   * two requests can carry the same range, the id tells them apart.
+   */
+  static final class Flight {
+    final long id;
+    final long prevIndex;
+    final long lastIndex;
+    final long sentNanos;
+
+    Flight(long id, long prevIndex, long lastIndex, long sentNanos) {
+      this.id = id;
+      this.prevIndex = prevIndex;
+      this.lastIndex = lastIndex;
+      this.sentNanos = sentNanos;
+    }
+  }
+
+  private final int maxInFlight;
+  private final long timeoutNanos;
+  private final ArrayDeque<Flight> flights = new ArrayDeque<>();
+  // 0 is left for requests outside the window
+  private long nextId = 1;
+
+  ReplicationWindow(int maxInFlight, long timeoutNanos) {
+    this.maxInFlight = Math.max(1, maxInFlight);
+    this.timeoutNanos = timeoutNanos;
+  }
+
+  boolean isEmpty() {
+    return flights.isEmpty();
+  }
+
+  boolean isFull() {
+    return flights.size() >= maxInFlight;
+  }
+
+  int size() {
+    return flights.size();
+  }
+
+  /**
+   * where the next request should start: right after the newest one in
+   * flight, or at nextIndex with nothing in flight
+   */
+  long sendFrom(long nextIndex) {
+    return flights.isEmpty() ? nextIndex : Math.max(nextIndex, flights.peekLast().lastIndex + 1);
+  }
+
+  /**
+   * record a request carrying (prevIndex, lastIndex] as sent at nowNanos
+   */
+  Flight send(long prevIndex, long lastIndex, long nowNanos) {
+    Flight flight = new Flight(nextId++, prevIndex, lastIndex, nowNanos);
+    flights.addLast(flight);
+    return flight;
+  }
+
+  /**
+   * take request id out on its response. null if it was already gone: voided
+   * by a rejection, expired, or this is a second response to it.
+   */
+  Flight complete(long id) {
+    for (Iterator<Flight> it = flights.iterator(); it.hasNext(); ) {
+      Flight f = it.next();
+      if (f.id == id) {
+        it.remove();
+        return f;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * whether a request sent before request id is still unanswered. a rejection
+   * with one outstanding may only mean the peer hasn't seen it yet.
+   */
+  boolean hasEarlier(long id) {
+    if (flights.isEmpty() || flights.peekFirst().id == id) return false;
+    for (Flight f : flights) {
+      if (f.id == id) return true;
+    }
+    return false;
+  }
+
+  /**
+   * void request id and every request sent after it
+   */
+  void dropFrom(long id) {
+    boolean found = false;
+    for (Iterator<Flight> it = flights.iterator(); it.hasNext(); ) {
+      Flight f = it.next();
+      found |= f.id == id;
+      if (found) it.remove();
+    }
+  }
+
+  /**
+   * whether every request in flight is an empty probe, carrying no entries
+   */
+  boolean onlyProbes() {
+    for (Flight f : flights) {
+      if (f.lastIndex != f.prevIndex) return false;
+    }
+    return true;
+  }
+
+  /**
+   * whether the oldest request has gone unanswered for longer than the timeout
+   */
+  boolean expired(long nowNanos) {
+    return !flights.isEmpty() && nowNanos - flights.peekFirst().sentNanos > timeoutNanos;
+  }
+
+  void clear() {
+    flights.clear();
+  }
+}
@@ -113,6 +113,7 @@ public class NodeHttpServer {
     response.commitIndex = state.getCommitIndex();
     response.lastApplied = state.getLastApplied();
     response.lastLogIndex = node.getLog().lastIndex();
+    response.durableLogIndex = node.getLog().durableIndex();
     response.peers = allNodeIds;
 
     sendJson(exchange, 200, response);
@@ -132,6 +133,25 @@ public class NodeHttpServer {
       response.appendEntriesFailed = metrics.getAppendEntriesFailed();
       response.requestVoteSent = metrics.getRequestVoteSent();
       response.requestVoteFailed = metrics.getRequestVoteFailed();
+      response.eventLoopErrors = metrics.getEventLoopErrors();
+      response.walFsyncsTotal = metrics.getWalFsyncsTotal();
+      response.walFsyncEntriesTotal = metrics.getWalFsyncEntriesTotal();
+      response.walFsyncMaxBatch = metrics.getWalFsyncMaxBatch();
+      response.walFsyncMicrosTotal = metrics.getWalFsyncMicrosTotal();
+      response.walFsyncMaxMicros = metrics.getWalFsyncMaxMicros();
+      response.appendBatchesTotal = metrics.getAppendBatchesTotal();
+      response.appendBatchEntriesTotal = metrics.getAppendBatchEntriesTotal();
+      response.appendBatchMaxEntries = metrics.getAppendBatchMaxEntries();
+      response.appendBatchBytesTotal = metrics.getAppendBatchBytesTotal();
+      response.appendBatchMaxBytes = metrics.getAppendBatchMaxBytes();
+      response.appendBatchEntriesHistogram = metrics.getAppendBatchEntriesHistogram();
+      response.proposalBatchesTotal = metrics.getProposalBatchesTotal();
+      response.proposalsTotal = metrics.getProposalsTotal();
+      response.proposalMaxBatch = metrics.getProposalMaxBatch();
+      response.proposalQueueMicrosTotal = metrics.getProposalQueueMicrosTotal();
+      response.proposalQueueMaxMicros = metrics.getProposalQueueMaxMicros();
+      response.logCacheHits = metrics.getLogCacheHits();
+      response.logCacheMisses = metrics.getLogCacheMisses();
     }
     sendJson(exchange, 200, response);
   }
@@ -345,6 +365,7 @@ public class NodeHttpServer {
     long commitIndex;
     long lastApplied;
     long lastLogIndex;
+    long durableLogIndex;
     List<String> peers;
   }
 
@@ -355,6 +376,25 @@ public class NodeHttpServer {
     long appendEntriesFailed;
     long requestVoteSent;
     long requestVoteFailed;
+    long eventLoopErrors;
+    long walFsyncsTotal;
+    long walFsyncEntriesTotal;
+    long walFsyncMaxBatch;
+    long walFsyncMicrosTotal;
+    long walFsyncMaxMicros;
+    long appendBatchesTotal;
+    long appendBatchEntriesTotal;
+    long appendBatchMaxEntries;
+    long appendBatchBytesTotal;
+    long appendBatchMaxBytes;
+    long[] appendBatchEntriesHistogram;
+    long proposalBatchesTotal;
+    long proposalsTotal;
+    long proposalMaxBatch;
+    long proposalQueueMicrosTotal;
+    long proposalQueueMaxMicros;
+    long logCacheHits;
+    long logCacheMisses;
   }
 
   private static class WriteResponse {
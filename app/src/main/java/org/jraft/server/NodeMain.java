@@ -14,6 +14,7 @@ import org.jraft.metrics.RaftMetrics;
 import org.jraft.net.grpc.GrpcRaftTransport;
 import org.jraft.node.RaftNode;
 import org.jraft.node.RaftNodeFactory;
+import org.jraft.state.FileLogStore;
 
 public class NodeMain {
 
@@ -31,6 +32,23 @@ public class NodeMain {
     long maxElection = parseLong("ELECTION_TIMEOUT_MAX_MS", cli, RaftNode.DEFAULT_MAX_ELECTION_MS);
     long heartbeatMs = parseLong("HEARTBEAT_MS", cli, RaftNode.DEFAULT_HEARTBEAT_PERIOD_MS);
     long rpcTimeoutMs = parseLong("RPC_TIMEOUT_MS", cli, 2_000);
+    FileLogStore.Options logOptions = FileLogStore.Options.defaults()
+      .withRecoveryThreads(parseInt("LOG_RECOVERY_THREADS", cli, FileLogStore.DEFAULT_RECOVERY_THREADS))
+      .withSyncMode(parseSyncMode("LOG_SYNC_MODE", cli, FileLogStore.SyncMode.PER_APPEND))
+      .withSyncIntervalMs(parseLong("LOG_SYNC_INTERVAL_MS", cli, FileLogStore.DEFAULT_SYNC_INTERVAL_MS))
+      .withSyncIntervalBytes(parseLong("LOG_SYNC_INTERVAL_BYTES", cli, FileLogStore.DEFAULT_SYNC_INTERVAL_BYTES))
+      .withDirectIo(parseBoolean("LOG_DIRECT_IO", cli, false))
+      .withMaxMappedSegments(parseInt("LOG_MAPPED_SEGMENTS", cli, FileLogStore.DEFAULT_MAPPED_SEGMENTS))
+      .withMaxOpenSegments(parseInt("LOG_OPEN_SEGMENTS", cli, FileLogStore.DEFAULT_OPEN_SEGMENTS))
+      .withCompressSealedSegments(parseBoolean("LOG_COMPRESS_SEGMENTS", cli, false));
+    // a request unanswered past the rpc deadline is lost: the transport never reports it
+    RaftNode.ReplicationOptions replication = RaftNode.ReplicationOptions.defaults()
+      .withMaxInFlight(parseInt("REPLICATION_MAX_IN_FLIGHT", cli, RaftNode.DEFAULT_MAX_IN_FLIGHT))
+      .withInFlightTimeoutMs(rpcTimeoutMs)
+      .withMaxBatchEntries(parseInt("REPLICATION_MAX_BATCH_ENTRIES", cli, RaftNode.DEFAULT_MAX_BATCH_ENTRIES))
+      .withMaxBatchBytes(parseLong("REPLICATION_MAX_BATCH_BYTES", cli, RaftNode.DEFAULT_MAX_BATCH_BYTES))
+      .withMaxProposalBatch(parseInt("PROPOSAL_MAX_BATCH", cli, RaftNode.DEFAULT_MAX_PROPOSAL_BATCH))
+      .withProposalLingerMicros(parseLong("PROPOSAL_LINGER_US", cli, 0));
 
     Map<String, String> peerTargets = parsePeers(peersRaw, nodeId);
     Map<String, String> httpPeers = parseAllPeers(httpPeersRaw);
@@ -46,6 +64,7 @@ public class NodeMain {
     System.out.printf("Peers: %s%n", peerTargets);
     System.out.printf("Timers: election [%d, %d] ms, heartbeat %d ms%n", minElection, maxElection, heartbeatMs);
     System.out.printf("HTTP port: %d%n", httpPort);
+    System.out.printf("Log sync: %s%n", logOptions.syncMode());
 
     RaftMetrics metrics = new RaftMetrics();
     try (GrpcRaftTransport transport = new GrpcRaftTransport(peerTargets, rpcTimeoutMs, metrics)) {
@@ -59,7 +78,9 @@ public class NodeMain {
         minElection,
         maxElection,
         heartbeatMs,
-        metrics
+        metrics,
+        logOptions,
+        replication
       );
 
       RaftRpcServer server = new RaftRpcServer(raftPort, node);
@@ -125,6 +146,19 @@ public class NodeMain {
     return Integer.parseInt(value);
   }
 
+  private static boolean parseBoolean(String key, Map<String, String> cli, boolean defaultVal) {
+    String value = cli.getOrDefault(key, System.getenv(key));
+    if (value == null || value.isBlank()) return defaultVal;
+    return Boolean.parseBoolean(value.trim());
+  }
+
+  private static FileLogStore.SyncMode parseSyncMode(String key, Map<String, String> cli,
+                                                     FileLogStore.SyncMode defaultVal) {
+    String value = cli.getOrDefault(key, System.getenv(key));
+    if (value == null || value.isBlank()) return defaultVal;
+    return FileLogStore.SyncMode.valueOf(value.trim().toUpperCase().replace('-', '_'));
+  }
+
   private static Long parseOptionalLong(String key, Map<String, String> cli) {
     String value = cli.getOrDefault(key, System.getenv(key));
     if (value == null || value.isBlank()) return null;
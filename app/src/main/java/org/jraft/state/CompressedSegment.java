@@ -0,0 +1,209 @@
+package org.jraft.state;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * block-compressed copy of a sealed segment, stored as wal-NNNNNNN.zlog in
+ * place of its wal-NNNNNNN.log.
+ *
+ * the segment's bytes are cut into fixed-size blocks and each block is
+ * deflated on its own (raw deflate, no zlib wrapper), so a range is read by
+ * inflating only the blocks it overlaps. record offsets keep pointing into
+ * the uncompressed bytes: the segment's in-memory index and its sidecar are
+ * the same whether or not it is compressed.
+ *
+ * format (big endian):
+ *   [4 magic][4 version]
+ *   [deflated block]*
+ *   [8 block offset]*               one per block, then the end of the last one
+ *   [4 block count][4 block bytes][8 uncompressed length]
+ *   [4 crc32c of the block index and the three fields above][4 magic]
+ *
+ * records carry their own crc32c, so damage inside a block shows up when
+ * they are read; the trailer's crc only guards the block index.
+ */
+final class CompressedSegment {
+  private static final int MAGIC = 0x52574C5A;  // "RWLZ"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 8;
+  private static final int TRAILER_BYTES = 24;
+
+  // what one random read inflates at most
+  static final int BLOCK_BYTES = 64 * 1024;
+
+  private CompressedSegment() {}
+
+  /**
+   * where the blocks of a compressed segment are. offsets has one entry per
+   * block plus the end of the last one.
+   */
+  record BlockIndex(int blockBytes, long rawLength, long[] offsets) {}
+
+  /**
+   * compress the segment at source into target and fsync it
+   */
+  static BlockIndex write(Path source, Path target) throws IOException {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+         FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+           StandardOpenOption.TRUNCATE_EXISTING)) {
+      long rawLength = in.size();
+      int count = Math.toIntExact((rawLength + BLOCK_BYTES - 1) / BLOCK_BYTES);
+      long[] offsets = new long[count + 1];
+      byte[] raw = new byte[BLOCK_BYTES];
+      byte[] chunk = new byte[BLOCK_BYTES];
+
+      long position = writeFully(out, ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).flip(), 0);
+      for (int b = 0; b < count; b++) {
+        long blockStart = (long) b * BLOCK_BYTES;
+        int length = (int) Math.min(BLOCK_BYTES, rawLength - blockStart);
+        readFully(in, ByteBuffer.wrap(raw, 0, length), blockStart);
+        offsets[b] = position;
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+        while (!deflater.finished()) {
+          int n = deflater.deflate(chunk);
+          position = writeFully(out, ByteBuffer.wrap(chunk, 0, n), position);
+        }
+      }
+      offsets[count] = position;
+
+      ByteBuffer index = ByteBuffer.allocate(offsets.length * 8 + TRAILER_BYTES);
+      for (long offset : offsets) {
+        index.putLong(offset);
+      }
+      index.putInt(count).putInt(BLOCK_BYTES).putLong(rawLength);
+      index.putInt(WalRecord.checksum(index.duplicate().flip()));
+      index.putInt(MAGIC);
+      writeFully(out, index.flip(), position);
+      out.force(true);
+      return new BlockIndex(BLOCK_BYTES, rawLength, offsets);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * read the block index of a compressed segment
+   */
+  static BlockIndex readIndex(FileChannel ch) throws IOException {
+    long size = ch.size();
+    if (size < HEADER_BYTES + TRAILER_BYTES) {
+      throw new IOException("compressed segment too short: " + size + " bytes");
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    readFully(ch, header, 0);
+    if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+      throw new IOException("not a compressed segment (magic " + Integer.toHexString(header.getInt(0)) +
+        ", version " + header.getInt(4) + ")");
+    }
+
+    ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+    readFully(ch, trailer, size - TRAILER_BYTES);
+    int count = trailer.getInt(0);
+    int blockBytes = trailer.getInt(4);
+    long rawLength = trailer.getLong(8);
+    long indexBytes = (count + 1L) * 8;
+    if (trailer.getInt(20) != MAGIC || count < 0 || blockBytes <= 0
+        || indexBytes > size - HEADER_BYTES - TRAILER_BYTES) {
+      throw new IOException("corrupt compressed segment trailer");
+    }
+
+    // the crc covers the offsets and the count, block size and length after them
+    ByteBuffer index = ByteBuffer.allocate(Math.toIntExact(indexBytes) + 16);
+    readFully(ch, index, size - TRAILER_BYTES - indexBytes);
+    if (WalRecord.checksum(index.flip()) != trailer.getInt(16)) {
+      throw new IOException("compressed segment block index checksum mismatch");
+    }
+    long[] offsets = new long[count + 1];
+    for (int i = 0; i <= count; i++) {
+      offsets[i] = index.getLong(i * 8);
+    }
+    return new BlockIndex(blockBytes, rawLength, offsets);
+  }
+
+  /**
+   * uncompressed bytes [start, end), inflating only the blocks they overlap
+   */
+  static ByteBuffer read(FileChannel ch, BlockIndex blocks, long start, long end) throws IOException {
+    ByteBuffer out = ByteBuffer.allocate(Math.toIntExact(end - start));
+    if (start >= end) return out;
+    if (start < 0 || end > blocks.rawLength()) {
+      throw new IOException("range [" + start + ", " + end + ") outside compressed segment of " +
+        blocks.rawLength() + " bytes");
+    }
+
+    int blockBytes = blocks.blockBytes();
+    byte[] raw = new byte[blockBytes];
+    Inflater inflater = new Inflater(true);
+    try {
+      for (int b = (int) (start / blockBytes); b <= (end - 1) / blockBytes; b++) {
+        long blockStart = (long) b * blockBytes;
+        int length = (int) Math.min(blockBytes, blocks.rawLength() - blockStart);
+        inflateBlock(ch, blocks, b, raw, length, inflater);
+        int from = (int) Math.max(0, start - blockStart);
+        int to = (int) Math.min(length, end - blockStart);
+        out.put(raw, from, to - from);
+      }
+    } finally {
+      inflater.end();
+    }
+    return out.flip();
+  }
+
+  /**
+   * the whole uncompressed segment at path
+   */
+  static ByteBuffer readAll(Path path) throws IOException {
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      BlockIndex blocks = readIndex(ch);
+      return read(ch, blocks, 0, blocks.rawLength());
+    }
+  }
+
+  private static void inflateBlock(FileChannel ch, BlockIndex blocks, int b, byte[] raw, int length,
+                                   Inflater inflater) throws IOException {
+    long from = blocks.offsets()[b];
+    byte[] deflated = new byte[Math.toIntExact(blocks.offsets()[b + 1] - from)];
+    readFully(ch, ByteBuffer.wrap(deflated), from);
+    inflater.reset();
+    inflater.setInput(deflated);
+    try {
+      int n = 0;
+      while (n < length) {
+        int got = inflater.inflate(raw, n, length - n);
+        if (got == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) break;
+        n += got;
+      }
+      if (n != length) {
+        throw new IOException("corrupt block " + b + " in compressed segment");
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("corrupt block " + b + " in compressed segment", e);
+    }
+  }
+
+  private static long writeFully(FileChannel ch, ByteBuffer src, long position) throws IOException {
+    while (src.hasRemaining()) {
+      position += ch.write(src, position);
+    }
+    return position;
+  }
+
+  private static void readFully(FileChannel ch, ByteBuffer dst, long position) throws IOException {
+    while (dst.hasRemaining()) {
+      int n = ch.read(dst, position + dst.position());
+      if (n < 0) {
+        throw new IOException("unexpected end of compressed segment at offset " + (position + dst.position()));
+      }
+    }
+  }
+}
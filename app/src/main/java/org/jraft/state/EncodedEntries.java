@@ -0,0 +1,209 @@
+package org.jraft.state;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jraft.rpc.AppendEntriesRequest;
+import org.jraft.rpc.LogEntry;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * a run of log entries already serialized as the repeated entries field of an
+ * AppendEntriesRequest: one length-delimited LogEntry per entry.
+ *
+ * protobuf merges repeated fields wherever they appear in a message, so a
+ * request serialized without entries followed by these bytes is the request
+ * carrying them.
+ *
+ * nothing is parsed or re-serialized to build it: each entry is its framing
+ * (tag, lengths, index and term, all in one shared array) plus its data, a
+ * record payload read off a segment or a cached entry's bytes. writeTo
+ * streams both out. an encoding may be sent long after it was built, so it
+ * never holds a view of a segment mapping: FileLogStore copies those payloads
+ * out before truncation can rewrite or recycle the file under it.
+ */
+public final class EncodedEntries {
+  public static final EncodedEntries EMPTY = new EncodedEntries(0, new byte[0], new int[0], new Object[0], 0);
+
+  private static final int ENTRIES_TAG =
+    AppendEntriesRequest.ENTRIES_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+
+  // tag + length, then index, term and data tags with their varints
+  private static final int MAX_FRAMING_BYTES = 5 + 5 + 11 + 11 + 6;
+
+  // staging for data outside the heap, which OutputStream can't take directly
+  private static final int CHUNK_BYTES = 8192;
+
+  private final int count;
+  private final byte[] framing;
+  private final int[] framingEnds;  // entry k's framing ends here, and starts where k - 1's ended
+  private final Object[] data;  // a ByteBuffer view of segment bytes, or a cached entry's ByteString
+  private final int size;
+
+  private EncodedEntries(int count, byte[] framing, int[] framingEnds, Object[] data, int size) {
+    this.count = count;
+    this.framing = framing;
+    this.framingEnds = framingEnds;
+    this.data = data;
+    this.size = size;
+  }
+
+  public static EncodedEntries of(List<LogEntry> entries) {
+    Builder out = new Builder();
+    for (LogEntry entry : entries) {
+      out.add(entry);
+    }
+    return out.build();
+  }
+
+  public int count() {
+    return count;
+  }
+
+  /**
+   * encoded length in bytes
+   */
+  public int size() {
+    return size;
+  }
+
+  public void writeTo(OutputStream out) throws IOException {
+    byte[] chunk = null;
+    int framingStart = 0;
+    for (int k = 0; k < count; k++) {
+      out.write(framing, framingStart, framingEnds[k] - framingStart);
+      framingStart = framingEnds[k];
+
+      if (data[k] instanceof ByteString cached) {
+        cached.writeTo(out);
+        continue;
+      }
+      ByteBuffer d = (ByteBuffer) data[k];
+      if (d.hasArray()) {
+        out.write(d.array(), d.arrayOffset() + d.position(), d.remaining());
+        continue;
+      }
+      if (chunk == null) {
+        chunk = new byte[CHUNK_BYTES];
+      }
+      for (int p = d.position(); p < d.limit(); ) {
+        int n = Math.min(chunk.length, d.limit() - p);
+        d.get(p, chunk, 0, n);
+        out.write(chunk, 0, n);
+        p += n;
+      }
+    }
+  }
+
+  /**
+   * a copy of the encoded bytes
+   */
+  public ByteString toByteString() {
+    ByteString.Output out = ByteString.newOutput(size);
+    try {
+      writeTo(out);
+    } catch (IOException e) {
+      throw new IllegalStateException("in-memory write failed", e);
+    }
+    return out.toByteString();
+  }
+
+  /**
+   * the request with every entry in place, parsed like a receiving peer would
+   */
+  public AppendEntriesRequest appendTo(AppendEntriesRequest req) {
+    try {
+      return AppendEntriesRequest.parseFrom(req.toByteString().concat(toByteString()));
+    } catch (InvalidProtocolBufferException e) {
+      throw new IllegalStateException("malformed encoded entries", e);
+    }
+  }
+
+  /**
+   * collects entries in log order. not thread safe.
+   */
+  static final class Builder {
+    private byte[] framing = new byte[16 * MAX_FRAMING_BYTES];
+    private int[] framingEnds = new int[16];
+    private Object[] data = new Object[16];
+    private int framingLength;
+    private int count;
+    private int size;
+
+    void add(LogEntry entry) {
+      addFields(entry.getIndex(), entry.getTerm(), entry.getData(), entry.getData().size());
+    }
+
+    /**
+     * add the entry stored in a WAL record payload, viewing its bytes in place
+     */
+    void addRecord(ByteBuffer payload, int format) throws IOException {
+      if (format != WalRecord.COMPACT) {
+        // the payload is the serialized LogEntry itself
+        CodedOutputStream out = framing();
+        out.writeUInt32NoTag(ENTRIES_TAG);
+        out.writeUInt32NoTag(payload.remaining());
+        finish(out, payload.slice(), payload.remaining());
+        return;
+      }
+      int p = payload.position();
+      WalRecord.Position position = WalRecord.indexAndTerm(payload, format);
+      int dataLength = payload.remaining() - WalRecord.COMPACT_FIXED_BYTES;
+      addFields(position.index(), position.term(), payload.slice(p + WalRecord.COMPACT_FIXED_BYTES, dataLength), dataLength);
+    }
+
+    private void addFields(long index, long term, Object entryData, int dataLength) {
+      int entrySize = WalRecord.entrySize(WalRecord.COMPACT, WalRecord.COMPACT_FIXED_BYTES + dataLength, index, term);
+      try {
+        // field order and zero-skipping match LogEntry.writeTo
+        CodedOutputStream out = framing();
+        out.writeUInt32NoTag(ENTRIES_TAG);
+        out.writeUInt32NoTag(entrySize);
+        if (index != 0) out.writeInt64(LogEntry.INDEX_FIELD_NUMBER, index);
+        if (term != 0) out.writeInt64(LogEntry.TERM_FIELD_NUMBER, term);
+        if (dataLength > 0) {
+          out.writeTag(LogEntry.DATA_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+          out.writeUInt32NoTag(dataLength);
+        }
+        finish(out, entryData, dataLength);
+      } catch (IOException e) {
+        throw new IllegalStateException("framing overflow", e);
+      }
+    }
+
+    private CodedOutputStream framing() {
+      if (count == data.length) {
+        framingEnds = Arrays.copyOf(framingEnds, count * 2);
+        data = Arrays.copyOf(data, count * 2);
+      }
+      if (framing.length - framingLength < MAX_FRAMING_BYTES) {
+        framing = Arrays.copyOf(framing, framing.length * 2);
+      }
+      return CodedOutputStream.newInstance(framing, framingLength, framing.length - framingLength);
+    }
+
+    private void finish(CodedOutputStream out, Object entryData, int dataLength) {
+      int written = out.getTotalBytesWritten();
+      framingLength += written;
+      framingEnds[count] = framingLength;
+      data[count] = entryData;
+      size += written + dataLength;
+      count++;
+    }
+
+    int count() {
+      return count;
+    }
+
+    EncodedEntries build() {
+      return count == 0 ? EMPTY : new EncodedEntries(count, framing, framingEnds, data, size);
+    }
+  }
+}
@@ -1,429 +1,2084 @@
 package org.jraft.state;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
 
+import org.jraft.metrics.RaftMetrics;
 import org.jraft.rpc.LogEntry;
 
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.sun.nio.file.ExtendedOpenOption;
 
 /**
  * file-based persistent log storage using write-ahead log pattern.
  *
  * storage format:
  *   - multiple segment files: wal-0000001.log, wal-0000002.log, etc.
- *   - each segment: [4 byte length][protobuf entry][4 byte length][protobuf entry]...
- *   - in-memory index maps log index -> (segment number, file offset)
+ *   - each segment: [8 byte header] then [4 byte length][4 byte crc32c][8 byte index]
+ *     [8 byte term][4 byte type][command bytes]...
+ *   - segments in older formats (whole protobuf entries, with or without a crc)
+ *     stay readable and keep their format until they are rotated out (see WalRecord)
+ *   - in-memory index: per segment, a primitive offset table keyed by index - firstIndex
+ *   - per segment, a run-length table of (startIndex, term) answers termAt without I/O
  *   - automatically rotates segments when they exceed segmentSize
  *
+ * writes:
+ *   - entries are serialized straight into one reusable direct buffer and
+ *     written with positional FileChannel writes; no per-entry byte[]
+ *   - the active segment is preallocated (zero-filled) to segmentSize, so the
+ *     file's size and block map don't change on append and force(false)
+ *     (fdatasync) is enough. a zero length marks the end of written data.
+ *   - sealing a segment trims it to its data and makes that durable
+ *   - with Options.directIo the active segment is also written through an
+ *     O_DIRECT channel: the staging buffer is block-aligned and every flush
+ *     is padded to whole blocks, so segments stay out of the page cache.
+ *     records keep their format; padding only ever covers preallocated zeros.
+ *     if the file system refuses O_DIRECT, writes stay buffered.
+ *   - segments dropped by truncatePrefix go to a small pool of wal-*.free files
+ *     that are renamed into place instead of creating and zero-filling new ones.
+ *     their stale records carry indices below anything live, so a scan of a
+ *     recycled segment stops at the first one. the first record is zeroed
+ *     before the rename, so a crash before the new records reach the disk
+ *     finds an empty segment.
+ *
+ * reads:
+ *   - sealed segments are mapped read-only and kept in a bounded LRU of mappings.
+ *     with mapping off they are read with positional reads through a bounded
+ *     LRU of open read-only channels, so I/O errors surface as IOExceptions
+ *     rather than faults on mapped memory
+ *   - the active segment is read through one shared channel with positional reads
+ *   - neither path reopens the segment file per entry
+ *
+ * compression (Options.compressSealedSegments):
+ *   - a background thread rewrites each sealed segment as wal-NNNNNNN.zlog,
+ *     independently deflated 64KB blocks behind a block index (CompressedSegment),
+ *     then swaps it in for the .log under layoutLock
+ *   - offsets in the index and sidecar stay those of the uncompressed bytes; a
+ *     read inflates only the blocks its range overlaps, through an open channel
+ *   - a compressed segment that becomes the tail again (truncateFrom, or
+ *     recovery) is inflated back into a .log before it is appended to
+ *
  * crash recovery:
- *   - on startup, scans all segment files and rebuilds in-memory index
+ *   - on startup, loads every segment's index in parallel (sidecar or scan),
+ *     then stitches them in segment order checking that indices are contiguous
  *   - handles partial writes (from crashes) by stopping at first corrupt entry
+ *   - checksummed records are validated by crc and their index read without a parse
+ *
+ * prefix compaction:
+ *   - truncatePrefix deletes whole sealed segments below the compaction point;
+ *     live segments are never rewritten
+ *   - wal-start records the last dropped index and its term, so the log can
+ *     start past index 1 and still answer termAt at its boundary
  *
- * thread safety: all public methods are synchronized for simplicity
+ * tail cache:
+ *   - the most recently appended entries stay in memory up to tailCacheBytes,
+ *     so replication of a caught-up follower never reads the segments
+ *
+ * durability (SyncMode):
+ *   - PER_APPEND: every append call flushes and fsyncs before returning
+ *   - GROUP_COMMIT: appends only write into a buffer under the lock; one caller
+ *     then flushes and fsyncs on behalf of everyone who wrote in the meantime.
+ *     append still returns only once the caller's entries are durable.
+ *   - INTERVAL: append returns after the write; the writer thread fsyncs once
+ *     syncIntervalMs has passed since the oldest unsynced write, or sooner once
+ *     syncIntervalBytes are pending. a power loss can lose that window.
+ *   - OS_ONLY: append hands the entries to the kernel and returns; only
+ *     sealing a segment and close fsync. survives a process crash, not a
+ *     power loss.
+ *   - appendAsync writes under the lock and returns; a dedicated writer thread
+ *     does the fsync the mode calls for and completes the returned futures, so
+ *     a leader can replicate while its own fsync is in flight.
+ *   - durableIndex() is reported separately from lastIndex(): it is what the
+ *     mode counts as safe (fsync'd, or written to the kernel for OS_ONLY)
+ *
+ * thread safety: one writer at a time, any number of readers.
+ *   - appends, truncations and close are synchronized on this; in
+ *     GROUP_COMMIT mode the fsync itself runs outside the lock so other
+ *     appenders can join the next batch
+ *   - lastIndex, firstIndex and termAt never lock: the last entry and the
+ *     segment table are immutable snapshots published through volatile
+ *     fields, and offset and term tables fill a slot before counting it.
+ *     termAt checks layoutVersion in case a truncation ran meanwhile
+ *   - entryAt and entries don't take the writer's lock: a tail cache hit
+ *     takes no lock at all, segment reads hold layoutLock shared. rotation,
+ *     truncation and close hold it exclusively only while they swap segments
+ *     and channels. a read that needs records still in the write buffer
+ *     flushes them under the writer's lock, with layoutLock released.
+ *   - lock order is always this -> layoutLock -> syncMonitor
  */
 public class FileLogStore implements LogStore {
+  public enum SyncMode { PER_APPEND, GROUP_COMMIT, INTERVAL, OS_ONLY }
+
+  /**
+   * tuning knobs; start from defaults() and override with the with* methods
+   */
+  public record Options(int segmentSize, int maxMappedSegments, SyncMode syncMode, long tailCacheBytes,
+                        int maxRecycledSegments, int recoveryThreads, long syncIntervalMs, long syncIntervalBytes,
+                        boolean directIo, int maxOpenSegments, boolean compressSealedSegments) {
+    public static Options defaults() {
+      return new Options(DEFAULT_SEGMENT_SIZE, DEFAULT_MAPPED_SEGMENTS, SyncMode.PER_APPEND, DEFAULT_TAIL_CACHE_BYTES,
+        DEFAULT_RECYCLED_SEGMENTS, DEFAULT_RECOVERY_THREADS, DEFAULT_SYNC_INTERVAL_MS, DEFAULT_SYNC_INTERVAL_BYTES, false,
+        DEFAULT_OPEN_SEGMENTS, false);
+    }
+
+    public Options withSegmentSize(int v) {
+      return new Options(v, maxMappedSegments, syncMode, tailCacheBytes, maxRecycledSegments, recoveryThreads,
+        syncIntervalMs, syncIntervalBytes, directIo, maxOpenSegments, compressSealedSegments);
+    }
+    /** sealed segments kept mapped; 0 reads them through open channels instead */
+    public Options withMaxMappedSegments(int v) {
+      return new Options(segmentSize, v, syncMode, tailCacheBytes, maxRecycledSegments, recoveryThreads,
+        syncIntervalMs, syncIntervalBytes, directIo, maxOpenSegments, compressSealedSegments);
+    }
+    public Options withSyncMode(SyncMode v) {
+      return new Options(segmentSize, maxMappedSegments, v, tailCacheBytes, maxRecycledSegments, recoveryThreads,
+        syncIntervalMs, syncIntervalBytes, directIo, maxOpenSegments, compressSealedSegments);
+    }
+    public Options withTailCacheBytes(long v) {
+      return new Options(segmentSize, maxMappedSegments, syncMode, v, maxRecycledSegments, recoveryThreads,
+        syncIntervalMs, syncIntervalBytes, directIo, maxOpenSegments, compressSealedSegments);
+    }
+    public Options withMaxRecycledSegments(int v) {
+      return new Options(segmentSize, maxMappedSegments, syncMode, tailCacheBytes, v, recoveryThreads,
+        syncIntervalMs, syncIntervalBytes, directIo, maxOpenSegments, compressSealedSegments);
+    }
+    /** threads used to load segments on startup; 1 loads them on the calling thread */
+    public Options withRecoveryThreads(int v) {
+      return new Options(segmentSize, maxMappedSegments, syncMode, tailCacheBytes, maxRecycledSegments, v,
+        syncIntervalMs, syncIntervalBytes, directIo, maxOpenSegments, compressSealedSegments);
+    }
+    /** INTERVAL mode: longest a write may stay unsynced */
+    public Options withSyncIntervalMs(long v) {
+      return new Options(segmentSize, maxMappedSegments, syncMode, tailCacheBytes, maxRecycledSegments, recoveryThreads,
+        v, syncIntervalBytes, directIo, maxOpenSegments, compressSealedSegments);
+    }
+    /** INTERVAL mode: unsynced bytes that trigger an early fsync */
+    public Options withSyncIntervalBytes(long v) {
+      return new Options(segmentSize, maxMappedSegments, syncMode, tailCacheBytes, maxRecycledSegments, recoveryThreads,
+        syncIntervalMs, v, directIo, maxOpenSegments, compressSealedSegments);
+    }
+    /** write segments with O_DIRECT where the file system allows it */
+    public Options withDirectIo(boolean v) {
+      return new Options(segmentSize, maxMappedSegments, syncMode, tailCacheBytes, maxRecycledSegments, recoveryThreads,
+        syncIntervalMs, syncIntervalBytes, v, maxOpenSegments, compressSealedSegments);
+    }
+    /** read-only channels kept open for sealed segments when they are not mapped */
+    public Options withMaxOpenSegments(int v) {
+      return new Options(segmentSize, maxMappedSegments, syncMode, tailCacheBytes, maxRecycledSegments, recoveryThreads,
+        syncIntervalMs, syncIntervalBytes, directIo, v, compressSealedSegments);
+    }
+    /** compress sealed segments in the background into block-compressed .zlog files */
+    public Options withCompressSealedSegments(boolean v) {
+      return new Options(segmentSize, maxMappedSegments, syncMode, tailCacheBytes, maxRecycledSegments, recoveryThreads,
+        syncIntervalMs, syncIntervalBytes, directIo, maxOpenSegments, v);
+    }
+  }
+
   private final Path logDir;
   private final int segmentSize;
-
-  private FileOutputStream currentSegment;
-  private DataOutputStream currentWriter;
+  private final SyncMode syncMode;
+  private final long syncIntervalNanos;
+  private final long syncIntervalBytes;
+  private final RaftMetrics metrics;
+
+  // the active segment: one channel for positional writes and reads.
+  // records are staged in writeBuffer; the file holds everything before
+  // currentSegmentStartOffset - writeBuffer.position(). the channel and
+  // currentSegmentNumber only change under layoutLock's write lock.
+  private FileChannel activeChannel;
+  // readers get a read-only channel of their own on the active segment: an
+  // interrupted reader closes the channel it was reading from, which must
+  // never be the writer's. the next reader reopens it under activeReadLock
+  private volatile FileChannel activeReadChannel;
+  private final Object activeReadLock = new Object();
+  private final ByteBuffer writeBuffer;
   private int currentSegmentNumber = 1;
   private long currentSegmentStartOffset = 0;  // byte offset where current segment starts writing
+  private final CRC32C writeCrc = new CRC32C();
+
+  // O_DIRECT: flushes go through directChannel in whole blocks. writeBuffer
+  // then always starts on a block boundary and keeps the partial last block
+  // staged, so the next flush rewrites it with more records behind it.
+  // directBlockSize is 0 when writes are buffered.
+  private final int directBlockSize;
+  private FileChannel directChannel;
+  private int directFlushed = 0;  // leading bytes of writeBuffer already on disk
+
+  // read side: mappings for sealed segments (or open channels when mapping
+  // is off, then mappedSegments is null), the active channel for the rest
+  private final MappedSegmentCache mappedSegments;
+  private final SegmentChannelCache sealedChannels;
+  private final TailEntryCache tailCache;
+
+  // dropped segment files kept for reuse, oldest first
+  private final int maxRecycledSegments;
+  private final ArrayDeque<Path> recycledSegments = new ArrayDeque<>();
+
+  private final int recoveryThreads;
+
+  // compresses sealed segments one at a time; null when compression is off.
+  // reopenedSegments counts truncateFrom making a sealed segment active again,
+  // so a compression that read it before that knows not to swap its copy in.
+  private final ExecutorService compressor;
+  private volatile long reopenedSegments = 0;
+
+  // in-memory index, one offset table per segment in segment order.
+  // the last one always belongs to the active segment. the list is never
+  // modified: rotation, truncation and recovery publish a new one.
+  private volatile List<SegmentIndex> segments = List.of();
+
+  // the last entry written, index and term published together. readers
+  // trust everything up to it: its record and its cache slot come first.
+  private record LastEntry(long index, long term) {}
+  private volatile LastEntry lastEntry = new LastEntry(0, 0);
+
+  // last index dropped by prefix compaction and its term (0 if never
+  // compacted). changed under layoutLock's write lock.
+  private long compactedIndex = 0;
+  private long compactedTerm = 0;
+
+  // readers against layout changes. readers hold it shared while they use
+  // segments, channels and mappings; rotation, truncation and close hold it
+  // exclusively while they swap them. appends and fsyncs never take it.
+  // (nonfair ReentrantReadWriteLock: new readers queue behind a waiting
+  // writer, so a steady stream of them can't starve rotation.)
+  private final ReadWriteLock layoutLock = new ReentrantReadWriteLock();
+
+  // bumped on taking and on releasing layoutLock's write lock, so it is odd
+  // while a layout change is in progress: termAt reads without the lock and
+  // retries if it moved
+  private volatile long layoutVersion = 0;
+
+  // every record up to here is in its segment file, not just in writeBuffer
+  private volatile long flushedIndex = 0;
+
+  // group commit bookkeeping: sequences count entries written / made durable.
+  // writtenSeq is guarded by this, the rest by syncMonitor.
+  private final Object syncMonitor = new Object();
+  private long writtenSeq = 0;
+  private long syncedSeq = 0;
+  private long durableIndex = 0;
+  private boolean syncInProgress = false;
+
+  // work for the writer thread, guarded by syncMonitor: appendAsync callers
+  // waiting on it (oldest first), the highest seq it has been asked to sync,
+  // and for INTERVAL what has piled up since its last fsync
+  private record PendingSync(long seq, CompletableFuture<Long> future) {}
+  private final ArrayDeque<PendingSync> pendingSyncs = new ArrayDeque<>();
+  private long requestedSeq = 0;
+  private long unsyncedBytes = 0;
+  private long unsyncedSinceNanos = 0;
+  private boolean closing = false;
+  private Thread writerThread;  // started on first use, guarded by this
+
+  // how many sealed segments stay mapped at once (16 x 10MB by default)
+  public static final int DEFAULT_MAPPED_SEGMENTS = 16;
+  public static final int DEFAULT_OPEN_SEGMENTS = 32;
+  public static final int DEFAULT_SEGMENT_SIZE = 10 * 1024 * 1024;
+  public static final long DEFAULT_TAIL_CACHE_BYTES = 16 * 1024 * 1024;
+  public static final int DEFAULT_RECYCLED_SEGMENTS = 2;
+  public static final int DEFAULT_RECOVERY_THREADS = Math.min(8, Runtime.getRuntime().availableProcessors());
+  public static final long DEFAULT_SYNC_INTERVAL_MS = 10;
+  public static final long DEFAULT_SYNC_INTERVAL_BYTES = 1024 * 1024;
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).asReadOnlyBuffer();
 
-  // in-memory index for fast lookup: log index -> file location
-  private final Map<Long, FileLocation> index = new HashMap<>();
+  public FileLogStore(Path logDir) throws IOException {
+    this(logDir, DEFAULT_SEGMENT_SIZE);  // default 10MB segments
+  }
+
+  public FileLogStore(Path logDir, int segmentSize) throws IOException {
+    this(logDir, Options.defaults().withSegmentSize(segmentSize), null);
+  }
+
+  public FileLogStore(Path logDir, int segmentSize, SyncMode syncMode, RaftMetrics metrics) throws IOException {
+    this(logDir, Options.defaults().withSegmentSize(segmentSize).withSyncMode(syncMode), metrics);
+  }
+
+  public FileLogStore(Path logDir, Options options, RaftMetrics metrics) throws IOException {
+    this.logDir = logDir;
+    this.segmentSize = options.segmentSize();
+    this.syncMode = options.syncMode();
+    this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(options.syncIntervalMs());
+    this.syncIntervalBytes = options.syncIntervalBytes();
+    this.metrics = metrics;
+    this.mappedSegments = options.maxMappedSegments() > 0 ? new MappedSegmentCache(options.maxMappedSegments()) : null;
+    this.sealedChannels = new SegmentChannelCache(options.maxOpenSegments());
+    this.tailCache = new TailEntryCache(options.tailCacheBytes());
+    this.maxRecycledSegments = options.maxRecycledSegments();
+    this.recoveryThreads = options.recoveryThreads();
+    this.compressor = options.compressSealedSegments() ? Executors.newSingleThreadExecutor(r -> {
+      Thread t = new Thread(r, "wal-compressor-" + logDir.getFileName());
+      t.setDaemon(true);
+      return t;
+    }) : null;
+    Files.createDirectories(logDir);
+    this.directBlockSize = options.directIo() ? probeDirectIo() : 0;
+    this.writeBuffer = directBlockSize > 0
+      ? ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE + directBlockSize).alignedSlice(directBlockSize)
+      : ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+
+    // if existing segments exist, rebuild state from disk
+    recoverFromDisk();
+    durableIndex = lastEntry.index();  // whatever survived on disk is durable
+    flushedIndex = lastEntry.index();
+
+    // segments sealed before a restart, or whose compression it cut short
+    List<SegmentIndex> table = segments;
+    for (SegmentIndex seg : table.subList(0, table.size() - 1)) {
+      if (seg.blocks == null) scheduleCompression(seg);
+    }
+  }
+
+  @Override
+  public long firstIndex() {
+    return segments.get(0).firstIndex;
+  }
+
+  @Override
+  public long lastIndex() {
+    return lastEntry.index();
+  }
+
+  @Override
+  public long termAt(long index) {
+    long version = layoutVersion;
+    if ((version & 1) == 0) {
+      long term = termOf(index);
+      VarHandle.loadLoadFence();  // termOf's reads happen before the recheck
+      if (layoutVersion == version) return term;
+    }
+
+    // a truncation ran meanwhile: ask again with it held off
+    layoutLock.readLock().lock();
+    try {
+      return termOf(index);
+    } finally {
+      layoutLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * termAt without a lock. a truncation running meanwhile can make the answer
+   * wrong (never throw), so callers check layoutVersion.
+   */
+  private long termOf(long index) {
+    LastEntry last = lastEntry;
+    if (index == 0) return 0;
+    if (index > last.index()) return 0;
+    if (index == last.index()) return last.term();  // fast path
+    if (index == compactedIndex) return compactedTerm;
+    if (index < compactedIndex) return 0;  // compacted away
+
+    // answered from the in-memory term runs, never from disk
+    SegmentIndex seg = segmentFor(index);
+    return seg == null ? 0 : seg.termAt(index);
+  }
+
+  /**
+   * highest index known to be fsync'd to disk
+   */
+  @Override
+  public long durableIndex() {
+    synchronized (syncMonitor) {
+      return durableIndex;
+    }
+  }
+
+  @Override
+  public void append(List<LogEntry> entries) {
+    if (entries.isEmpty()) return;
+
+    long seq;
+    synchronized (this) {
+      seq = writeEntries(entries);
+      switch (syncMode) {
+        case PER_APPEND -> {
+          // critical: force data to disk for durability
+          // without this, data might only be in OS buffer and lost on crash
+          syncPending();
+          return;
+        }
+        case INTERVAL -> {
+          requestSync(seq, entries);
+          return;
+        }
+        case OS_ONLY -> {
+          flushToOs();
+          return;
+        }
+        case GROUP_COMMIT -> {}
+      }
+    }
+    awaitDurable(seq);
+  }
+
+  @Override
+  public CompletableFuture<Long> appendAsync(List<LogEntry> entries) {
+    if (entries.isEmpty()) return CompletableFuture.completedFuture(durableIndex());
+
+    CompletableFuture<Long> future = new CompletableFuture<>();
+    synchronized (this) {
+      long seq = writeEntries(entries);
+      if (syncMode == SyncMode.OS_ONLY) {
+        flushToOs();
+        return CompletableFuture.completedFuture(durableIndex());
+      }
+      synchronized (syncMonitor) {
+        if (closing) throw new IllegalStateException("log is closed");
+        pendingSyncs.addLast(new PendingSync(seq, future));
+      }
+      requestSync(seq, entries);
+    }
+    return future;
+  }
+
+  /**
+   * OS_ONLY: hand everything written to the kernel, which is all this mode
+   * promises before returning. caller holds this.
+   */
+  private void flushToOs() {
+    try {
+      flushWriteBuffer();
+    } catch (IOException e) {
+      throw new RuntimeException("failed to write log", e);
+    }
+    synchronized (syncMonitor) {
+      durableIndex = Math.max(durableIndex, lastEntry.index());
+    }
+  }
+
+  /**
+   * ask the writer thread to make seq durable, starting it if needed. caller holds this.
+   */
+  private void requestSync(long seq, List<LogEntry> entries) {
+    long bytes = 0;
+    for (LogEntry entry : entries) {
+      bytes += entry.getSerializedSize();
+    }
+    synchronized (syncMonitor) {
+      if (requestedSeq <= syncedSeq) {
+        unsyncedSinceNanos = System.nanoTime();
+      }
+      requestedSeq = Math.max(requestedSeq, seq);
+      unsyncedBytes += bytes;
+      syncMonitor.notifyAll();
+    }
+    if (writerThread == null) {
+      writerThread = new Thread(this::runWriter, "wal-writer-" + logDir.getFileName());
+      writerThread.setDaemon(true);
+      writerThread.start();
+    }
+  }
+
+  /**
+   * writer thread: fsync whatever it has been asked to, then complete the
+   * futures that covered. futures are completed outside every lock, so their
+   * callbacks may call back into the store.
+   */
+  private void runWriter() {
+    while (true) {
+      long seq;
+      synchronized (syncMonitor) {
+        seq = awaitSyncRequest();
+        if (seq < 0) return;
+      }
+
+      RuntimeException failure = null;
+      try {
+        awaitDurable(seq);
+      } catch (RuntimeException e) {
+        failure = e;
+      }
+
+      List<PendingSync> done = new ArrayList<>();
+      long durable;
+      synchronized (syncMonitor) {
+        while (!pendingSyncs.isEmpty() && pendingSyncs.peekFirst().seq() <= seq) {
+          done.add(pendingSyncs.pollFirst());
+        }
+        durable = durableIndex;
+      }
+      for (PendingSync p : done) {
+        if (failure != null) {
+          p.future().completeExceptionally(failure);
+        } else {
+          p.future().complete(durable);
+        }
+      }
+    }
+  }
+
+  /**
+   * block until the writer has something to sync and, in INTERVAL mode, its
+   * interval or byte budget is up. returns the seq to sync, or -1 once closing
+   * with nothing left. caller holds syncMonitor.
+   */
+  private long awaitSyncRequest() {
+    while (true) {
+      if (!pendingSyncs.isEmpty() && pendingSyncs.peekFirst().seq() <= syncedSeq) {
+        // someone else's fsync already covered these
+        return syncedSeq;
+      }
+      long waitNanos = 0;
+      if (requestedSeq > syncedSeq) {
+        if (syncMode != SyncMode.INTERVAL || closing || unsyncedBytes >= syncIntervalBytes) {
+          return requestedSeq;
+        }
+        waitNanos = unsyncedSinceNanos + syncIntervalNanos - System.nanoTime();
+        if (waitNanos <= 0) return requestedSeq;
+      } else if (closing) {
+        return -1;
+      }
+      try {
+        if (waitNanos > 0) {
+          TimeUnit.NANOSECONDS.timedWait(syncMonitor, waitNanos);
+        } else {
+          syncMonitor.wait();
+        }
+      } catch (InterruptedException e) {
+        // only close stops the writer
+      }
+    }
+  }
+
+  /**
+   * write entries into the segment buffer and return the write sequence
+   * that has to become durable before the caller may return
+   */
+  private long writeEntries(List<LogEntry> entries) {
+    try {
+      for (LogEntry entry : entries) {
+        // sanity check: entries should be contiguous
+        if (entry.getIndex() != lastEntry.index() + 1) {
+          throw new IllegalArgumentException(
+            "non-contiguous append: expected index " + (lastEntry.index() + 1) +
+            " but got " + entry.getIndex());
+        }
+
+        // check if we need to rotate to a new segment file
+        if (shouldRotateSegment()) {
+          rotateSegment();
+        }
+
+        // write format: [4-byte length][4-byte crc32c][payload]
+        // (a recovered legacy segment keeps its own format until rotation)
+        SegmentIndex active = activeSegment();
+        int length = writeRecord(entry, active.format);
+
+        // index the record only once it is written: a failed write leaves
+        // no slot behind for an entry that isn't there
+        active.add(currentSegmentStartOffset, entry.getTerm());
+
+        // update tracking; lastEntry goes last, it makes the entry visible to readers
+        currentSegmentStartOffset += active.recordHeaderBytes() + length;
+        writtenSeq++;
+        tailCache.append(entry);
+        lastEntry = new LastEntry(entry.getIndex(), entry.getTerm());
+      }
+      return writtenSeq;
+    } catch (IOException e) {
+      throw new RuntimeException("failed to append entries to log", e);
+    }
+  }
+
+  /**
+   * serialize one record into the write buffer, flushing it first if the
+   * record doesn't fit. returns the payload length.
+   */
+  private int writeRecord(LogEntry entry, int format) throws IOException {
+    int length = WalRecord.payloadLength(entry, format);
+    int header = WalRecord.recordHeaderBytes(format);
+    if (header + length > writeBuffer.remaining()) {
+      flushWriteBuffer();
+    }
+    // an entry bigger than the whole buffer gets a one-off heap buffer
+    ByteBuffer target = header + length <= writeBuffer.remaining()
+      ? writeBuffer
+      : ByteBuffer.allocate(header + length);
+
+    int start = target.position();
+    target.position(start + header);
+    WalRecord.writePayload(entry, format, target);
+
+    target.putInt(start, length);
+    if (format != WalRecord.LEGACY) {
+      writeCrc.reset();
+      writeCrc.update(target.slice(start + header, length));
+      target.putInt(start + 4, (int) writeCrc.getValue());
+    }
+
+    if (target != writeBuffer) {
+      // unaligned, so it takes the buffered path even under O_DIRECT
+      writeFully(activeChannel, target.flip(), currentSegmentStartOffset);
+      resetWriteBuffer(currentSegmentStartOffset + header + length);
+    }
+    return length;
+  }
+
+  /**
+   * write the staged records to the active segment
+   */
+  private void flushWriteBuffer() throws IOException {
+    if (directChannel != null) {
+      flushDirect();
+    } else if (writeBuffer.position() > 0) {
+      long position = currentSegmentStartOffset - writeBuffer.position();
+      writeFully(activeChannel, writeBuffer.flip(), position);
+      writeBuffer.clear();
+    }
+    flushedIndex = lastEntry.index();
+  }
+
+  /**
+   * O_DIRECT flush: write the staged blocks, the last one padded with zeros
+   * (which is what the preallocated file holds there anyway), then keep that
+   * partial block staged
+   */
+  private void flushDirect() throws IOException {
+    int length = writeBuffer.position();
+    if (length == directFlushed) return;
+    long position = currentSegmentStartOffset - length;
+    int padded = alignUp(length);
+    for (int i = length; i < padded; i++) {
+      writeBuffer.put(i, (byte) 0);
+    }
+    writeFully(directChannel, writeBuffer.position(0).limit(padded), position);
+
+    int keepFrom = length - length % directBlockSize;
+    writeBuffer.limit(length).position(keepFrom);
+    writeBuffer.compact();
+    writeBuffer.limit(writeBuffer.capacity());
+    directFlushed = writeBuffer.position();
+  }
+
+  /**
+   * start staging at end, the current end of the active segment's records.
+   * under O_DIRECT the partial block in front of end is read back so the
+   * buffer starts on a block boundary.
+   */
+  private void resetWriteBuffer(long end) throws IOException {
+    writeBuffer.clear();
+    directFlushed = 0;
+    if (directChannel == null) return;
+    long blockStart = end - end % directBlockSize;
+    writeBuffer.limit((int) (end - blockStart));
+    readFully(activeChannel, writeBuffer, blockStart);
+    writeBuffer.limit(writeBuffer.capacity());
+    directFlushed = writeBuffer.position();
+  }
+
+  private int alignUp(int n) {
+    return (n + directBlockSize - 1) / directBlockSize * directBlockSize;
+  }
+
+  private static void writeFully(FileChannel ch, ByteBuffer src, long position) throws IOException {
+    while (src.hasRemaining()) {
+      position += ch.write(src, position);
+    }
+  }
+
+  /**
+   * group commit: block until seq is durable, doing the fsync ourselves if
+   * nobody else is. whoever syncs covers every entry written so far.
+   */
+  private void awaitDurable(long seq) {
+    try {
+      while (true) {
+        synchronized (syncMonitor) {
+          while (syncedSeq < seq && syncInProgress) {
+            syncMonitor.wait();
+          }
+          if (syncedSeq >= seq) return;
+        }
+
+        FileChannel ch;
+        long batchSeq;
+        long batchIndex;
+        synchronized (this) {
+          synchronized (syncMonitor) {
+            // someone may have claimed or finished the sync while we took the lock
+            if (syncInProgress || syncedSeq >= seq) continue;
+            syncInProgress = true;
+          }
+          try {
+            flushWriteBuffer();  // one write() for the whole batch
+            ch = activeChannel;
+          } catch (IOException e) {
+            finishSync(-1, -1, 0);
+            throw e;
+          }
+          batchSeq = writtenSeq;
+          batchIndex = lastEntry.index();
+        }
+
+        // the fsync runs outside the lock; rotation and truncation wait for
+        // syncInProgress to clear before they close this channel
+        long start = System.nanoTime();
+        try {
+          ch.force(false);
+        } catch (IOException e) {
+          finishSync(-1, -1, 0);
+          throw e;
+        }
+        finishSync(batchSeq, batchIndex, System.nanoTime() - start);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("failed to sync log", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("interrupted while waiting for log sync", e);
+    }
+  }
+
+  /**
+   * publish the result of an fsync (batchSeq < 0 means it failed) and wake waiters
+   */
+  private void finishSync(long batchSeq, long batchIndex, long nanos) {
+    synchronized (syncMonitor) {
+      syncInProgress = false;
+      if (batchSeq > syncedSeq) {
+        if (metrics != null) metrics.recordWalSync(batchSeq - syncedSeq, nanos);
+        syncedSeq = batchSeq;
+        durableIndex = Math.max(durableIndex, batchIndex);
+        if (syncedSeq >= requestedSeq) unsyncedBytes = 0;
+      }
+      syncMonitor.notifyAll();
+    }
+  }
 
-  // cache for fast queries without disk access
-  private long lastIndex = 0;
-  private long lastTerm = 0;
+  /**
+   * flush and fsync everything written so far. caller holds this.
+   */
+  private void syncPending() {
+    try {
+      awaitSyncIdle();
+      flushWriteBuffer();
+      if (writtenSeq == syncedSeqSnapshot()) return;
+      long start = System.nanoTime();
+      activeChannel.force(false);
+      finishSync(writtenSeq, lastEntry.index(), System.nanoTime() - start);
+    } catch (IOException e) {
+      throw new RuntimeException("failed to sync log", e);
+    }
+  }
+
+  /**
+   * wait for an in-flight group commit fsync to finish. caller holds this,
+   * which is safe because the syncing thread never needs this after it starts.
+   */
+  private void awaitSyncIdle() {
+    synchronized (syncMonitor) {
+      boolean interrupted = false;
+      while (syncInProgress) {
+        try {
+          syncMonitor.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  private long syncedSeqSnapshot() {
+    synchronized (syncMonitor) {
+      return syncedSeq;
+    }
+  }
+
+  /**
+   * a tail cache hit takes no lock at all; anything else reads the segments
+   * like entries(index, index)
+   */
+  @Override
+  public LogEntry entryAt(long index) {
+    if (index <= 0 || index > lastEntry.index()) return null;
+
+    LogEntry cached = tailCache.get(index);
+    if (cached != null) {
+      if (metrics != null) metrics.incLogCacheHits();
+      return cached;
+    }
+    List<LogEntry> found = entries(index, index, Long.MAX_VALUE);
+    return found.isEmpty() ? null : found.get(0);
+  }
+
+  /**
+   * find the segment holding index by binary search over segment first indices
+   */
+  private SegmentIndex segmentFor(long index) {
+    List<SegmentIndex> table = segments;
+    int lo = 0;
+    int hi = table.size() - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      SegmentIndex seg = table.get(mid);
+      if (index < seg.firstIndex) {
+        hi = mid - 1;
+      } else if (index > seg.lastIndex()) {
+        lo = mid + 1;
+      } else {
+        return seg;
+      }
+    }
+    return null;
+  }
+
+  private SegmentIndex activeSegment() {
+    List<SegmentIndex> table = segments;
+    return table.get(table.size() - 1);
+  }
+
+  @Override
+  public List<LogEntry> entries(long from, long toInclusive, long maxBytes) {
+    return readSegments(() -> {
+      List<LogEntry> out = new ArrayList<>();
+      boolean complete = readEntries(from, toInclusive, maxBytes, new EntrySink() {
+        @Override
+        public void cached(LogEntry entry) {
+          out.add(entry);
+        }
+
+        @Override
+        public void record(ByteBuffer payload, int format) throws IOException {
+          out.add(WalRecord.decode(payload, format));
+        }
+      });
+      return complete ? out : null;
+    });
+  }
+
+  /**
+   * entries(from, toInclusive, maxBytes) without parsing: record payloads go
+   * into the encoding as they are stored. the encoding outlives this call, it
+   * waits to be sent while truncations may rewrite or recycle the segments, so
+   * payloads in a mapping are copied out here, with the layout held still.
+   */
+  @Override
+  public EncodedEntries encodedEntries(long from, long toInclusive, long maxBytes) {
+    return readSegments(() -> {
+      EncodedEntries.Builder out = new EncodedEntries.Builder();
+      boolean complete = readEntries(from, toInclusive, maxBytes, new EntrySink() {
+        @Override
+        public void cached(LogEntry entry) {
+          out.add(entry);
+        }
+
+        @Override
+        public void record(ByteBuffer payload, int format) throws IOException {
+          out.addRecord(payload.isDirect() ? copyOf(payload) : payload, format);
+        }
+      });
+      return complete ? out.build() : null;
+    });
+  }
+
+  private static ByteBuffer copyOf(ByteBuffer payload) {
+    ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+    copy.put(payload.duplicate());
+    return copy.flip();
+  }
+
+  /**
+   * run read with layoutLock held shared, so no segment, channel or mapping
+   * it uses is swapped out under it. read returns null when it needs records
+   * still only in the write buffer: then they are flushed, under the writer's
+   * lock but with layoutLock released, and read runs again.
+   */
+  private <T> T readSegments(Supplier<T> read) {
+    while (true) {
+      layoutLock.readLock().lock();
+      try {
+        T result = read.get();
+        if (result != null) return result;
+      } finally {
+        layoutLock.readLock().unlock();
+      }
+      synchronized (this) {
+        try {
+          flushWriteBuffer();
+        } catch (IOException e) {
+          throw new RuntimeException("failed to write log", e);
+        }
+      }
+    }
+  }
+
+  /**
+   * take layoutLock exclusively for a change to segments, channels or mappings
+   */
+  private void lockLayout() {
+    layoutLock.writeLock().lock();
+    layoutVersion++;
+    VarHandle.storeStoreFence();  // odd before any of the change is visible
+  }
+
+  private void unlockLayout() {
+    layoutVersion++;
+    layoutLock.writeLock().unlock();
+  }
+
+  /**
+   * where readEntries hands each entry: cached ones as they are, the rest as
+   * the payload of their record
+   */
+  private interface EntrySink {
+    void cached(LogEntry entry);
+    void record(ByteBuffer payload, int format) throws IOException;
+  }
+
+  /**
+   * hand entries in [from, toInclusive] to out, stopping at maxBytes. returns
+   * false, partway through, on reaching a record that is only in the write
+   * buffer. caller holds layoutLock.
+   */
+  private boolean readEntries(long from, long toInclusive, long maxBytes, EntrySink out) {
+    long to = Math.min(toInclusive, lastEntry.index());
+    long first = Math.max(from, 1);
+    long i = first;
+    long bytes = 0;
+    if (i <= compactedIndex) return true;
+
+    try {
+      while (i <= to) {
+        LogEntry cached = tailCache.get(i);
+        if (cached != null) {
+          bytes += cached.getSerializedSize();
+          if (i > first && bytes > maxBytes) break;
+          out.cached(cached);
+          if (metrics != null) metrics.incLogCacheHits();
+          i++;
+          continue;
+        }
+
+        // pick the run [i, j) in this segment that fits the budget, using the
+        // offset table to size records before reading any of them. the run
+        // stops short of the cached tail and of records not written out yet.
+        SegmentIndex seg = segmentFor(i);
+        long last = Math.min(Math.min(to, seg.lastIndex()), flushedIndex);
+        long cachedFrom = tailCache.firstIndex();
+        if (cachedFrom > i) last = Math.min(last, cachedFrom - 1);
+        if (last < i) return false;
+        long start = seg.offsetOf(i);
+        long end = start;
+        long j = i;
+        boolean budgetHit = false;
+        while (j <= last) {
+          long recordEnd = recordEnd(seg, j);
+          int payload = (int) (recordEnd - seg.offsetOf(j) - seg.recordHeaderBytes());
+          bytes += WalRecord.entrySize(seg.format, payload, j, seg.termAt(j));
+          if (j > first && bytes > maxBytes) {
+            budgetHit = true;
+            break;
+          }
+          end = recordEnd;
+          j++;
+        }
+
+        // one sequential read for the whole run, then walk its records
+        ByteBuffer run = readRange(seg, start, end);
+        int header = seg.recordHeaderBytes();
+        for (long k = i; k < j; k++) {
+          int length = run.getInt(run.position());
+          out.record(run.slice(run.position() + header, length), seg.format);
+          run.position(run.position() + header + length);
+        }
+        if (metrics != null) metrics.addLogCacheMisses(j - i);
+        i = j;
+        if (budgetHit) break;
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("failed to read entries from " + from + " to " + toInclusive, e);
+    }
+    return true;
+  }
+
+  /**
+   * byte offset just past the record for index in seg
+   */
+  private long recordEnd(SegmentIndex seg, long index) throws IOException {
+    if (index < seg.lastIndex()) return seg.offsetOf(index + 1);
+    // last record of its segment: read its length. (the active segment's
+    // write offset moves with every append, so readers can't go by it)
+    long offset = seg.offsetOf(index);
+    ByteBuffer length = readRange(seg, offset, offset + 4);
+    return offset + seg.recordHeaderBytes() + length.getInt(length.position());
+  }
+
+  /**
+   * bytes [start, end) of a segment: a slice of the mapping for sealed
+   * segments, a single positional read for the active one, the blocks
+   * holding the range inflated for compressed ones. the range must be in the
+   * file already (see flushedIndex).
+   */
+  private ByteBuffer readRange(SegmentIndex seg, long start, long end) throws IOException {
+    int segNum = seg.segmentNumber;
+    int length = Math.toIntExact(end - start);
+    if (segNum == currentSegmentNumber) {
+      // active segment: positional reads on the readers' channel, no seek
+      while (true) {
+        try {
+          ByteBuffer data = ByteBuffer.allocate(length);
+          readFully(activeReadChannel(), data, start);
+          return data.flip();
+        } catch (ClosedByInterruptException e) {
+          throw e;
+        } catch (ClosedChannelException e) {
+          // another reader was interrupted mid-read; activeReadChannel reopens it
+        }
+      }
+    }
+
+    CompressedSegment.BlockIndex blocks = seg.blocks;
+    if (blocks != null) {
+      // compressed segment: never mapped, its blocks are read off an open channel
+      return readSealed(segNum, compressedPath(segNum), ch -> CompressedSegment.read(ch, blocks, start, end));
+    }
+
+    if (mappedSegments == null) {
+      // sealed segment, not mapped: positional read on its cached channel
+      return readSealed(segNum, segmentPath(segNum), ch -> {
+        ByteBuffer data = ByteBuffer.allocate(length);
+        readFully(ch, data, start);
+        return data.flip();
+      });
+    }
+
+    // sealed segment: slice the cached mapping
+    ByteBuffer segment = mappedSegments.get(segNum, segmentPath(segNum));
+    return segment.slice(Math.toIntExact(start), length);
+  }
+
+  /**
+   * the readers' channel on the active segment, reopened if an interrupted
+   * reader closed it. caller holds layoutLock shared, so the segment stays put
+   */
+  private FileChannel activeReadChannel() throws IOException {
+    FileChannel ch = activeReadChannel;
+    if (ch != null && ch.isOpen()) return ch;
+    synchronized (activeReadLock) {
+      ch = activeReadChannel;
+      if (ch == null) throw new ClosedChannelException();  // the log is closed
+      if (!ch.isOpen()) {
+        ch = FileChannel.open(segmentPath(currentSegmentNumber), StandardOpenOption.READ);
+        activeReadChannel = ch;
+      }
+      return ch;
+    }
+  }
+
+  private interface ChannelRead {
+    ByteBuffer read(FileChannel ch) throws IOException;
+  }
+
+  /**
+   * run read on the cached channel of a sealed segment file
+   */
+  private ByteBuffer readSealed(int segNum, Path path, ChannelRead read) throws IOException {
+    while (true) {
+      try {
+        return read.read(sealedChannels.get(segNum, path));
+      } catch (ClosedByInterruptException e) {
+        throw e;
+      } catch (ClosedChannelException e) {
+        // another reader's miss evicted the channel under us; get reopens it
+      }
+    }
+  }
+
+  /**
+   * drop the mapping or open channel of a segment before its file changes
+   */
+  private void forgetSealedSegment(int segNum) {
+    if (mappedSegments != null) mappedSegments.invalidate(segNum);
+    sealedChannels.invalidate(segNum);
+  }
+
+  private void forgetSealedSegmentsFrom(int segNum) {
+    if (mappedSegments != null) mappedSegments.invalidateFrom(segNum);
+    sealedChannels.invalidateFrom(segNum);
+  }
+
+  private static void readFully(FileChannel ch, ByteBuffer dst, long position) throws IOException {
+    while (dst.hasRemaining()) {
+      int n = ch.read(dst, position + dst.position());
+      if (n < 0) {
+        throw new IOException("unexpected end of segment at offset " + (position + dst.position()));
+      }
+    }
+  }
+
+  @Override
+  public synchronized void truncateFrom(long index) {
+    // readers wait this out: records they could be reading are overwritten
+    lockLayout();
+    try {
+      tailCache.truncateFrom(index);
+      if (index <= 0) {
+        // truncate everything - delete all segments and start fresh
+        Files.deleteIfExists(logStartPath());
+        compactedIndex = 0;
+        compactedTerm = 0;
+        resetToEmpty();
+        return;
+      }
+
+      if (index > lastEntry.index()) {
+        // nothing to truncate
+        return;
+      }
+
+      // find the segment containing the new last entry (index - 1)
+      if (index <= firstIndex()) {
+        // nothing stored survives; the log stays empty past the compaction point
+        resetToEmpty();
+        return;
+      }
+
+      SegmentIndex newLastSeg = segmentFor(index - 1);
+      if (newLastSeg == null) {
+        throw new IllegalStateException("index corrupted: missing entry for " + (index - 1));
+      }
+
+      // the kept records end where the first dropped one starts, or where the
+      // segment's records end if the cut falls on a segment boundary
+      boolean wasActive = newLastSeg == activeSegment();
+      if (!wasActive) {
+        // a compression of it still in flight must not be swapped in
+        reopenedSegments++;
+        if (newLastSeg.blocks != null) decompressSegment(newLastSeg);
+      }
+      long oldEnd = wasActive ? currentSegmentStartOffset : Files.size(segmentPath(newLastSeg.segmentNumber));
+      long newEnd = newLastSeg.contains(index) ? newLastSeg.offsetOf(index) : oldEnd;
+
+      // no in-flight fsync may see the records we are about to drop
+      awaitSyncIdle();
+      if (wasActive) {
+        flushWriteBuffer();
+      } else {
+        // the active segment is going away: nothing in it needs to reach disk
+        writeBuffer.clear();
+        closeChannels();
+        // mappings must go before their files shrink or disappear
+        forgetSealedSegmentsFrom(newLastSeg.segmentNumber);
+        // later segments are deleted, not recycled: their records carry the
+        // same indices new appends will, so a reused file could revive them
+        List<SegmentIndex> table = segments;
+        int kept = table.indexOf(newLastSeg) + 1;
+        segments = List.copyOf(table.subList(0, kept));
+        for (SegmentIndex dropped : table.subList(kept, table.size())) {
+          Files.deleteIfExists(sidecarPath(dropped.segmentNumber));
+          Files.deleteIfExists(segmentPath(dropped.segmentNumber));
+          Files.deleteIfExists(compressedPath(dropped.segmentNumber));
+        }
+        // the kept segment becomes active again; drop its sidecar before the file changes
+        Files.deleteIfExists(sidecarPath(newLastSeg.segmentNumber));
+        currentSegmentNumber = newLastSeg.segmentNumber;
+        openSegmentForAppending(currentSegmentNumber);
+      }
+
+      newLastSeg.truncateFrom(index);
+      cutActiveSegment(newLastSeg, newEnd, oldEnd);
+      lastEntry = new LastEntry(index - 1, newLastSeg.termAt(index - 1));
+    } catch (IOException e) {
+      throw new RuntimeException("failed to truncate log from index " + index, e);
+    } finally {
+      // everything kept is in the files now
+      flushedIndex = Math.min(flushedIndex, lastEntry.index());
+      unlockLayout();
+      // truncated entries can't be durable; no sync is in flight at this point
+      synchronized (syncMonitor) {
+        durableIndex = Math.min(durableIndex, lastEntry.index());
+      }
+    }
+  }
+
+  /**
+   * delete every segment and start an empty one right after the compaction point
+   */
+  private void resetToEmpty() throws IOException {
+    deleteAllSegments();
+    currentSegmentNumber = 1;
+    lastEntry = new LastEntry(compactedIndex, compactedTerm);
+
+    // create new empty segment
+    openNewSegment(1);
+    segments = List.of(new SegmentIndex(1, compactedIndex + 1));
+  }
+
+  @Override
+  public synchronized void truncatePrefix(long index) {
+    // only whole sealed segments below index go; the active one always stays
+    List<SegmentIndex> table = segments;
+    int drop = 0;
+    while (drop < table.size() - 1 && table.get(drop).lastIndex() < index) {
+      drop++;
+    }
+    if (drop == 0) return;
+
+    SegmentIndex lastDropped = table.get(drop - 1);
+    List<SegmentIndex> dropped = table.subList(0, drop);
+    try {
+      // move the start marker first: if we crash while deleting, recovery
+      // finishes the job by dropping segments that end at or before it
+      writeLogStart(lastDropped.lastIndex(), lastDropped.lastTerm());
+      lockLayout();
+      try {
+        compactedIndex = lastDropped.lastIndex();
+        compactedTerm = lastDropped.lastTerm();
+        segments = List.copyOf(table.subList(drop, table.size()));
+        tailCache.truncatePrefix(compactedIndex + 1);
+        for (SegmentIndex seg : dropped) {
+          forgetSealedSegment(seg.segmentNumber);
+        }
+      } finally {
+        unlockLayout();
+      }
+
+      // no reader can reach the dropped files any more
+      for (SegmentIndex seg : dropped) {
+        Files.deleteIfExists(sidecarPath(seg.segmentNumber));
+        if (seg.blocks != null) {
+          // a compressed file can't be reused as a preallocated segment
+          Files.deleteIfExists(compressedPath(seg.segmentNumber));
+        } else {
+          recycleSegment(seg.segmentNumber);
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("failed to truncate log prefix before index " + index, e);
+    }
+  }
+
+  /**
+   * recover state from existing segment files on disk.
+   *
+   * sealed segments with a valid sidecar are loaded without touching the
+   * segment itself; only segments without one (and the active tail) are scanned.
+   */
+  private void recoverFromDisk() throws IOException {
+    deleteCompressionLeftovers();
+    List<Path> segmentFiles = new ArrayList<>(listSegmentsSorted());
+    readLogStart();
+    loadRecycledSegments();
+
+    // finish an interrupted truncatePrefix: a segment is stale once the next
+    // one starts at or before the first index we still keep. only a real
+    // successor counts, one starting after this segment does: a file that
+    // still holds older records (a recycled one) must not take its place
+    while (segmentFiles.size() > 1) {
+      long nextFirst = peekFirstIndex(segmentFiles.get(1));
+      if (nextFirst <= 0 || nextFirst > compactedIndex + 1) break;
+      if (nextFirst <= peekFirstIndex(segmentFiles.get(0))) break;
+      Path stale = segmentFiles.remove(0);
+      System.err.println("recovery: dropping compacted segment " + stale.getFileName());
+      Files.deleteIfExists(sidecarPath(extractSegmentNumber(stale)));
+      Files.deleteIfExists(stale);
+    }
+
+    if (segmentFiles.isEmpty()) {
+      // fresh start - create initial segment
+      lastEntry = new LastEntry(compactedIndex, compactedTerm);
+      openNewSegment(1);
+      segments = List.of(new SegmentIndex(1, compactedIndex + 1));
+      return;
+    }
+
+    // the log starts right after the compaction point, and an empty first
+    // segment starts there too. a first record anywhere else means segments
+    // are missing or stale: wal-start is durable, so it is never overridden
+    long first = peekFirstIndex(segmentFiles.get(0));
+    if (first > 0 && first != compactedIndex + 1) {
+      throw new IOException("log in " + logDir + " starts at index " + first + " but wal-start says " +
+        (compactedIndex + 1) + ": " + (first <= compactedIndex ? "compacted segments are back" : "entries are missing"));
+    }
+    lastEntry = new LastEntry(compactedIndex, compactedTerm);
+
+    // load every segment's index in parallel, then stitch them in order
+    List<SegmentLoad> loads = loadSegments(segmentFiles);
+    List<SegmentIndex> table = new ArrayList<>();
+    long activeEnd = 0;
+    for (int i = 0; i < loads.size(); i++) {
+      SegmentLoad load = loads.get(i);
+      SegmentIndex seg = load.index();
+      CompressedSegment.BlockIndex blocks = seg.blocks;
+      long validEnd = load.validEnd();
+      // stop at the first bad record: this segment becomes the tail and
+      // anything after it is unreachable through a contiguous index
+      boolean broken = validEnd < load.fileSize();
+
+      if (seg.size() == 0) {
+        // an empty segment starts wherever the log is
+        seg = new SegmentIndex(load.segNum(), lastEntry.index() + 1, seg.format);
+      } else if (seg.firstIndex != lastEntry.index() + 1) {
+        // offsets are positional, so a gap would corrupt every later lookup
+        System.err.println("recovery: segment " + load.path().getFileName() + " starts at index " +
+                         seg.firstIndex + ", truncating at index " + lastEntry.index());
+        seg = new SegmentIndex(load.segNum(), lastEntry.index() + 1, seg.format);
+        validEnd = WalRecord.segmentHeaderBytes(seg.format);
+        broken = true;
+      }
+
+      seg.blocks = blocks;
+      table.add(seg);
+      adoptLastEntry(seg);
+      activeEnd = validEnd;
+
+      if (broken) {
+        for (SegmentLoad later : loads.subList(i + 1, loads.size())) {
+          System.err.println("recovery: dropping segment " + later.path().getFileName() +
+                           " after corrupt data in " + load.path().getFileName());
+          Files.deleteIfExists(sidecarPath(later.segNum()));
+          Files.deleteIfExists(later.path());
+        }
+        break;
+      }
+    }
+
+    // open the last segment for appending, cutting off any torn tail first
+    SegmentIndex active = table.get(table.size() - 1);
+    currentSegmentNumber = active.segmentNumber;
+    if (active.blocks != null) {
+      // the tail was sealed and compressed; it is appended to as a plain segment
+      decompressSegment(active);
+    }
+    Files.deleteIfExists(sidecarPath(currentSegmentNumber));
+    if (active.size() == 0) {
+      // nothing in it survived: restart it in the current format
+      table.set(table.size() - 1, new SegmentIndex(currentSegmentNumber, active.firstIndex));
+      segments = List.copyOf(table);
+      openNewSegment(currentSegmentNumber);
+      return;
+    }
+    segments = List.copyOf(table);
+    Path activePath = segmentPath(currentSegmentNumber);
+    if (active.format == WalRecord.LEGACY) {
+      if (Files.size(activePath) > activeEnd) {
+        try (RandomAccessFile raf = new RandomAccessFile(activePath.toFile(), "rw")) {
+          raf.setLength(activeEnd);
+        }
+      }
+    } else {
+      // whatever follows the last good record (a torn write, pages that never
+      // reached disk, a recycled file's old records) is replaced by fresh zeros
+      try (FileChannel ch = FileChannel.open(activePath, StandardOpenOption.WRITE)) {
+        ch.truncate(activeEnd);
+        preallocate(ch);
+      }
+    }
+    openSegmentForAppending(currentSegmentNumber);
+    currentSegmentStartOffset = activeEnd;
+    resetWriteBuffer(activeEnd);
+  }
 
-  // tracks where each segment starts in terms of log indices
-  private final Map<Integer, Long> segmentFirstIndex = new HashMap<>();
+  /**
+   * one segment's index as loaded on its own, before stitching
+   */
+  private record SegmentLoad(Path path, int segNum, long fileSize, SegmentIndex index, long validEnd) {}
 
   /**
-   * internal record tracking where an entry lives on disk
+   * load the index of every segment, on recoveryThreads threads when there is
+   * more than one segment. results come back in segment order.
    */
-  private record FileLocation(int segmentNumber, long offset) {}
+  private List<SegmentLoad> loadSegments(List<Path> segmentFiles) throws IOException {
+    int last = segmentFiles.size() - 1;
+    if (recoveryThreads <= 1 || segmentFiles.size() == 1) {
+      List<SegmentLoad> loads = new ArrayList<>();
+      for (int i = 0; i <= last; i++) {
+        loads.add(loadSegment(segmentFiles.get(i), i < last));
+      }
+      return loads;
+    }
 
-  public FileLogStore(Path logDir) throws IOException {
-    this(logDir, 10 * 1024 * 1024);  // default 10MB segments
+    ForkJoinPool pool = new ForkJoinPool(recoveryThreads);
+    try {
+      List<ForkJoinTask<SegmentLoad>> tasks = new ArrayList<>();
+      for (int i = 0; i <= last; i++) {
+        Path path = segmentFiles.get(i);
+        boolean sealed = i < last;
+        tasks.add(pool.submit(() -> loadSegment(path, sealed)));
+      }
+      List<SegmentLoad> loads = new ArrayList<>();
+      for (ForkJoinTask<SegmentLoad> task : tasks) {
+        loads.add(task.get());
+      }
+      return loads;
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException io) throw io;
+      if (e.getCause() instanceof RuntimeException re) throw re;
+      throw new IOException("failed to load segment", e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while loading segments", e);
+    } finally {
+      pool.shutdownNow();
+    }
   }
 
-  public FileLogStore(Path logDir, int segmentSize) throws IOException {
-    this.logDir = logDir;
-    this.segmentSize = segmentSize;
-    Files.createDirectories(logDir);
+  /**
+   * load one segment without knowing where the previous one ended: from its
+   * sidecar if it is sealed and has a valid one, by scanning it otherwise
+   */
+  private SegmentLoad loadSegment(Path path, boolean sealed) throws IOException {
+    int segNum = extractSegmentNumber(path);
+    // a compressed segment is sized, and its sidecar checked, by its uncompressed bytes
+    CompressedSegment.BlockIndex blocks = isCompressed(path) ? readBlockIndex(path) : null;
+    long fileSize = blocks != null ? blocks.rawLength() : Files.size(path);
+    if (sealed) {
+      SegmentIndex seg = SegmentSidecar.read(sidecarPath(segNum), segNum, fileSize);
+      if (seg != null) {
+        seg.blocks = blocks;
+        return new SegmentLoad(path, segNum, fileSize, seg, fileSize);
+      }
+    }
 
-    // if existing segments exist, rebuild state from disk
-    recoverFromDisk();
+    ScanResult scan = scanSegment(path, segNum, 0);
+    if (sealed && scan.validEnd() == fileSize && scan.index().size() > 0) {
+      writeSidecar(scan.index(), fileSize);
+    }
+    scan.index().blocks = blocks;
+    return new SegmentLoad(path, segNum, fileSize, scan.index(), scan.validEnd());
   }
 
-  @Override
-  public synchronized long lastIndex() {
-    return lastIndex;
+  private static CompressedSegment.BlockIndex readBlockIndex(Path path) throws IOException {
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      return CompressedSegment.readIndex(ch);
+    }
   }
 
-  @Override
-  public synchronized long termAt(long index) {
-    if (index == 0) return 0;
-    if (index > lastIndex) return 0;
-    if (index == lastIndex) return lastTerm;  // fast path
-
-    // need to load from disk
-    LogEntry entry = entryAt(index);
-    return entry == null ? 0 : entry.getTerm();
+  private static boolean isCompressed(Path path) {
+    return path.getFileName().toString().endsWith(".zlog");
   }
 
-  @Override
-  public synchronized void append(List<LogEntry> entries) {
-    if (entries.isEmpty()) return;
+  /**
+   * drop what an interrupted compression or decompression left behind: its
+   * temporary file, or a .zlog whose .log was never deleted (the .log is
+   * always complete, and may have been appended to since)
+   */
+  private void deleteCompressionLeftovers() throws IOException {
+    List<Path> leftovers;
+    try (var stream = Files.list(logDir)) {
+      leftovers = stream.filter(p -> {
+        String name = p.getFileName().toString();
+        return name.startsWith("wal-") && (name.endsWith(".zlog.tmp") || name.endsWith(".log.tmp"));
+      }).toList();
+    }
+    for (Path tmp : leftovers) {
+      Files.deleteIfExists(tmp);
+    }
+    for (Path path : listSegmentsSorted()) {
+      if (isCompressed(path) && Files.exists(segmentPath(extractSegmentNumber(path)))) {
+        System.err.println("recovery: dropping " + path.getFileName() + ", its segment was never removed");
+        Files.delete(path);
+      }
+    }
+  }
 
-    try {
-      for (LogEntry entry : entries) {
-        // sanity check: entries should be contiguous
-        if (entry.getIndex() != lastIndex + 1) {
-          throw new IllegalArgumentException(
-            "non-contiguous append: expected index " + (lastIndex + 1) +
-            " but got " + entry.getIndex());
-        }
+  private void adoptLastEntry(SegmentIndex seg) {
+    if (seg.size() > 0) {
+      lastEntry = new LastEntry(seg.lastIndex(), seg.lastTerm());
+    }
+  }
 
-        // check if we need to rotate to a new segment file
-        if (shouldRotateSegment()) {
-          rotateSegment();
-        }
+  /**
+   * result of scanning one segment: its index and the end of its last good record
+   */
+  private record ScanResult(SegmentIndex index, long validEnd) {}
 
-        // serialize entry to bytes
-        byte[] data = entry.toByteArray();
-        int length = data.length;
+  /**
+   * read every record of a segment, stopping at the first partial or corrupt one.
+   * checksummed records are validated by crc and only their index and term are
+   * decoded; legacy records have no crc, so a full parse is their only check.
+   * a firstIndex of 0 means "whatever the first record says".
+   */
+  private ScanResult scanSegment(Path segmentPath, int segNum, long firstIndex) throws IOException {
+    ByteBuffer data = segmentBytes(segmentPath);
+    int format = WalRecord.detectFormat(data);
+    if (format == 0) {
+      // empty, or torn while its header was written: nothing in it survives
+      return new ScanResult(new SegmentIndex(segNum, firstIndex), 0);
+    }
+    if (firstIndex <= 0) {
+      firstIndex = firstRecordIndex(data, format);
+    }
 
-        // record current position before writing
-        long offset = currentSegmentStartOffset;
-        index.put(entry.getIndex(), new FileLocation(currentSegmentNumber, offset));
+    SegmentIndex seg = new SegmentIndex(segNum, firstIndex, format);
+    int header = WalRecord.recordHeaderBytes(format);
+    int fileSize = data.limit();
+    int currentOffset = WalRecord.segmentHeaderBytes(format);
+    long expectedIndex = firstIndex;
+
+    while (currentOffset < fileSize) {
+      // try to read the record header
+      if (fileSize - currentOffset < header) {
+        // partial write at end of file (crash during write) - stop here
+        System.err.println("recovery: found partial write in " + segmentPath.getFileName() +
+                         ", truncating");
+        break;
+      }
+      int length = data.getInt(currentOffset);
+      if (length == 0 && format != WalRecord.LEGACY) {
+        // preallocated space: end of written data
+        break;
+      }
 
-        // write format: [4-byte length][protobuf data]
-        currentWriter.writeInt(length);
-        currentWriter.write(data);
+      // a torn length field can claim more bytes than the file holds
+      if (length < 0 || length > fileSize - currentOffset - header) {
+        System.err.println("recovery: found incomplete entry in " + segmentPath.getFileName() +
+                         ", truncating");
+        break;
+      }
+      ByteBuffer payload = data.slice(currentOffset + header, length);
+
+      long index;
+      long term;
+      try {
+        if (format == WalRecord.LEGACY) {
+          LogEntry entry = LogEntry.parseFrom(payload);
+          index = entry.getIndex();
+          term = entry.getTerm();
+        } else {
+          if (WalRecord.checksum(payload) != data.getInt(currentOffset + 4)) {
+            System.err.println("recovery: found checksum mismatch in " + segmentPath.getFileName() +
+                             ", truncating at index " + (expectedIndex - 1));
+            break;
+          }
+          WalRecord.Position position = WalRecord.indexAndTerm(payload, format);
+          index = position.index();
+          term = position.term();
+        }
+      } catch (InvalidProtocolBufferException e) {
+        // corrupt entry - stop recovery here
+        System.err.println("recovery: found corrupt record in " + segmentPath.getFileName() +
+                         ", truncating at index " + (expectedIndex - 1));
+        break;
+      }
 
-        // update tracking
-        currentSegmentStartOffset += 4 + length;
-        lastIndex = entry.getIndex();
-        lastTerm = entry.getTerm();
+      if (index < expectedIndex && format != WalRecord.LEGACY) {
+        // an old record left in a recycled file: end of written data
+        break;
+      }
+      if (index != expectedIndex) {
+        // offsets are positional, so a gap would corrupt every later lookup
+        System.err.println("recovery: found non-contiguous index " + index +
+                         " in " + segmentPath.getFileName() + ", truncating at index " + (expectedIndex - 1));
+        break;
       }
 
-      // critical: force data to disk for durability
-      // without this, data might only be in OS buffer and lost on crash
-      currentWriter.flush();
-      currentSegment.getFD().sync();
-    } catch (IOException e) {
-      throw new RuntimeException("failed to append entries to log", e);
+      // successfully read entry - add to index
+      seg.add(currentOffset, term);
+      expectedIndex++;
+      currentOffset += header + length;
     }
-  }
-
-  @Override
-  public synchronized LogEntry entryAt(long index) {
-    if (index <= 0 || index > lastIndex) return null;
 
-    FileLocation loc = this.index.get(index);
-    if (loc == null) return null;
+    return new ScanResult(seg, currentOffset);
+  }
 
-    // open the segment file and seek to the right location
-    Path segmentPath = segmentPath(loc.segmentNumber);
-    try (RandomAccessFile raf = new RandomAccessFile(segmentPath.toFile(), "r")) {
-      raf.seek(loc.offset);
+  /**
+   * index of the first record in a segment, or 0 if it has none readable
+   */
+  private long peekFirstIndex(Path segmentPath) throws IOException {
+    ByteBuffer data = segmentBytes(segmentPath);
+    int format = WalRecord.detectFormat(data);
+    return format == 0 ? 0 : firstRecordIndex(data, format);
+  }
 
-      // read length prefix
-      int length = raf.readInt();
+  private static long firstRecordIndex(ByteBuffer data, int format) throws IOException {
+    int offset = WalRecord.segmentHeaderBytes(format);
+    int header = WalRecord.recordHeaderBytes(format);
+    if (data.limit() - offset < header) return 0;
+    int length = data.getInt(offset);
+    if (length < 0 || length > data.limit() - offset - header) return 0;
+    try {
+      return WalRecord.indexAndTerm(data.slice(offset + header, length), format).index();
+    } catch (InvalidProtocolBufferException e) {
+      return 0;
+    }
+  }
 
-      // read protobuf data
-      byte[] data = new byte[length];
-      raf.readFully(data);
+  /**
+   * a segment file's bytes: mapped, or inflated if it is compressed
+   */
+  private static ByteBuffer segmentBytes(Path path) throws IOException {
+    return isCompressed(path) ? CompressedSegment.readAll(path) : mapReadOnly(path);
+  }
 
-      // deserialize
-      return LogEntry.parseFrom(data);
-    } catch (IOException e) {
-      throw new RuntimeException("failed to read entry at index " + index, e);
+  private static ByteBuffer mapReadOnly(Path path) throws IOException {
+    try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+      return ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
     }
   }
 
-  @Override
-  public synchronized void truncateFrom(long index) {
-    try {
-      if (index <= 0) {
-        // truncate everything - delete all segments and start fresh
-        deleteAllSegments();
-        currentSegmentNumber = 1;
-        currentSegmentStartOffset = 0;
-        lastIndex = 0;
-        lastTerm = 0;
-        this.index.clear();
-        segmentFirstIndex.clear();
-
-        // create new empty segment
-        openNewSegment(1);
-        return;
-      }
-
-      if (index > lastIndex) {
-        // nothing to truncate
-        return;
+  /**
+   * pick up recycled segment files left by an earlier run
+   */
+  private void loadRecycledSegments() throws IOException {
+    try (var stream = Files.list(logDir)) {
+      for (Path free : stream.filter(p -> p.getFileName().toString().endsWith(".free")).sorted().toList()) {
+        if (recycledSegments.size() < maxRecycledSegments) {
+          recycledSegments.addLast(free);
+        } else {
+          Files.deleteIfExists(free);
+        }
       }
+    }
+  }
 
-      // remove all index entries >= index
-      List<Long> toRemove = this.index.keySet().stream()
-        .filter(i -> i >= index)
-        .collect(Collectors.toList());
-      toRemove.forEach(this.index::remove);
-
-      // find the segment containing the new last entry (index - 1)
-      if (index == 1) {
-        // truncating from index 1 means empty log
-        deleteAllSegments();
-        currentSegmentNumber = 1;
-        currentSegmentStartOffset = 0;
-        lastIndex = 0;
-        lastTerm = 0;
-        segmentFirstIndex.clear();
-        openNewSegment(1);
+  /**
+   * load the compaction point from wal-start, if there is one
+   */
+  private void readLogStart() {
+    Path path = logStartPath();
+    if (!Files.exists(path)) return;
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+      long index = in.readLong();
+      long term = in.readLong();
+      CRC32C crc = new CRC32C();
+      crc.update(ByteBuffer.allocate(16).putLong(index).putLong(term).flip());
+      if (in.readInt() != (int) crc.getValue()) {
+        System.err.println("recovery: ignoring corrupt " + path.getFileName());
         return;
       }
+      compactedIndex = index;
+      compactedTerm = term;
+    } catch (IOException e) {
+      System.err.println("recovery: ignoring unreadable " + path.getFileName() + ": " + e.getMessage());
+    }
+  }
 
-      FileLocation newLastLoc = this.index.get(index - 1);
-      if (newLastLoc == null) {
-        throw new IllegalStateException("index corrupted: missing entry for " + (index - 1));
+  /**
+   * durably record the compaction point: [8 index][8 term][4 crc32c].
+   * unlike a sidecar this is not a cache, so it is fsync'd before the rename.
+   */
+  private void writeLogStart(long index, long term) throws IOException {
+    ByteBuffer buf = ByteBuffer.allocate(20);
+    buf.putLong(index).putLong(term);
+    CRC32C crc = new CRC32C();
+    crc.update(buf.duplicate().flip());
+    buf.putInt((int) crc.getValue()).flip();
+
+    Path path = logStartPath();
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buf.hasRemaining()) {
+        ch.write(buf);
       }
+      ch.force(true);
+    }
+    try {
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
 
-      // close current segment
-      closeCurrentSegment();
-
-      // delete all segments after the one containing our new last entry
-      deleteSegmentsAfter(newLastLoc.segmentNumber);
-
-      // truncate the segment file containing the new last entry
-      // we need to truncate at the position AFTER the last entry we're keeping
-      truncateSegmentAfter(newLastLoc);
-
-      // reopen the segment for appending
-      currentSegmentNumber = newLastLoc.segmentNumber;
-      openSegmentForAppending(currentSegmentNumber);
-
-      // update cache
-      LogEntry newLastEntry = entryAt(index - 1);
-      lastIndex = newLastEntry.getIndex();
-      lastTerm = newLastEntry.getTerm();
-
-      // recalculate current offset by reading through the segment
-      currentSegmentStartOffset = calculateSegmentEndOffset(currentSegmentNumber);
+  /**
+   * persist the index of a sealed segment. failures only cost a rescan on restart.
+   */
+  private void writeSidecar(SegmentIndex seg, long segmentBytes) {
+    try {
+      SegmentSidecar.write(sidecarPath(seg.segmentNumber), seg, segmentBytes);
     } catch (IOException e) {
-      throw new RuntimeException("failed to truncate log from index " + index, e);
+      System.err.println("failed to write sidecar for segment " + seg.segmentNumber + ": " + e.getMessage());
     }
   }
 
-
   /**
-   * recover state from existing segment files on disk
+   * check if current segment has grown too large
    */
-  private void recoverFromDisk() throws IOException {
-    List<Path> segments = listSegmentsSorted();
+  private boolean shouldRotateSegment() {
+    return currentSegmentStartOffset >= segmentSize;
+  }
 
-    if (segments.isEmpty()) {
-      // fresh start - create initial segment
-      openNewSegment(1);
-      segmentFirstIndex.put(1, 1L);
-      return;
+  /**
+   * close current segment and open a new one
+   */
+  private void rotateSegment() throws IOException {
+    // trim the preallocated tail so the sealed file ends at its last record.
+    // force(true) makes the new size durable: recovery must never see stale
+    // bytes past the end of a sealed segment
+    syncPending();
+    activeChannel.truncate(currentSegmentStartOffset);
+    activeChannel.force(true);
+    // the old segment is synced and will never change again: persist its index
+    writeSidecar(activeSegment(), currentSegmentStartOffset);
+
+    // readers only wait for the switch, not for the new file to be zero-filled
+    int next = currentSegmentNumber + 1;
+    FileChannel nextChannel = createSegmentFile(next);
+    SegmentIndex sealed = activeSegment();
+    lockLayout();
+    try {
+      closeCurrentSegment();
+      currentSegmentNumber = next;
+      startSegment(next, nextChannel);
+      List<SegmentIndex> table = new ArrayList<>(segments);
+      table.add(new SegmentIndex(next, lastEntry.index() + 1));
+      segments = List.copyOf(table);
+    } finally {
+      unlockLayout();
     }
+    scheduleCompression(sealed);
+  }
 
-    // rebuild index by reading all segments sequentially
-    for (Path segmentPath : segments) {
-      int segNum = extractSegmentNumber(segmentPath);
-      long segStartIndex = lastIndex + 1;
-      segmentFirstIndex.put(segNum, segStartIndex);
+  private void scheduleCompression(SegmentIndex seg) {
+    if (compressor != null) {
+      compressor.execute(() -> compressSegment(seg));
+    }
+  }
 
-      try (DataInputStream dis = new DataInputStream(new FileInputStream(segmentPath.toFile()))) {
-        long currentOffset = 0;
+  /**
+   * compressor thread: write a compressed copy of a sealed segment next to
+   * it, then swap it in. gives up, keeping the .log, if the segment was
+   * dropped or reopened by a truncation in the meantime.
+   */
+  private void compressSegment(SegmentIndex seg) {
+    int segNum = seg.segmentNumber;
+    Path compressed = compressedPath(segNum);
+    Path tmp = compressed.resolveSibling(compressed.getFileName() + ".tmp");
+    // read the counter before looking at the table: a reopen after this is caught below
+    long reopened = reopenedSegments;
+    if (!isSealed(seg)) return;
+    try {
+      CompressedSegment.BlockIndex blocks = CompressedSegment.write(segmentPath(segNum), tmp);
+      lockLayout();
+      try {
+        if (reopenedSegments != reopened || !isSealed(seg)) return;
+        try {
+          Files.move(tmp, compressed, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(tmp, compressed, StandardCopyOption.REPLACE_EXISTING);
+        }
+        seg.blocks = blocks;
+        // no reader holds the .log's mapping or channel past this point
+        forgetSealedSegment(segNum);
+        Files.delete(segmentPath(segNum));
+      } finally {
+        unlockLayout();
+      }
+      syncDirectory();
+    } catch (IOException e) {
+      // a truncation may have taken the file away; otherwise it stays a plain .log
+      if (isSealed(seg) && !Thread.currentThread().isInterrupted()) {
+        System.err.println("wal: failed to compress segment " + segNum + ": " + e.getMessage());
+      }
+    } finally {
+      try {
+        Files.deleteIfExists(tmp);
+      } catch (IOException e) {
+        // recovery deletes leftover temporary files
+      }
+    }
+  }
 
-        while (dis.available() > 0) {
-          // try to read length
-          int length;
-          try {
-            length = dis.readInt();
-          } catch (Exception e) {
-            // partial write at end of file (crash during write) - stop here
-            System.err.println("recovery: found partial write in " + segmentPath.getFileName() +
-                             ", truncating");
-            break;
-          }
+  /**
+   * seg is still in the log and not the active segment
+   */
+  private boolean isSealed(SegmentIndex seg) {
+    List<SegmentIndex> table = segments;
+    return table.indexOf(seg) >= 0 && table.get(table.size() - 1) != seg;
+  }
 
-          // try to read entry data
-          byte[] data = new byte[length];
-          int bytesRead = dis.read(data);
-          if (bytesRead < length) {
-            // partial write - stop here
-            System.err.println("recovery: found incomplete entry in " + segmentPath.getFileName() +
-                             ", truncating");
-            break;
-          }
+  /**
+   * inflate a compressed segment back into a plain .log before it is
+   * appended to again. caller holds layoutLock exclusively.
+   */
+  private void decompressSegment(SegmentIndex seg) throws IOException {
+    int segNum = seg.segmentNumber;
+    forgetSealedSegment(segNum);
+    Path path = segmentPath(segNum);
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    ByteBuffer raw = CompressedSegment.readAll(compressedPath(segNum));
+    try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeFully(ch, raw, 0);
+      ch.force(true);
+    }
+    try {
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+    // the .log must be durable before its only other copy goes
+    syncDirectory();
+    Files.delete(compressedPath(segNum));
+    seg.blocks = null;
+  }
 
-          // try to parse protobuf
-          LogEntry entry;
-          try {
-            entry = LogEntry.parseFrom(data);
-          } catch (InvalidProtocolBufferException e) {
-            // corrupt entry - stop recovery here
-            System.err.println("recovery: found corrupt protobuf in " + segmentPath.getFileName() +
-                             ", truncating at index " + lastIndex);
-            break;
-          }
+  /**
+   * test hook: wait for every compression scheduled so far
+   */
+  void awaitCompression() throws InterruptedException, ExecutionException {
+    if (compressor != null) {
+      compressor.submit(() -> {}).get();
+    }
+  }
 
-          // successfully read entry - add to index
-          index.put(entry.getIndex(), new FileLocation(segNum, currentOffset));
-          if (entry.getIndex() >= lastIndex) {
-            lastIndex = entry.getIndex();
-            lastTerm = entry.getTerm();
-          }
+  /**
+   * open a brand new segment file for writing, starting with its header
+   */
+  private void openNewSegment(int segNum) throws IOException {
+    startSegment(segNum, createSegmentFile(segNum));
+  }
 
-          currentOffset += 4 + length;
-        }
+  /**
+   * create the file for a new segment, preallocated and with its name durable.
+   * reuses a recycled file when there is one, otherwise zero-fills a new one.
+   */
+  private FileChannel createSegmentFile(int segNum) throws IOException {
+    Path path = segmentPath(segNum);
+    Path recycled = recycledSegments.pollFirst();
+    FileChannel ch;
+    if (recycled != null) {
+      // until the first flush, a crash finds whatever the file holds under its
+      // new name: cut its old records off first, behind a header and an empty
+      // record, so it recovers as an empty segment rather than a stale one
+      try (FileChannel free = FileChannel.open(recycled, StandardOpenOption.WRITE)) {
+        ByteBuffer cut = ByteBuffer.allocate(WalRecord.segmentHeaderBytes(WalRecord.CURRENT)
+          + WalRecord.recordHeaderBytes(WalRecord.CURRENT));
+        cut.put(WalRecord.segmentHeader(WalRecord.CURRENT)).clear();
+        writeFully(free, cut, 0);
+        free.force(false);
       }
-    }
-
-    // open the last segment for appending
-    if (!segments.isEmpty()) {
-      currentSegmentNumber = extractSegmentNumber(segments.get(segments.size() - 1));
-      openSegmentForAppending(currentSegmentNumber);
-      currentSegmentStartOffset = calculateSegmentEndOffset(currentSegmentNumber);
+      Files.move(recycled, path, StandardCopyOption.REPLACE_EXISTING);
+      ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
     } else {
-      openNewSegment(1);
-      segmentFirstIndex.put(1, 1L);
+      ch = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
     }
+    preallocate(ch);
+    // the new name must survive a crash along with the data synced into it
+    syncDirectory();
+    return ch;
   }
 
   /**
-   * check if current segment has grown too large
+   * make ch, a fresh segment file, the active segment and stage its header
    */
-  private boolean shouldRotateSegment() {
-    return currentSegmentStartOffset >= segmentSize;
+  private void startSegment(int segNum, FileChannel ch) throws IOException {
+    activeChannel = ch;
+    openActiveReadChannel(segmentPath(segNum));
+    openDirectChannel(segmentPath(segNum), WalRecord.CURRENT);
+
+    writeBuffer.clear();
+    directFlushed = 0;
+    writeBuffer.put(WalRecord.segmentHeader(WalRecord.CURRENT));
+    currentSegmentStartOffset = WalRecord.segmentHeaderBytes(WalRecord.CURRENT);
   }
 
   /**
-   * close current segment and open a new one
+   * zero-fill the segment up to segmentSize and make the allocation durable,
+   * so later appends only overwrite blocks the file already owns
    */
-  private void rotateSegment() throws IOException {
-    closeCurrentSegment();
-    currentSegmentNumber++;
-    currentSegmentStartOffset = 0;
-    openNewSegment(currentSegmentNumber);
-    segmentFirstIndex.put(currentSegmentNumber, lastIndex + 1);
+  private void preallocate(FileChannel ch) throws IOException {
+    long position = ch.size();
+    if (position >= segmentSize) return;
+    writeZeros(ch, position, segmentSize);
+    ch.force(true);
+  }
+
+  private static void writeZeros(FileChannel ch, long from, long to) throws IOException {
+    while (from < to) {
+      ByteBuffer zeros = ZEROS.duplicate();
+      zeros.limit((int) Math.min(zeros.capacity(), to - from));
+      from += ch.write(zeros, from);
+    }
+  }
+
+  private void syncDirectory() throws IOException {
+    try (FileChannel dir = FileChannel.open(logDir, StandardOpenOption.READ)) {
+      dir.force(true);
+    } catch (IOException e) {
+      // not every platform can open a directory; the rename still happened
+    }
   }
 
   /**
-   * open a brand new segment file for writing
+   * open existing segment for appending at currentSegmentStartOffset
    */
-  private void openNewSegment(int segNum) throws IOException {
+  private void openSegmentForAppending(int segNum) throws IOException {
     Path path = segmentPath(segNum);
-    currentSegment = new FileOutputStream(path.toFile());
-    currentWriter = new DataOutputStream(currentSegment);
+    activeChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    openActiveReadChannel(path);
+    openDirectChannel(path, activeSegment().format);
+    writeBuffer.clear();
+    directFlushed = 0;
   }
 
   /**
-   * open existing segment for appending
+   * second channel on the active segment for O_DIRECT writes. legacy segments
+   * aren't preallocated, so padded blocks would leave zeros past their end
+   * that their format can't tell from a record: they keep buffered writes.
    */
-  private void openSegmentForAppending(int segNum) throws IOException {
-    Path path = segmentPath(segNum);
-    currentSegment = new FileOutputStream(path.toFile(), true);  // append mode
-    currentWriter = new DataOutputStream(currentSegment);
+  private void openDirectChannel(Path path, int format) throws IOException {
+    if (directBlockSize > 0 && format != WalRecord.LEGACY) {
+      directChannel = FileChannel.open(path, StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT);
+    }
+  }
+
+  private void openActiveReadChannel(Path path) throws IOException {
+    FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+    synchronized (activeReadLock) {
+      activeReadChannel = ch;
+    }
+  }
+
+  private void closeChannels() throws IOException {
+    synchronized (activeReadLock) {
+      if (activeReadChannel != null) {
+        activeReadChannel.close();
+        activeReadChannel = null;
+      }
+    }
+    if (directChannel != null) {
+      directChannel.close();
+      directChannel = null;
+    }
+    activeChannel.close();
+    activeChannel = null;
   }
 
   /**
-   * close the current segment writer
+   * block size for O_DIRECT writes in logDir, or 0 (buffered writes) if the
+   * platform or file system refuses them
+   */
+  private int probeDirectIo() {
+    Path probe = logDir.resolve("wal-direct-probe");
+    try {
+      int block = (int) Files.getFileStore(logDir).getBlockSize();
+      if (block <= 0 || Integer.bitCount(block) != 1 || block > WRITE_BUFFER_SIZE) {
+        throw new IOException("unusable block size " + block);
+      }
+      try (FileChannel ch = FileChannel.open(probe, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          ExtendedOpenOption.DIRECT)) {
+        writeFully(ch, ByteBuffer.allocateDirect(2 * block).alignedSlice(block).limit(block), 0);
+      }
+      return block;
+    } catch (IOException | UnsupportedOperationException e) {
+      System.err.println("wal: O_DIRECT unavailable in " + logDir + " (" + e.getMessage() + "), using buffered writes");
+      return 0;
+    } finally {
+      try {
+        Files.deleteIfExists(probe);
+      } catch (IOException e) {
+        // only a leftover probe file
+      }
+    }
+  }
+
+  /**
+   * close the active segment, making anything still buffered durable first
    */
   private void closeCurrentSegment() throws IOException {
-    if (currentWriter != null) {
-      currentWriter.close();
-      currentWriter = null;
+    if (activeChannel != null) {
+      syncPending();
+      closeChannels();
     }
-    if (currentSegment != null) {
-      currentSegment.close();
-      currentSegment = null;
+  }
+
+  /**
+   * keep a dropped segment's file for reuse, or delete it if the pool is full
+   */
+  private void recycleSegment(int segNum) throws IOException {
+    Path path = segmentPath(segNum);
+    if (recycledSegments.size() >= maxRecycledSegments) {
+      Files.deleteIfExists(path);
+      return;
     }
+    Path free = logDir.resolve(String.format("wal-%07d.free", segNum));
+    Files.move(path, free, StandardCopyOption.REPLACE_EXISTING);
+    recycledSegments.addLast(free);
   }
 
   /**
-   * delete all segment files
+   * delete all segment files, and the recycled ones: after this, indices may
+   * start over and stale records could look live again
    */
   private void deleteAllSegments() throws IOException {
     closeCurrentSegment();
+    forgetSealedSegmentsFrom(0);
     List<Path> segments = listSegmentsSorted();
     for (Path seg : segments) {
+      Files.deleteIfExists(sidecarPath(extractSegmentNumber(seg)));
       Files.deleteIfExists(seg);
     }
+    for (Path free : recycledSegments) {
+      Files.deleteIfExists(free);
+    }
+    recycledSegments.clear();
   }
 
   /**
-   * delete all segment files with number > segNum
+   * make newEnd the end of the active segment's records, touching only the
+   * dropped bytes. checksummed segments stay preallocated: dropped records are
+   * overwritten with zeros, which recovery reads as the end of the segment.
    */
-  private void deleteSegmentsAfter(int segNum) throws IOException {
-    List<Path> segments = listSegmentsSorted();
-    for (Path seg : segments) {
-      int num = extractSegmentNumber(seg);
-      if (num > segNum) {
-        Files.deleteIfExists(seg);
-      }
+  private void cutActiveSegment(SegmentIndex seg, long newEnd, long oldEnd) throws IOException {
+    if (seg.format == WalRecord.LEGACY) {
+      activeChannel.truncate(newEnd);
+    } else {
+      writeZeros(activeChannel, newEnd, oldEnd);
+      preallocate(activeChannel);
     }
+    activeChannel.force(false);
+    currentSegmentStartOffset = newEnd;
+    resetWriteBuffer(newEnd);
   }
 
   /**
-   * truncate a segment file after the given location
+   * get path for a segment file
    */
-  private void truncateSegmentAfter(FileLocation loc) throws IOException {
-    Path path = segmentPath(loc.segmentNumber);
-
-    // read the entry at this location to find where it ends
-    try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "r")) {
-      raf.seek(loc.offset);
-      int length = raf.readInt();
-      long truncatePos = loc.offset + 4 + length;
-
-      // truncate file at this position
-      try (RandomAccessFile writer = new RandomAccessFile(path.toFile(), "rw")) {
-        writer.setLength(truncatePos);
-      }
-    }
+  private Path segmentPath(int segNum) {
+    return logDir.resolve(String.format("wal-%07d.log", segNum));
   }
 
   /**
-   * calculate the end offset of a segment by scanning through it
+   * get path for the compressed copy of a sealed segment
    */
-  private long calculateSegmentEndOffset(int segNum) throws IOException {
-    Path path = segmentPath(segNum);
-    long offset = 0;
-
-    try (DataInputStream dis = new DataInputStream(new FileInputStream(path.toFile()))) {
-      while (dis.available() > 0) {
-        int length = dis.readInt();
-        dis.skipBytes(length);
-        offset += 4 + length;
-      }
-    }
+  private Path compressedPath(int segNum) {
+    return logDir.resolve(String.format("wal-%07d.zlog", segNum));
+  }
 
-    return offset;
+  /**
+   * get path for the sidecar index of a sealed segment
+   */
+  private Path sidecarPath(int segNum) {
+    return logDir.resolve(String.format("wal-%07d.idx", segNum));
   }
 
   /**
-   * get path for a segment file
+   * get path for the compaction point marker
    */
-  private Path segmentPath(int segNum) {
-    return logDir.resolve(String.format("wal-%07d.log", segNum));
+  private Path logStartPath() {
+    return logDir.resolve("wal-start");
   }
 
   /**
@@ -435,7 +2090,7 @@ public class FileLogStore implements LogStore {
       return stream
         .filter(p -> {
           String name = p.getFileName().toString();
-          return name.startsWith("wal-") && name.endsWith(".log");
+          return name.startsWith("wal-") && (name.endsWith(".log") || name.endsWith(".zlog"));
         })
         .sorted((a, b) -> Integer.compare(extractSegmentNumber(a), extractSegmentNumber(b)))
         .collect(Collectors.toList());
@@ -443,7 +2098,7 @@ public class FileLogStore implements LogStore {
   }
 
   /**
-   * extract segment number from filename like "wal-0000001.log"
+   * extract segment number from filename like "wal-0000001.log" or "wal-0000001.zlog"
    */
   private int extractSegmentNumber(Path path) {
     String name = path.getFileName().toString();
@@ -454,7 +2109,42 @@ public class FileLogStore implements LogStore {
   /**
    * close and cleanup resources
    */
-  public synchronized void close() throws IOException {
-    closeCurrentSegment();
+  public void close() throws IOException {
+    // a compression in flight is abandoned; the segment stays a plain .log
+    if (compressor != null) {
+      compressor.shutdownNow();
+      try {
+        compressor.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    // let the writer drain its queue first; it needs this to do so
+    Thread writer;
+    synchronized (this) {
+      writer = writerThread;
+    }
+    synchronized (syncMonitor) {
+      closing = true;
+      syncMonitor.notifyAll();
+    }
+    if (writer != null) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    synchronized (this) {
+      lockLayout();
+      try {
+        closeCurrentSegment();
+        forgetSealedSegmentsFrom(0);
+      } finally {
+        unlockLayout();
+      }
+    }
   }
 }
@@ -1,6 +1,9 @@
 package org.jraft.state;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import org.jraft.rpc.LogEntry;
 
 public interface LogStore {
@@ -9,4 +12,65 @@ public interface LogStore {
   void append(List<LogEntry> entries);
   void truncateFrom(long index);
   LogEntry entryAt(long index);
+
+  /**
+   * append without waiting for the entries to reach disk. they are readable
+   * as soon as this returns; the future completes with durableIndex() once
+   * they are durable, or exceptionally if the write fails. a truncation in
+   * the meantime can leave durableIndex() below the appended entries.
+   */
+  default CompletableFuture<Long> appendAsync(List<LogEntry> entries) {
+    append(entries);
+    return CompletableFuture.completedFuture(durableIndex());
+  }
+
+  /**
+   * highest index known to be on disk. stores whose append is synchronous
+   * make everything durable before returning.
+   */
+  default long durableIndex() {
+    return lastIndex();
+  }
+
+  /**
+   * first index still stored. everything before it has been compacted away;
+   * termAt(firstIndex() - 1) still answers the term at that boundary.
+   */
+  default long firstIndex() {
+    return 1;
+  }
+
+  /**
+   * discard entries before index (never the last entry). only committed,
+   * applied entries may be dropped. stores may keep more than asked for,
+   * so callers should consult firstIndex() afterwards.
+   */
+  default void truncatePrefix(long index) {}
+
+  /**
+   * entries in [from, toInclusive], stopping before the total serialized size
+   * would pass maxBytes. the first entry is always returned if it exists, so
+   * callers make progress even when a single entry is larger than maxBytes.
+   */
+  default List<LogEntry> entries(long from, long toInclusive, long maxBytes) {
+    List<LogEntry> out = new ArrayList<>();
+    long bytes = 0;
+    for (long i = Math.max(from, 1); i <= Math.min(toInclusive, lastIndex()); i++) {
+      LogEntry e = entryAt(i);
+      if (e == null) break;
+      bytes += e.getSerializedSize();
+      if (!out.isEmpty() && bytes > maxBytes) break;
+      out.add(e);
+    }
+    return out;
+  }
+
+  /**
+   * entries(from, toInclusive, maxBytes), already encoded for an
+   * AppendEntriesRequest. stores that keep entries serialized can hand out
+   * their bytes without parsing and re-serializing them.
+   */
+  default EncodedEntries encodedEntries(long from, long toInclusive, long maxBytes) {
+    return EncodedEntries.of(entries(from, toInclusive, maxBytes));
+  }
 }
@@ -0,0 +1,82 @@
+package org.jraft.state;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * bounded LRU of read-only mappings for sealed log segments.
+ *
+ * a sealed segment never changes on disk until it is truncated or deleted,
+ * so it can be mapped once and served to every reader without syscalls.
+ * callers must invalidate a segment before truncating or deleting its file.
+ *
+ * thread safe: concurrent readers share it. an evicted mapping stays valid
+ * for whoever still holds a view of it.
+ */
+final class MappedSegmentCache {
+  private final int maxSegments;
+  private final Map<Integer, MappedByteBuffer> mappings;
+
+  MappedSegmentCache(int maxSegments) {
+    if (maxSegments <= 0) {
+      throw new IllegalArgumentException("maxSegments must be positive");
+    }
+    this.maxSegments = maxSegments;
+    // access-ordered so iteration starts at the least recently used mapping
+    this.mappings = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * get a read-only view of the whole segment, mapping it on first use.
+   * the returned buffer is a private duplicate, so callers may move its position.
+   */
+  synchronized ByteBuffer get(int segNum, Path path) throws IOException {
+    MappedByteBuffer mapped = mappings.get(segNum);
+    if (mapped == null) {
+      try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ)) {
+        // the mapping stays valid after the channel is closed
+        mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+      }
+      mappings.put(segNum, mapped);
+      evictIfNeeded();
+    }
+    return mapped.duplicate();
+  }
+
+  /**
+   * drop the mapping for one segment (before it is truncated or deleted)
+   */
+  synchronized void invalidate(int segNum) {
+    mappings.remove(segNum);
+  }
+
+  /**
+   * drop mappings for every segment with number >= segNum
+   */
+  synchronized void invalidateFrom(int segNum) {
+    mappings.keySet().removeIf(n -> n >= segNum);
+  }
+
+  synchronized void clear() {
+    mappings.clear();
+  }
+
+  synchronized int size() {
+    return mappings.size();
+  }
+
+  private void evictIfNeeded() {
+    Iterator<Integer> it = mappings.keySet().iterator();
+    while (mappings.size() > maxSegments && it.hasNext()) {
+      it.next();
+      it.remove();
+    }
+  }
+}
@@ -0,0 +1,97 @@
+package org.jraft.state;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * bounded LRU of open read-only channels for sealed log segments, used when
+ * segments are not mapped.
+ *
+ * readers only use positional reads (read(ByteBuffer, position)), which never
+ * move the channel's position, so one channel serves every read of a segment
+ * without seeking. evicted and invalidated channels are closed; callers must
+ * invalidate a segment before truncating, deleting or recycling its file.
+ *
+ * thread safe: concurrent readers share it. evicting a channel closes it
+ * under any reader still using it, which then sees a ClosedChannelException
+ * and should get the channel again.
+ */
+final class SegmentChannelCache {
+  private final int maxSegments;
+  private final Map<Integer, FileChannel> channels;
+
+  SegmentChannelCache(int maxSegments) {
+    if (maxSegments <= 0) {
+      throw new IllegalArgumentException("maxSegments must be positive");
+    }
+    this.maxSegments = maxSegments;
+    // access-ordered so iteration starts at the least recently used channel
+    this.channels = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * the open channel for a segment, opening it on first use (or again, if a
+   * reader's interrupt closed it)
+   */
+  synchronized FileChannel get(int segNum, Path path) throws IOException {
+    FileChannel ch = channels.get(segNum);
+    if (ch == null || !ch.isOpen()) {
+      ch = FileChannel.open(path, StandardOpenOption.READ);
+      channels.put(segNum, ch);
+      evictIfNeeded();
+    }
+    return ch;
+  }
+
+  /**
+   * close the channel for one segment (before it is truncated or deleted)
+   */
+  synchronized void invalidate(int segNum) {
+    closeQuietly(channels.remove(segNum));
+  }
+
+  /**
+   * close channels for every segment with number >= segNum
+   */
+  synchronized void invalidateFrom(int segNum) {
+    Iterator<Map.Entry<Integer, FileChannel>> it = channels.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Integer, FileChannel> e = it.next();
+      if (e.getKey() >= segNum) {
+        closeQuietly(e.getValue());
+        it.remove();
+      }
+    }
+  }
+
+  synchronized void clear() {
+    channels.values().forEach(SegmentChannelCache::closeQuietly);
+    channels.clear();
+  }
+
+  synchronized int size() {
+    return channels.size();
+  }
+
+  private void evictIfNeeded() {
+    Iterator<FileChannel> it = channels.values().iterator();
+    while (channels.size() > maxSegments && it.hasNext()) {
+      closeQuietly(it.next());
+      it.remove();
+    }
+  }
+
+  private static void closeQuietly(FileChannel ch) {
+    if (ch == null) return;
+    try {
+      ch.close();
+    } catch (IOException e) {
+      // read-only: nothing was buffered that closing could lose
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package org.jraft.state;
+
+import java.util.Arrays;
+
+/**
+ * in-memory offset table for one log segment.
+ *
+ * raft indices are dense and contiguous, so entry i of the segment lives at
+ * offsets[i - firstIndex]. lookups are a subtraction and an array read: no
+ * boxing and no per-entry objects.
+ *
+ * alongside the offsets it keeps the segment's term runs: (startIndex, term)
+ * pairs, one per change of term. terms only change on leader changes, so this
+ * stays a handful of entries per segment.
+ *
+ * one writer, any number of readers: add and truncateFrom come from
+ * FileLogStore's writer, lookups may run concurrently with add. add grows the
+ * tables before filling a slot and fills the slot before bumping its count,
+ * all through volatile fields, so a reader that sees an entry counted also
+ * sees its offset and term. truncateFrom is not safe against readers; the
+ * store keeps them out while it runs.
+ */
+final class SegmentIndex {
+  private static final int INITIAL_CAPACITY = 1024;
+  private static final int INITIAL_RUNS = 4;
+
+  final int segmentNumber;
+  final long firstIndex;
+  final int format;  // WalRecord format of the segment's records
+
+  // where the blocks are once a sealed segment has been swapped for its
+  // compressed copy; null while it is a plain .log. offsets are the same either way.
+  volatile CompressedSegment.BlockIndex blocks;
+
+  private volatile long[] offsets;
+  private volatile int count;
+
+  private volatile long[] runStarts;
+  private volatile long[] runTerms;
+  private volatile int runCount;
+
+  SegmentIndex(int segmentNumber, long firstIndex) {
+    this(segmentNumber, firstIndex, WalRecord.CURRENT);
+  }
+
+  SegmentIndex(int segmentNumber, long firstIndex, int format) {
+    this(segmentNumber, firstIndex, format, new long[INITIAL_CAPACITY], 0,
+      new long[INITIAL_RUNS], new long[INITIAL_RUNS], 0);
+  }
+
+  /**
+   * rebuild a segment index from already-known tables (e.g. a sidecar file)
+   */
+  SegmentIndex(int segmentNumber, long firstIndex, int format, long[] offsets, int count,
+               long[] runStarts, long[] runTerms, int runCount) {
+    this.segmentNumber = segmentNumber;
+    this.firstIndex = firstIndex;
+    this.format = format;
+    this.offsets = offsets.length == 0 ? new long[INITIAL_CAPACITY] : offsets;
+    this.count = count;
+    this.runStarts = runStarts.length == 0 ? new long[INITIAL_RUNS] : runStarts;
+    this.runTerms = runTerms.length == 0 ? new long[INITIAL_RUNS] : runTerms;
+    this.runCount = runCount;
+  }
+
+  /**
+   * record the byte offset and term of the next entry (index firstIndex + size())
+   */
+  void add(long offset, long term) {
+    int n = count;
+    if (n == offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    int runs = runCount;
+    if (runs == 0 || runTerms[runs - 1] != term) {
+      if (runs == runStarts.length) {
+        runStarts = Arrays.copyOf(runStarts, runStarts.length * 2);
+        runTerms = Arrays.copyOf(runTerms, runTerms.length * 2);
+      }
+      runStarts[runs] = firstIndex + n;
+      runTerms[runs] = term;
+      runCount = runs + 1;
+    }
+    offsets[n] = offset;
+    count = n + 1;
+  }
+
+  long offsetOf(long index) {
+    return offsets[(int) (index - firstIndex)];
+  }
+
+  boolean contains(long index) {
+    return index >= firstIndex && index < firstIndex + count;
+  }
+
+  /**
+   * last index stored in this segment, or firstIndex - 1 if it is empty
+   */
+  long lastIndex() {
+    return firstIndex + count - 1;
+  }
+
+  /**
+   * term of the last entry, or 0 if the segment is empty
+   */
+  long lastTerm() {
+    return runCount == 0 ? 0 : runTerms[runCount - 1];
+  }
+
+  int size() {
+    return count;
+  }
+
+  /**
+   * bytes in front of each record's payload in this segment
+   */
+  int recordHeaderBytes() {
+    return WalRecord.recordHeaderBytes(format);
+  }
+
+  /**
+   * term of an entry in this segment: binary search over the term runs, no I/O
+   */
+  long termAt(long index) {
+    // count first: the arrays read after it are at least as long
+    int lo = 0;
+    int hi = runCount - 1;
+    long[] starts = runStarts;
+    while (lo < hi) {
+      // find the last run starting at or before index
+      int mid = (lo + hi + 1) >>> 1;
+      if (starts[mid] <= index) {
+        lo = mid;
+      } else {
+        hi = mid - 1;
+      }
+    }
+    return runTerms[lo];
+  }
+
+  int runCount() {
+    return runCount;
+  }
+
+  long runStart(int i) {
+    return runStarts[i];
+  }
+
+  long runTerm(int i) {
+    return runTerms[i];
+  }
+
+  /**
+   * forget every entry >= index
+   */
+  void truncateFrom(long index) {
+    count = (int) Math.max(0, Math.min(count, index - firstIndex));
+    while (runCount > 0 && runStarts[runCount - 1] >= firstIndex + count) {
+      runCount--;
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package org.jraft.state;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * persistent index for a sealed segment, stored next to it as wal-NNNNNNN.idx.
+ *
+ * format (big endian):
+ *   [4 magic][4 version][8 segment bytes]
+ *   [4 record format]               version 2+; version 1 implies legacy records
+ *   [8 first index][4 entry count]
+ *   [4 run count]([8 run start][8 run term])*
+ *   [8 offset]*                     one per entry
+ *   [4 crc32c of everything above]
+ *
+ * the sidecar is only a cache: it is trusted when the checksum matches and the
+ * recorded segment size equals the segment file's size. anything else means
+ * "rescan the segment", so it is written without fsync.
+ */
+final class SegmentSidecar {
+  private static final int MAGIC = 0x52494458;  // "RIDX"
+  private static final int VERSION = 2;
+
+  private SegmentSidecar() {}
+
+  /**
+   * write the sidecar for a sealed segment whose file is segmentBytes long
+   */
+  static void write(Path path, SegmentIndex seg, long segmentBytes) throws IOException {
+    Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    CRC32C crc = new CRC32C();
+    try (OutputStream fos = Files.newOutputStream(tmp);
+         CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fos), crc);
+         DataOutputStream out = new DataOutputStream(checked)) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(segmentBytes);
+      out.writeInt(seg.format);
+      out.writeLong(seg.firstIndex);
+      out.writeInt(seg.size());
+      out.writeInt(seg.runCount());
+      for (int i = 0; i < seg.runCount(); i++) {
+        out.writeLong(seg.runStart(i));
+        out.writeLong(seg.runTerm(i));
+      }
+      for (int i = 0; i < seg.size(); i++) {
+        out.writeLong(seg.offsetOf(seg.firstIndex + i));
+      }
+      out.flush();
+      // the checksum itself must not feed the checksum
+      new DataOutputStream(fos).writeInt((int) crc.getValue());
+    }
+
+    try {
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * load a sidecar, or return null if it is missing, corrupt or was written for
+   * a segment of a different size. callers check that its first index fits.
+   */
+  static SegmentIndex read(Path path, int segNum, long segmentBytes) {
+    CRC32C crc = new CRC32C();
+    try (InputStream fis = Files.newInputStream(path);
+         BufferedInputStream buffered = new BufferedInputStream(fis);
+         DataInputStream in = new DataInputStream(new CheckedInputStream(buffered, crc))) {
+      if (in.readInt() != MAGIC) return null;
+      int version = in.readInt();
+      if (version < 1 || version > VERSION) return null;
+      if (in.readLong() != segmentBytes) return null;
+      // sidecars from before checksummed records only ever described legacy segments
+      int format = version == 1 ? WalRecord.LEGACY : in.readInt();
+      long firstIndex = in.readLong();
+
+      int count = in.readInt();
+      int runCount = in.readInt();
+      // bound the allocations by what the file can actually hold
+      long maxRecords = Files.size(path) / 8;
+      if (count < 0 || runCount < 0 || count > maxRecords || runCount > maxRecords) return null;
+
+      long[] runStarts = new long[runCount];
+      long[] runTerms = new long[runCount];
+      for (int i = 0; i < runCount; i++) {
+        runStarts[i] = in.readLong();
+        runTerms[i] = in.readLong();
+      }
+      long[] offsets = new long[count];
+      for (int i = 0; i < count; i++) {
+        offsets[i] = in.readLong();
+      }
+
+      int expectedCrc = (int) crc.getValue();
+      int storedCrc = new DataInputStream(buffered).readInt();
+      if (storedCrc != expectedCrc) return null;
+
+      return new SegmentIndex(segNum, firstIndex, format, offsets, count, runStarts, runTerms, runCount);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException e) {
+      System.err.println("recovery: ignoring unreadable sidecar " + path.getFileName() + ": " + e.getMessage());
+      return null;
+    }
+  }
+}
@@ -0,0 +1,147 @@
+package org.jraft.state;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.jraft.rpc.LogEntry;
+
+/**
+ * byte-bounded cache of the most recently appended log entries.
+ *
+ * leaders re-read the tail of the log for every follower on every heartbeat;
+ * keeping it in memory means caught-up followers are served without touching
+ * the segments. entries are held as a contiguous run of indices in a ring
+ * buffer and evicted oldest first once the byte budget is exceeded.
+ *
+ * one writer, any number of readers: append and the truncations must come
+ * from one thread at a time (FileLogStore's writer), get and firstIndex may
+ * run concurrently with them. an entry sits in the slot its index maps to, so
+ * a reader checks the index of what it finds: a slot that was evicted, or
+ * reused by a newer entry, reads as a miss.
+ */
+final class TailEntryCache {
+  private final long maxBytes;
+
+  // capacity is a power of two; index & (length - 1) is the slot
+  private volatile AtomicReferenceArray<LogEntry> ring = new AtomicReferenceArray<>(256);
+  private volatile long cachedFrom = Long.MAX_VALUE;  // what firstIndex() reports
+
+  // writer-only state
+  private long firstIndex = 0;  // index of the oldest cached entry
+  private int size = 0;
+  private long bytes = 0;
+
+  TailEntryCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * add the next entry of the log. a gap (e.g. after recovery) restarts the cache.
+   */
+  void append(LogEntry entry) {
+    if (maxBytes <= 0) return;
+    if (size > 0 && entry.getIndex() != firstIndex + size) {
+      clear();
+    }
+    if (size == 0) {
+      firstIndex = entry.getIndex();
+    }
+    if (size == ring.length()) {
+      grow();
+    }
+    ring.set(slot(ring, entry.getIndex()), entry);
+    size++;
+    bytes += entry.getSerializedSize();
+    evict();
+    publish();
+  }
+
+  /**
+   * cached entry at index, or null on a miss
+   */
+  LogEntry get(long index) {
+    AtomicReferenceArray<LogEntry> r = ring;
+    LogEntry entry = r.get(slot(r, index));
+    return entry != null && entry.getIndex() == index ? entry : null;
+  }
+
+  /**
+   * drop every cached entry >= index
+   */
+  void truncateFrom(long index) {
+    while (size > 0 && firstIndex + size - 1 >= index) {
+      int slot = slot(ring, firstIndex + size - 1);
+      bytes -= ring.get(slot).getSerializedSize();
+      ring.set(slot, null);
+      size--;
+    }
+    publish();
+  }
+
+  /**
+   * drop every cached entry < index
+   */
+  void truncatePrefix(long index) {
+    while (size > 0 && firstIndex < index) {
+      dropOldest();
+    }
+    publish();
+  }
+
+  void clear() {
+    for (int i = 0; i < size; i++) {
+      ring.set(slot(ring, firstIndex + i), null);
+    }
+    size = 0;
+    bytes = 0;
+    publish();
+  }
+
+  /**
+   * oldest cached index; every index from here to the log's end is cached.
+   * Long.MAX_VALUE when the cache is empty. a concurrent reader may still
+   * miss on an index past it if the writer evicts it in the meantime.
+   */
+  long firstIndex() {
+    return cachedFrom;
+  }
+
+  long bytes() {
+    return bytes;
+  }
+
+  int size() {
+    return size;
+  }
+
+  private void evict() {
+    // always keep the newest entry, even if it alone exceeds the budget
+    while (bytes > maxBytes && size > 1) {
+      dropOldest();
+    }
+  }
+
+  private void dropOldest() {
+    int slot = slot(ring, firstIndex);
+    bytes -= ring.get(slot).getSerializedSize();
+    ring.set(slot, null);
+    firstIndex++;
+    size--;
+  }
+
+  private void grow() {
+    AtomicReferenceArray<LogEntry> bigger = new AtomicReferenceArray<>(ring.length() * 2);
+    for (int i = 0; i < size; i++) {
+      long index = firstIndex + i;
+      bigger.set(slot(bigger, index), ring.get(slot(ring, index)));
+    }
+    ring = bigger;
+  }
+
+  private void publish() {
+    cachedFrom = size == 0 ? Long.MAX_VALUE : firstIndex;
+  }
+
+  private static int slot(AtomicReferenceArray<LogEntry> ring, long index) {
+    return (int) (index & (ring.length() - 1));
+  }
+}
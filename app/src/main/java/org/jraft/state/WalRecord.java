@@ -0,0 +1,198 @@
+package org.jraft.state;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+
+import org.jraft.rpc.LogEntry;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
+import com.google.protobuf.WireFormat;
+
+/**
+ * on-disk layout of WAL segments and their records.
+ *
+ * format 1 (legacy, no segment header):
+ *   [4 length][protobuf entry]...
+ *
+ * format 2:
+ *   [4 magic][4 version]                           segment header
+ *   [4 length][4 crc32c of the entry][protobuf entry]...
+ *
+ * format 3 (compact):
+ *   [4 magic][4 version]                           segment header
+ *   [4 length][4 crc32c of the payload][8 index][8 term][4 type][data]...
+ *   length covers index through data, so it is never 0 for a real record.
+ *   index and term sit at fixed offsets, and data is the raw command: a
+ *   LogEntry is rebuilt around it without parsing or copying.
+ *
+ * a legacy segment starts with a record length, which can never equal the
+ * magic (it would claim a ~1.4GB record), so the first int tells them apart.
+ * new segments are always written in CURRENT; older ones stay readable.
+ */
+final class WalRecord {
+  static final int LEGACY = 1;
+  static final int CHECKSUMMED = 2;
+  static final int COMPACT = 3;
+  static final int CURRENT = COMPACT;
+
+  // compact payload: fixed fields in front of the data
+  static final int COMPACT_FIXED_BYTES = 20;
+  static final int TYPE_DATA = 0;  // the only entry type so far
+
+  static final int SEGMENT_MAGIC = 0x52574C47;  // "RWLG"
+
+  private static final int INDEX_TAG = LogEntry.INDEX_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_VARINT;
+  private static final int TERM_TAG = LogEntry.TERM_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_VARINT;
+
+  private WalRecord() {}
+
+  /**
+   * bytes in front of the first record of a segment
+   */
+  static int segmentHeaderBytes(int format) {
+    return format == LEGACY ? 0 : 8;
+  }
+
+  /**
+   * bytes in front of each record's payload
+   */
+  static int recordHeaderBytes(int format) {
+    return format == LEGACY ? 4 : 8;
+  }
+
+  static ByteBuffer segmentHeader(int format) {
+    return ByteBuffer.allocate(8).putInt(SEGMENT_MAGIC).putInt(format).flip();
+  }
+
+  /**
+   * format of a segment from its first bytes, or 0 if it is too short to tell
+   * (empty, or torn while its header was being written)
+   */
+  static int detectFormat(ByteBuffer segment) throws IOException {
+    if (segment.remaining() < 4) return 0;
+    if (segment.getInt(segment.position()) != SEGMENT_MAGIC) return LEGACY;
+    if (segment.remaining() < 8) return 0;
+    int version = segment.getInt(segment.position() + 4);
+    if (version != CHECKSUMMED && version != COMPACT) {
+      throw new IOException("unsupported segment format " + version);
+    }
+    return version;
+  }
+
+  static int checksum(ByteBuffer payload) {
+    CRC32C crc = new CRC32C();
+    crc.update(payload.duplicate());
+    return (int) crc.getValue();
+  }
+
+  /**
+   * payload bytes entry takes in a record of this format
+   */
+  static int payloadLength(LogEntry entry, int format) {
+    return format == COMPACT ? COMPACT_FIXED_BYTES + entry.getData().size() : entry.getSerializedSize();
+  }
+
+  /**
+   * serialized size of the LogEntry in a record with this payload length,
+   * without reading it. compact payloads don't hold a protobuf, so its size
+   * is computed from the fields it would carry.
+   */
+  static int entrySize(int format, int payloadLength, long index, long term) {
+    if (format != COMPACT) return payloadLength;
+    int dataLength = payloadLength - COMPACT_FIXED_BYTES;
+    // proto3 leaves zero-valued fields out
+    int size = 0;
+    if (index != 0) size += CodedOutputStream.computeInt64Size(LogEntry.INDEX_FIELD_NUMBER, index);
+    if (term != 0) size += CodedOutputStream.computeInt64Size(LogEntry.TERM_FIELD_NUMBER, term);
+    if (dataLength > 0) {
+      size += CodedOutputStream.computeTagSize(LogEntry.DATA_FIELD_NUMBER)
+        + CodedOutputStream.computeUInt32SizeNoTag(dataLength) + dataLength;
+    }
+    return size;
+  }
+
+  /**
+   * write entry's payload at target's position, advancing it by payloadLength
+   */
+  static void writePayload(LogEntry entry, int format, ByteBuffer target) throws IOException {
+    if (format == COMPACT) {
+      target.putLong(entry.getIndex()).putLong(entry.getTerm()).putInt(TYPE_DATA);
+      entry.getData().copyTo(target);
+      return;
+    }
+    CodedOutputStream out = CodedOutputStream.newInstance(target);
+    entry.writeTo(out);
+    out.flush();
+  }
+
+  /**
+   * rebuild the LogEntry stored in payload. a compact payload on the heap is
+   * a read of its own and is wrapped, not copied. a direct one is a segment
+   * mapping, and its data is copied: a dropped segment's file is recycled
+   * and rewritten while the mapping, and entries read from it, live on.
+   */
+  static LogEntry decode(ByteBuffer payload, int format) throws IOException {
+    if (format != COMPACT) return LogEntry.parseFrom(payload);
+    checkCompact(payload);
+    int p = payload.position();
+    ByteBuffer data = payload.slice(p + COMPACT_FIXED_BYTES, payload.remaining() - COMPACT_FIXED_BYTES);
+    return LogEntry.newBuilder()
+      .setIndex(payload.getLong(p))
+      .setTerm(payload.getLong(p + 8))
+      .setData(data.isDirect() ? ByteString.copyFrom(data) : UnsafeByteOperations.unsafeWrap(data))
+      .build();
+  }
+
+  /**
+   * index and term of a serialized LogEntry
+   */
+  record Position(long index, long term) {}
+
+  /**
+   * index and term of a record payload in the given format
+   */
+  static Position indexAndTerm(ByteBuffer payload, int format) throws IOException {
+    if (format != COMPACT) return indexAndTerm(payload);
+    checkCompact(payload);
+    return new Position(payload.getLong(payload.position()), payload.getLong(payload.position() + 8));
+  }
+
+  private static void checkCompact(ByteBuffer payload) throws InvalidProtocolBufferException {
+    if (payload.remaining() < COMPACT_FIXED_BYTES) {
+      throw new InvalidProtocolBufferException("compact record of " + payload.remaining() + " bytes");
+    }
+    int type = payload.getInt(payload.position() + 16);
+    if (type != TYPE_DATA) {
+      throw new InvalidProtocolBufferException("unknown entry type " + type);
+    }
+  }
+
+  /**
+   * read just the index and term of a serialized LogEntry, skipping its data.
+   * protobuf writes fields in number order, so both come before data.
+   */
+  static Position indexAndTerm(ByteBuffer payload) throws IOException {
+    CodedInputStream in = CodedInputStream.newInstance(payload.duplicate());
+    long index = 0;
+    long term = 0;
+    while (true) {
+      int tag = in.readTag();
+      if (tag == 0 || WireFormat.getTagFieldNumber(tag) > LogEntry.TERM_FIELD_NUMBER) {
+        // end of message, or payload we don't need
+        return new Position(index, term);
+      }
+      if (tag == INDEX_TAG) {
+        index = in.readInt64();
+      } else if (tag == TERM_TAG) {
+        term = in.readInt64();
+      } else if (!in.skipField(tag)) {
+        return new Position(index, term);
+      }
+    }
+  }
+}
@@ -141,6 +141,58 @@ public class FollowerAppendEntriesTest {
     assertEquals(0, fsm.appliedEntries.size(), "no entries should be applied");
   }
 
+  @Test
+  void rejectionReportsConflictingTermAndWhereItStarts() {
+    var state = new TestRaftState();
+    state.setCurrentTerm(5);
+    var log = new MemLog();
+    var fsm = new TrackingStateMachine();
+
+    for (int i = 1; i <= 10; i++) {
+      log.add(i, i <= 3 ? 1 : 3);
+    }
+
+    var req = AppendEntriesRequest.newBuilder()
+        .setTerm(5)
+        .setLeaderId(NodeId.newBuilder().setId("L"))
+        .setPrevLogIndex(8)
+        .setPrevLogTerm(2)
+        .setLeaderCommit(0)
+        .build();
+
+    var resp = FollowerHandlers.onAppendEntries(fsm, log, state, req);
+
+    assertFalse(resp.getSuccess());
+    assertEquals(3, resp.getConflictTerm(), "term held at prevIndex");
+    assertEquals(4, resp.getConflictStartIndex(), "first index of that term");
+  }
+
+  @Test
+  void rejectionFromShortLogReportsItsEnd() {
+    var state = new TestRaftState();
+    state.setCurrentTerm(5);
+    var log = new MemLog();
+    var fsm = new TrackingStateMachine();
+
+    for (int i = 1; i <= 3; i++) {
+      log.add(i, 1);
+    }
+
+    var req = AppendEntriesRequest.newBuilder()
+        .setTerm(5)
+        .setLeaderId(NodeId.newBuilder().setId("L"))
+        .setPrevLogIndex(40)
+        .setPrevLogTerm(4)
+        .setLeaderCommit(0)
+        .build();
+
+    var resp = FollowerHandlers.onAppendEntries(fsm, log, state, req);
+
+    assertFalse(resp.getSuccess());
+    assertEquals(0, resp.getConflictTerm(), "nothing at prevIndex");
+    assertEquals(4, resp.getConflictStartIndex(), "retry right after our last entry");
+  }
+
   @Test
   void onlyAppliesUpToMinOfCommitAndLogLength() {
     var state = new TestRaftState();
@@ -202,4 +254,32 @@ public class FollowerAppendEntriesTest {
     assertEquals(3, fsm.appliedEntries.get(0).getIndex());
     assertEquals(4, fsm.appliedEntries.get(1).getIndex());
   }
+
+  @Test
+  void successWaitsForTheAppendedEntriesToBeDurable() {
+    var state = new TestRaftState();
+    state.setCurrentTerm(5);
+    var log = new MemLog();
+    log.holdSyncs = true;
+    var fsm = new TrackingStateMachine();
+
+    var req = AppendEntriesRequest.newBuilder()
+        .setTerm(5)
+        .setLeaderId(NodeId.newBuilder().setId("L"))
+        .setPrevLogIndex(0)
+        .setPrevLogTerm(0)
+        .setLeaderCommit(0)
+        .addEntries(LogEntry.newBuilder().setIndex(1).setTerm(5))
+        .addEntries(LogEntry.newBuilder().setIndex(2).setTerm(5))
+        .build();
+
+    var resp = FollowerHandlers.onAppendEntriesAsync(fsm, log, state, req);
+
+    assertEquals(2, log.lastIndex(), "entries are in the log right away");
+    assertFalse(resp.isDone(), "no answer before the fsync");
+
+    log.sync();
+    assertTrue(resp.join().getSuccess());
+    assertEquals(2, resp.join().getMatchIndex());
+  }
 }
@@ -8,6 +8,8 @@ import java.util.List;
 
 import org.jraft.rpc.LogEntry;
 import org.jraft.test.TestHelpers.MemLog;
+import org.jraft.test.TestHelpers.TestRaftState;
+import org.jraft.test.TestHelpers.TrackingStateMachine;
 import org.junit.jupiter.api.Test;
 
 final class RaftAlgorithmsTest {
@@ -80,4 +82,89 @@ final class RaftAlgorithmsTest {
         assertEquals(4, log.termAt(5));
         assertEquals(4, log.termAt(6));
     }
+
+    @Test
+    void applyCommitted_appliesUpToCommitIndexInOrder() {
+        var log = new MemLog();
+        for (int i = 1; i <= 10; i++) log.add(i, 1);
+        var state = new TestRaftState();
+        var fsm = new TrackingStateMachine();
+
+        state.setCommitIndex(7);
+        RaftAlgorithms.applyCommitted(log, state, fsm);
+        assertEquals(7, state.getLastApplied());
+        assertEquals(7, fsm.appliedEntries.size());
+
+        state.setCommitIndex(10);
+        RaftAlgorithms.applyCommitted(log, state, fsm);
+        assertEquals(10, state.getLastApplied());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i + 1, fsm.appliedEntries.get(i).getIndex());
+        }
+    }
+
+    @Test
+    void memLogEntries_respectsRangeAndByteBudget() {
+        var log = new MemLog();
+        for (int i = 1; i <= 10; i++) log.add(i, 1, com.google.protobuf.ByteString.copyFromUtf8("x".repeat(50)));
+        long perEntry = log.entryAt(1).getSerializedSize();
+
+        assertEquals(4, log.entries(3, 6, Long.MAX_VALUE).size());
+        assertEquals(3, log.entries(1, 10, perEntry * 3).size());
+        // a too-small budget still yields one entry
+        assertEquals(1, log.entries(5, 10, 1).size());
+        assertTrue(log.entries(11, 20, Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void applyLogPatch_skipsEntriesBelowCompactionPoint() {
+        var log = new MemLog();
+        for (int i = 1; i <= 6; i++) log.add(i, i <= 3 ? 1 : 2);
+        log.truncatePrefix(5);
+        assertEquals(5, log.firstIndex());
+        assertEquals(2, log.termAt(4));
+
+        // leader still thinks we are at 2: the compacted part is accepted as-is
+        var res = RaftAlgorithms.applyLogPatch(log, 2, 1, List.of(
+            LogEntry.newBuilder().setIndex(3).setTerm(1).build(),
+            LogEntry.newBuilder().setIndex(4).setTerm(2).build(),
+            LogEntry.newBuilder().setIndex(5).setTerm(2).build(),
+            LogEntry.newBuilder().setIndex(6).setTerm(3).build(),
+            LogEntry.newBuilder().setIndex(7).setTerm(3).build()));
+        assertTrue(res.accepted());
+        assertEquals(7, res.lastNewIndex());
+        assertEquals(3, log.termAt(6));
+        assertEquals(7, log.lastIndex());
+
+        // a patch that lies entirely below the boundary is a no-op match
+        var below = RaftAlgorithms.applyLogPatch(log, 1, 1, List.of(
+            LogEntry.newBuilder().setIndex(2).setTerm(1).build()));
+        assertTrue(below.accepted());
+        assertEquals(2, below.lastNewIndex());
+        assertEquals(7, log.lastIndex());
+    }
+
+    @Test
+    void termRunBoundaries_foundByBinarySearch() {
+        var log = new MemLog();
+        for (int i = 1; i <= 20; i++) log.add(i, i <= 5 ? 1 : i <= 12 ? 3 : 4);
+
+        assertEquals(1, RaftAlgorithms.firstIndexOfTerm(log, 5));
+        assertEquals(6, RaftAlgorithms.firstIndexOfTerm(log, 6));
+        assertEquals(6, RaftAlgorithms.firstIndexOfTerm(log, 12));
+        assertEquals(13, RaftAlgorithms.firstIndexOfTerm(log, 20));
+
+        assertEquals(5, RaftAlgorithms.lastIndexOfTerm(log, 1, 20));
+        assertEquals(12, RaftAlgorithms.lastIndexOfTerm(log, 3, 20));
+        assertEquals(9, RaftAlgorithms.lastIndexOfTerm(log, 3, 9));
+        assertEquals(0, RaftAlgorithms.lastIndexOfTerm(log, 2, 20), "no entry of term 2");
+        assertEquals(0, RaftAlgorithms.lastIndexOfTerm(log, 4, 12), "term 4 starts past upTo");
+        assertEquals(20, RaftAlgorithms.lastIndexOfTerm(log, 4, 99));
+
+        // a run that began before the compaction point starts at firstIndex
+        log.truncatePrefix(8);
+        assertEquals(8, RaftAlgorithms.firstIndexOfTerm(log, 10));
+        assertEquals(12, RaftAlgorithms.lastIndexOfTerm(log, 3, 20));
+        assertEquals(0, RaftAlgorithms.lastIndexOfTerm(log, 1, 20), "compacted away");
+    }
 }
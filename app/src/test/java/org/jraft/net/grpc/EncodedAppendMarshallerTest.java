@@ -0,0 +1,52 @@
+package org.jraft.net.grpc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import org.jraft.rpc.AppendEntriesRequest;
+import org.jraft.rpc.LogEntry;
+import org.jraft.state.EncodedEntries;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.ByteString;
+
+import io.grpc.Drainable;
+
+/**
+ * tests for the pre-encoded AppendEntries marshaller
+ */
+public class EncodedAppendMarshallerTest {
+
+  private static final AppendEntriesRequest HEADER = AppendEntriesRequest.newBuilder()
+    .setTerm(3).setPrevLogIndex(6).setPrevLogTerm(2).setLeaderCommit(5).build();
+
+  private static final List<LogEntry> ENTRIES = List.of(
+    LogEntry.newBuilder().setIndex(7).setTerm(3).setData(ByteString.copyFromUtf8("x".repeat(5000))).build(),
+    LogEntry.newBuilder().setIndex(8).setTerm(3).build());
+
+  @Test
+  void testDrainedBytesParseAsTheFullRequest() throws IOException {
+    InputStream stream = EncodedAppendMarshaller.INSTANCE.stream(
+      new EncodedAppendMarshaller.Request(HEADER, EncodedEntries.of(ENTRIES)));
+    int length = stream.available();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    assertEquals(length, ((Drainable) stream).drainTo(out));
+    assertEquals(length, out.size());
+    assertEquals(HEADER.toBuilder().addAllEntries(ENTRIES).build(), AppendEntriesRequest.parseFrom(out.toByteArray()));
+    assertEquals(0, stream.available());
+  }
+
+  @Test
+  void testReadingFallsBackToCopy() throws IOException {
+    InputStream stream = EncodedAppendMarshaller.INSTANCE.stream(
+      new EncodedAppendMarshaller.Request(HEADER, EncodedEntries.of(ENTRIES)));
+
+    AppendEntriesRequest parsed = EncodedAppendMarshaller.INSTANCE.parse(stream).header();
+    assertEquals(HEADER.toBuilder().addAllEntries(ENTRIES).build(), parsed);
+  }
+}
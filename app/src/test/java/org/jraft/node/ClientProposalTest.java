@@ -2,7 +2,6 @@ package org.jraft.node;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.HashMap;
 import java.util.List;
@@ -307,7 +306,7 @@ public class ClientProposalTest {
   }
 
   @Test
-  void proposedEntryIncludedInSubsequentHeartbeats() {
+  void proposedEntryNotResentByHeartbeatsWhileInFlight() {
     state.setCurrentTerm(2);
     state.becomeLeader();
 
@@ -316,15 +315,18 @@ public class ClientProposalTest {
 
     // Propose
     node.propose("test".getBytes());
+    assertEquals(1, net.lastAE.get("n2").getEntriesCount(), "propose should send the entry");
 
     // Clear previous AppendEntries
     net.lastAE.clear();
 
-    // Subsequent heartbeat should include the entry
+    // the request carrying the entry is still unanswered: the heartbeat
+    // keeps n2's timer reset without sending it a second time
     node.sendHeartbeats();
 
     AppendEntriesRequest req = net.lastAE.get("n2");
     assertNotNull(req);
-    assertTrue(req.getEntriesCount() > 0, "heartbeat should include unacknowledged entries");
+    assertEquals(0, req.getEntriesCount(), "heartbeat should not resend entries in flight");
+    assertEquals(0, req.getPrevLogIndex(), "heartbeat anchors at what n2 acknowledged");
   }
 }
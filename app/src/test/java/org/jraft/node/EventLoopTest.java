@@ -0,0 +1,180 @@
+package org.jraft.node;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.jraft.Msg;
+import org.jraft.rpc.RequestVoteRequest;
+import org.jraft.rpc.RequestVoteResponse;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the event loop that runs a raft node.
+ *
+ * Key behavior tested:
+ * - Messages are handled one at a time, in the order they were posted
+ * - A message posted while one is being handled waits its turn
+ * - await returns once its message has been handled
+ * - Idle work runs when the queue runs dry, honouring the wait it asks for
+ * - A message that fails to be handled fails the future it carries
+ */
+public class EventLoopTest {
+
+  /**
+   * records what it handles; a LogDurable posts another one from inside the loop
+   */
+  private static class Recorder implements EventLoop.Handler {
+    final List<Msg> handled = new ArrayList<>();
+    final List<Boolean> idles = new ArrayList<>();
+    EventLoop loop;
+    long idleWaitNanos = Long.MAX_VALUE;
+
+    @Override
+    public synchronized void handle(Msg msg) {
+      handled.add(msg);
+      if (msg instanceof Msg.LogDurable d && d.index() > 0) {
+        loop.post(new Msg.LogDurable(d.index() - 1));
+        handled.add(new Msg.TickHeartbeat());
+      }
+      if (msg instanceof Msg.Barrier b) b.done().complete(null);
+    }
+
+    @Override
+    public synchronized long onIdle(boolean canWait) {
+      idles.add(canWait);
+      long wait = idleWaitNanos;
+      idleWaitNanos = Long.MAX_VALUE;
+      return wait;
+    }
+
+    @Override
+    public void onFailure(RuntimeException e) {
+    }
+
+    synchronized List<Msg> handled() {
+      return new ArrayList<>(handled);
+    }
+  }
+
+  @Test
+  void onCallerHandlesEverythingBeforePostReturns() {
+    EventLoop loop = EventLoop.onCaller();
+    Recorder recorder = new Recorder();
+    recorder.loop = loop;
+    loop.start(recorder);
+
+    loop.post(new Msg.TickElection());
+    assertEquals(List.of(new Msg.TickElection()), recorder.handled());
+    assertEquals(List.of(false), recorder.idles, "nothing lingers on the caller");
+
+    // posted from inside the loop: handled after the current message, not within it
+    loop.post(new Msg.LogDurable(1));
+    assertEquals(List.of(new Msg.TickElection(), new Msg.LogDurable(1), new Msg.TickHeartbeat(),
+      new Msg.LogDurable(0)), recorder.handled());
+  }
+
+  @Test
+  void onThreadKeepsPostingOrder() throws Exception {
+    EventLoop loop = EventLoop.onThread("test-loop");
+    Recorder recorder = new Recorder();
+    recorder.loop = loop;
+    loop.start(recorder);
+
+    List<Msg> posted = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      Msg msg = new Msg.LogDurable(-i);
+      posted.add(msg);
+      loop.post(msg);
+    }
+    loop.await(new Msg.TickHeartbeat());
+    posted.add(new Msg.TickHeartbeat());
+
+    List<Msg> handled = recorder.handled();
+    handled.removeIf(m -> m instanceof Msg.Barrier);
+    assertEquals(posted, handled);
+  }
+
+  @Test
+  void awaitFromTheLoopIsRefused() throws Exception {
+    EventLoop loop = EventLoop.onThread("test-loop");
+    var failure = new CompletableFuture<Throwable>();
+    loop.start(new EventLoop.Handler() {
+      @Override
+      public void handle(Msg msg) {
+        if (msg instanceof Msg.TickElection) {
+          failure.complete(assertThrows(IllegalStateException.class, () -> loop.await(new Msg.TickHeartbeat())));
+        }
+      }
+
+      @Override
+      public long onIdle(boolean canWait) {
+        return Long.MAX_VALUE;
+      }
+
+      @Override
+      public void onFailure(RuntimeException e) {
+      }
+    });
+
+    loop.post(new Msg.TickElection());
+    assertTrue(failure.get(5, TimeUnit.SECONDS) instanceof IllegalStateException);
+  }
+
+  @Test
+  void aFailedMessageFailsItsReply() {
+    EventLoop loop = EventLoop.onCaller();
+    List<RuntimeException> failures = new ArrayList<>();
+    loop.start(new EventLoop.Handler() {
+      @Override
+      public void handle(Msg msg) {
+        throw new IllegalStateException("failed to persist term change");
+      }
+
+      @Override
+      public long onIdle(boolean canWait) {
+        return Long.MAX_VALUE;
+      }
+
+      @Override
+      public void onFailure(RuntimeException e) {
+        failures.add(e);
+      }
+    });
+
+    var reply = new CompletableFuture<RequestVoteResponse>();
+    loop.post(new Msg.RpcVoteReq(RequestVoteRequest.getDefaultInstance(), reply));
+
+    CompletionException e = assertThrows(CompletionException.class, reply::join);
+    assertEquals("failed to persist term change", e.getCause().getMessage());
+    assertEquals(1, failures.size());
+  }
+
+  @Test
+  void idleWorkRunsAgainAfterTheWaitItAskedFor() throws Exception {
+    EventLoop loop = EventLoop.onThread("test-loop");
+    CountDownLatch secondIdle = new CountDownLatch(2);
+    Recorder recorder = new Recorder() {
+      @Override
+      public synchronized long onIdle(boolean canWait) {
+        long wait = super.onIdle(canWait);
+        secondIdle.countDown();
+        return wait;
+      }
+    };
+    recorder.loop = loop;
+    recorder.idleWaitNanos = TimeUnit.MILLISECONDS.toNanos(20);
+    loop.start(recorder);
+
+    loop.post(new Msg.TickElection());
+    assertTrue(secondIdle.await(5, TimeUnit.SECONDS), "the loop should wake up on its own");
+    assertTrue(recorder.idles.get(0), "a loop thread may linger");
+  }
+}
@@ -1,18 +1,24 @@
 package org.jraft.node;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 
+import org.jraft.core.StateMachine;
 import org.jraft.core.util.FakeRepeatingTask;
 import org.jraft.net.RaftTransport;
 import org.jraft.rpc.AppendEntriesRequest;
 import org.jraft.rpc.AppendEntriesResponse;
+import org.jraft.rpc.LogEntry;
 import org.jraft.rpc.RequestVoteRequest;
 import org.jraft.rpc.RequestVoteResponse;
+import org.jraft.state.RaftState;
 import org.jraft.test.TestHelpers.MemLog;
 import org.jraft.test.TestHelpers.TestRaftState;
 import org.jraft.test.TestHelpers.TrackingStateMachine;
@@ -298,4 +304,85 @@ public class LeaderCommitTest {
 
     assertEquals(0, state.getCommitIndex(), "follower should not advance commitIndex on its own");
   }
+
+  @Test
+  void leaderCountsItselfOnlyOnceItsOwnAppendIsDurable() {
+    state.setCurrentTerm(1);
+    state.becomeLeader();
+    node.nextIndex.put("n2", 1L);
+    node.nextIndex.put("n3", 1L);
+    log.holdSyncs = true;
+
+    long index = node.propose(new byte[] {1});
+
+    // replication went out while the leader's fsync is still pending
+    assertEquals(1, net.lastAE.get("n2").getEntriesCount());
+    net.respondAE("n2", 1, true, index);
+    assertEquals(0, state.getCommitIndex(), "one follower alone is not a majority");
+
+    // the leader's own write lands: n1 + n2 is a majority
+    log.sync();
+    assertEquals(index, state.getCommitIndex());
+    assertEquals(1, fsm.appliedEntries.size());
+  }
+
+  @Test
+  void followersAloneCanCommitBeforeLeaderIsDurable() {
+    state.setCurrentTerm(1);
+    state.becomeLeader();
+    node.nextIndex.put("n2", 1L);
+    node.nextIndex.put("n3", 1L);
+    log.holdSyncs = true;
+
+    long index = node.propose(new byte[] {1});
+    net.respondAE("n2", 1, true, index);
+    net.respondAE("n3", 1, true, index);
+
+    assertEquals(index, state.getCommitIndex(), "two durable followers are a majority of three");
+  }
+
+  @Test
+  void leaderStepsDownWhenItsOwnFsyncFails() {
+    state.setCurrentTerm(1);
+    state.setVotedFor(self);
+    state.becomeLeader();
+    node.nextIndex.put("n2", 1L);
+    node.nextIndex.put("n3", 1L);
+    log.holdSyncs = true;
+
+    node.propose(new byte[] {1});
+    log.failSyncs(new IllegalStateException("fsync failed"));
+
+    assertEquals(RaftState.Role.FOLLOWER, state.getRole(), "a leader that can't persist its log can't lead");
+    assertEquals(1, state.getCurrentTerm());
+    assertEquals(self, state.getVotedFor(), "the vote cast this term stands");
+    assertEquals(0, state.getCommitIndex());
+  }
+
+  @Test
+  void compactionNeverDropsEntriesNotYetAppliedOrSnapshotted() {
+    StateMachine snapshotting = new StateMachine() {
+      @Override public ApplyResult apply(LogEntry e) { return new ApplyResult(e.getIndex(), true, new byte[0], false); }
+      @Override public long snapshotIndex() { return 4; }
+    };
+    RaftNode node = new RaftNode(self, peers, state, log, net, snapshotting, heartbeatTask, electionTimer);
+    for (int i = 1; i <= 6; i++) log.add(i, 1);
+
+    state.setLastApplied(3);
+    assertEquals(4L, node.compactLog(10).join(), "stops after the last applied entry");
+
+    state.setLastApplied(6);
+    assertEquals(5L, node.compactLog(10).join(), "stops after the snapshot");
+    assertEquals(6, log.lastIndex());
+  }
+
+  @Test
+  void compactionIsRefusedWithoutASnapshot() {
+    for (int i = 1; i <= 5; i++) log.add(i, 1);
+    state.setLastApplied(5);
+
+    CompletionException e = assertThrows(CompletionException.class, () -> node.compactLog(4).join());
+    assertTrue(e.getCause() instanceof UnsupportedOperationException);
+    assertEquals(1, log.firstIndex(), "nothing dropped");
+  }
 }
@@ -8,6 +8,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
 
+import org.jraft.core.FollowerHandlers;
 import org.jraft.core.util.FakeRepeatingTask;
 import org.jraft.net.RaftTransport;
 import org.jraft.rpc.AppendEntriesRequest;
@@ -32,6 +33,7 @@ import com.google.protobuf.ByteString;
  * - Multiple entries batched in single RPC
  * - nextIndex and matchIndex updated correctly on success
  * - Leader backs off nextIndex on failure and retries
+ * - Conflict hints from the follower skip whole terms
  */
 public class LeaderReplicationTest {
 
@@ -60,6 +62,15 @@ public class LeaderReplicationTest {
       }
     }
 
+    void respondConflict(String peerId, long term, long conflictTerm, long conflictStartIndex) {
+      aeCb.get(peerId).accept(AppendEntriesResponse.newBuilder()
+          .setTerm(term)
+          .setSuccess(false)
+          .setConflictTerm(conflictTerm)
+          .setConflictStartIndex(conflictStartIndex)
+          .build());
+    }
+
     void clear() {
       lastAE.clear();
       aeCb.clear();
@@ -344,4 +355,95 @@ public class LeaderReplicationTest {
     assertEquals(5, req.getTerm(), "AppendEntries term should match current term");
     assertEquals(5, req.getEntries(0).getTerm(), "entry term should match current term");
   }
+
+  @Test
+  void conflictHintSkipsPastTermsTheLeaderLacks() {
+    for (int i = 1; i <= 20; i++) log.add(i, i <= 5 ? 1 : 4);
+
+    state.setCurrentTerm(5);
+    state.becomeLeader();
+    node.nextIndex.put("n2", 21L);
+    node.matchIndex.put("n2", 0L);
+    node.nextIndex.put("n3", 21L);
+    node.matchIndex.put("n3", 0L);
+
+    node.sendHeartbeats();
+    // n2 holds term 3 at 20, starting at 8: the leader has no term 3
+    net.respondConflict("n2", 5, 3, 8);
+
+    assertEquals(8L, node.nextIndex.get("n2"));
+    assertEquals(7, net.lastAE.get("n2").getPrevLogIndex());
+  }
+
+  @Test
+  void conflictHintResumesAfterTheLeadersLastEntryOfThatTerm() {
+    for (int i = 1; i <= 20; i++) log.add(i, i <= 5 ? 1 : i <= 10 ? 2 : 4);
+
+    state.setCurrentTerm(5);
+    state.becomeLeader();
+    node.nextIndex.put("n2", 21L);
+    node.matchIndex.put("n2", 0L);
+    node.nextIndex.put("n3", 21L);
+    node.matchIndex.put("n3", 0L);
+
+    node.sendHeartbeats();
+    // n2's term 2 run starts at 6 like ours, but it has more of it
+    net.respondConflict("n2", 5, 2, 6);
+    assertEquals(11L, node.nextIndex.get("n2"), "logs agree up to our last term 2 entry");
+
+    // a short log: n2 ends at 10
+    net.respondConflict("n2", 5, 0, 11);
+    assertEquals(10L, node.nextIndex.get("n2"), "always left of the rejected request");
+  }
+
+  @Test
+  void successUsesTheMatchIndexTheFollowerReports() {
+    for (int i = 1; i <= 5; i++) log.add(i, 1);
+
+    state.setCurrentTerm(2);
+    state.becomeLeader();
+    node.nextIndex.put("n2", 1L);
+    node.matchIndex.put("n2", 0L);
+    node.nextIndex.put("n3", 1L);
+    node.matchIndex.put("n3", 0L);
+
+    node.sendHeartbeats();
+    net.aeCb.get("n2").accept(AppendEntriesResponse.newBuilder()
+        .setTerm(2).setSuccess(true).setMatchIndex(3).build());
+
+    assertEquals(3L, node.matchIndex.get("n2"));
+    assertEquals(4L, node.nextIndex.get("n2"));
+  }
+
+  @Test
+  void divergentFollowerConvergesInARoundTripPerTerm() {
+    // leader: term 1 to 3, term 2 to 50, term 4 to 60
+    for (int i = 1; i <= 60; i++) log.add(i, i <= 3 ? 1 : i <= 50 ? 2 : 4);
+
+    // follower: the same to 10, then a long uncommitted term 3 suffix
+    var flog = new MemLog();
+    for (int i = 1; i <= 1000; i++) flog.add(i, i <= 3 ? 1 : i <= 10 ? 2 : 3);
+    var fstate = new TestRaftState();
+    fstate.setCurrentTerm(3);
+
+    state.setCurrentTerm(5);
+    state.becomeLeader();
+    node.nextIndex.put("n2", 61L);
+    node.matchIndex.put("n2", 0L);
+    node.nextIndex.put("n3", 61L);
+    node.matchIndex.put("n3", 0L);
+
+    node.sendHeartbeats();
+    int rounds = 0;
+    while (node.matchIndex.get("n2") < 60 && rounds < 100) {
+      var resp = FollowerHandlers.onAppendEntries(new TrackingStateMachine(), flog, fstate, net.lastAE.get("n2"));
+      net.aeCb.get("n2").accept(resp);
+      rounds++;
+    }
+
+    assertEquals(60L, node.matchIndex.get("n2"));
+    assertEquals(2, rounds, "one rejection skipping the term 3 suffix, then a match");
+    assertEquals(60, flog.lastIndex());
+    assertEquals(4, flog.termAt(60));
+  }
 }
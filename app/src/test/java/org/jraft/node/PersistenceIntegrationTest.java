@@ -3,6 +3,8 @@ package org.jraft.node;
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
@@ -18,8 +20,10 @@ import org.jraft.kv.Put;
 import org.jraft.net.RaftTransport;
 import org.jraft.rpc.AppendEntriesRequest;
 import org.jraft.rpc.AppendEntriesResponse;
+import org.jraft.rpc.LogEntry;
 import org.jraft.rpc.RequestVoteRequest;
 import org.jraft.rpc.RequestVoteResponse;
+import org.jraft.state.FileLogStore;
 import org.jraft.state.RaftState;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -104,6 +108,7 @@ public class PersistenceIntegrationTest {
 
     byte[] cmd = makeCommand("client-1", 1, "key", "value");
     node1.propose(cmd);
+    awaitDurable(node1, 1);
 
     node1.getRaftState().setCommitIndex(1);
     kv1.apply(node1.getLog().entryAt(1));
@@ -165,6 +170,7 @@ public class PersistenceIntegrationTest {
 
     // verify entries in log
     assertEquals(3, node1.getLog().lastIndex());
+    awaitDurable(node1, 3);
 
     // phase 2: simulate crash
     node1 = null;
@@ -271,6 +277,7 @@ public class PersistenceIntegrationTest {
     node1.propose(cmd1);
 
     assertEquals(1, node1.getLog().lastIndex());
+    awaitDurable(node1, 1);
 
     // phase 2: crash and recover
     node1 = null;
@@ -331,6 +338,34 @@ public class PersistenceIntegrationTest {
 
   // --- helper methods ---
 
+  /**
+   * a compacted log can't rebuild the state machine by replay: without a
+   * snapshot the node must refuse to start rather than serve partial state
+   */
+  @Test
+  void testCompactedLogWithoutSnapshotFailsRecovery() throws IOException {
+    Path dataDir = tempDir.resolve("node1");
+    FileLogStore log = new FileLogStore(dataDir.resolve("log"), 1024);
+    for (int i = 1; i <= 20; i++) {
+      log.append(List.of(LogEntry.newBuilder()
+        .setIndex(i)
+        .setTerm(1)
+        .setData(ByteString.copyFromUtf8("x".repeat(300)))
+        .build()));
+    }
+    log.truncatePrefix(9);
+    log.close();
+
+    IOException e = assertThrows(IOException.class, () -> RaftNodeFactory.create(
+      "n1",
+      List.of("n2", "n3"),
+      dataDir,
+      new KvStateMachine(),
+      new FakeTransport()
+    ));
+    assertTrue(e.getMessage().contains("no snapshot"));
+  }
+
   private byte[] makeCommand(String clientId, long opId, String key, String value) {
     return Command.newBuilder()
       .setClientId(clientId)
@@ -342,6 +377,20 @@ public class PersistenceIntegrationTest {
       .toByteArray();
   }
 
+  /**
+   * propose returns before the leader's fsync; wait for it so a simulated
+   * crash doesn't lose entries that were never durable
+   */
+  private void awaitDurable(RaftNode node, long index) {
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (node.getLog().durableIndex() < index) {
+      if (System.currentTimeMillis() > deadline) {
+        throw new AssertionError("index " + index + " never became durable");
+      }
+      Thread.onSpinWait();
+    }
+  }
+
   /**
    * fake transport that captures sent messages for verification
    */
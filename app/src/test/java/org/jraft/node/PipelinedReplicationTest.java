@@ -0,0 +1,278 @@
+package org.jraft.node;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.jraft.core.util.FakeRepeatingTask;
+import org.jraft.metrics.RaftMetrics;
+import org.jraft.net.RaftTransport;
+import org.jraft.rpc.AppendEntriesRequest;
+import org.jraft.rpc.AppendEntriesResponse;
+import org.jraft.rpc.RequestVoteRequest;
+import org.jraft.rpc.RequestVoteResponse;
+import org.jraft.test.TestHelpers.MemLog;
+import org.jraft.test.TestHelpers.TestRaftState;
+import org.jraft.test.TestHelpers.TrackingStateMachine;
+import org.jraft.util.FakeElectionTimer;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Tests for pipelined replication: several AppendEntries in flight per peer.
+ *
+ * Key behavior tested:
+ * - New entries go out behind unacknowledged ones, each sent once
+ * - A full window holds further entries until a response frees a slot
+ * - Responses may arrive in any order; stale ones never move matchIndex back
+ * - A rejection overtaking an earlier request does not back off
+ * - A genuine rejection voids everything sent after it
+ * - Requests with no answer in time are sent again
+ * - Catch-up goes out as a stream of batches bounded in entries and bytes
+ */
+public class PipelinedReplicationTest {
+
+  private static class FakeTransport implements RaftTransport {
+    final Map<String, List<AppendEntriesRequest>> sent = new HashMap<>();
+    final Map<String, List<Consumer<AppendEntriesResponse>>> callbacks = new HashMap<>();
+
+    @Override
+    public void requestVote(String peerId, RequestVoteRequest req, Consumer<RequestVoteResponse> cb) {
+      // Not used
+    }
+
+    @Override
+    public void appendEntries(String peerId, AppendEntriesRequest req, Consumer<AppendEntriesResponse> cb) {
+      sent.computeIfAbsent(peerId, k -> new ArrayList<>()).add(req);
+      callbacks.computeIfAbsent(peerId, k -> new ArrayList<>()).add(cb);
+    }
+
+    List<AppendEntriesRequest> sent(String peerId) {
+      return sent.getOrDefault(peerId, List.of());
+    }
+
+    void respond(String peerId, int request, long term, boolean success) {
+      callbacks.get(peerId).get(request).accept(AppendEntriesResponse.newBuilder()
+          .setTerm(term)
+          .setSuccess(success)
+          .build());
+    }
+  }
+
+  private final TestRaftState state = new TestRaftState();
+  private final MemLog log = new MemLog();
+  private final FakeTransport net = new FakeTransport();
+  private final RaftMetrics metrics = new RaftMetrics();
+
+  private RaftNode leader(RaftNode.ReplicationOptions options) {
+    RaftNode node = new RaftNode("n1", List.of("n2", "n3"), state, log, net, new TrackingStateMachine(),
+      new FakeRepeatingTask(), new FakeElectionTimer(), 150, 300, 50, metrics, options);
+    state.setCurrentTerm(2);
+    state.becomeLeader();
+    for (String p : List.of("n2", "n3")) {
+      node.nextIndex.put(p, log.lastIndex() + 1);
+      node.matchIndex.put(p, 0L);
+    }
+    return node;
+  }
+
+  @Test
+  void proposalsGoOutBehindUnacknowledgedOnes() {
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults());
+
+    node.propose("a".getBytes());
+    node.propose("b".getBytes());
+    node.propose("c".getBytes());
+
+    List<AppendEntriesRequest> sent = net.sent("n2");
+    assertEquals(3, sent.size(), "each proposal should go out without waiting");
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, sent.get(i).getPrevLogIndex());
+      assertEquals(1, sent.get(i).getEntriesCount(), "no entry should be sent twice");
+      assertEquals(i + 1, sent.get(i).getEntries(0).getIndex());
+    }
+    assertEquals(1L, node.nextIndex.get("n2"), "nextIndex only moves on acknowledgements");
+  }
+
+  @Test
+  void fullWindowHoldsEntriesUntilASlotFrees() {
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults().withMaxInFlight(2));
+
+    node.propose("a".getBytes());
+    node.propose("b".getBytes());
+    node.propose("c".getBytes());
+    assertEquals(2, net.sent("n2").size(), "at most two requests in flight");
+
+    net.respond("n2", 0, 2, true);
+
+    List<AppendEntriesRequest> sent = net.sent("n2");
+    assertEquals(3, sent.size(), "an acknowledgement should free a slot");
+    assertEquals(2, sent.get(2).getPrevLogIndex());
+    assertEquals(3, sent.get(2).getEntries(0).getIndex());
+  }
+
+  @Test
+  void responsesOutOfOrderNeverMoveMatchIndexBack() {
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults());
+
+    node.propose("a".getBytes());
+    node.propose("b".getBytes());
+    node.propose("c".getBytes());
+
+    net.respond("n2", 2, 2, true);
+    assertEquals(3L, node.matchIndex.get("n2"));
+    assertEquals(4L, node.nextIndex.get("n2"));
+    assertEquals(3, state.getCommitIndex(), "n1 and n2 are a majority");
+
+    net.respond("n2", 0, 2, true);
+    net.respond("n2", 1, 2, true);
+    net.respond("n2", 1, 2, true);
+    assertEquals(3L, node.matchIndex.get("n2"), "older and duplicate responses are stale");
+    assertEquals(4L, node.nextIndex.get("n2"));
+    assertEquals(3, net.sent("n2").size(), "nothing left to send");
+  }
+
+  @Test
+  void rejectionOvertakingAnEarlierRequestDoesNotBackOff() {
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults());
+
+    node.propose("a".getBytes());
+    node.propose("b".getBytes());
+
+    // the second request got there first and didn't find entry 1
+    net.respond("n2", 1, 2, false);
+    assertEquals(1L, node.nextIndex.get("n2"), "an earlier request is still in flight");
+    assertEquals(2, net.sent("n2").size());
+
+    // once the first lands, entry 2 is sent again behind it
+    net.respond("n2", 0, 2, true);
+    assertEquals(1L, node.matchIndex.get("n2"));
+    List<AppendEntriesRequest> sent = net.sent("n2");
+    assertEquals(3, sent.size());
+    assertEquals(1, sent.get(2).getPrevLogIndex());
+    assertEquals(2, sent.get(2).getEntries(0).getIndex());
+  }
+
+  @Test
+  void rejectionVoidsEverythingSentAfterIt() {
+    log.add(1, 1);
+    log.add(2, 1);
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults());
+
+    node.propose("a".getBytes());
+    node.propose("b".getBytes());
+
+    // n2's log doesn't match at 2: back off and resend from 2 on
+    net.respond("n2", 0, 2, false);
+    assertEquals(2L, node.nextIndex.get("n2"));
+    List<AppendEntriesRequest> sent = net.sent("n2");
+    assertEquals(3, sent.size());
+    assertEquals(1, sent.get(2).getPrevLogIndex());
+    assertEquals(3, sent.get(2).getEntriesCount(), "the retry carries the voided entries too");
+
+    // the second request was voided with the first: its answer changes nothing
+    net.respond("n2", 1, 2, false);
+    assertEquals(2L, node.nextIndex.get("n2"));
+    assertEquals(3, net.sent("n2").size());
+  }
+
+  @Test
+  void unansweredRequestsAreSentAgainAfterTheTimeout() throws InterruptedException {
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults().withInFlightTimeoutMs(1));
+
+    node.propose("a".getBytes());
+    assertEquals(1, net.sent("n2").size());
+
+    Thread.sleep(5);
+    node.sendHeartbeats();
+
+    List<AppendEntriesRequest> sent = net.sent("n2");
+    assertEquals(2, sent.size());
+    assertEquals(0, sent.get(1).getPrevLogIndex());
+    assertEquals(1, sent.get(1).getEntriesCount(), "the lost entry should go out again");
+  }
+
+  @Test
+  void catchUpGoesOutInBatchesOfAtMostMaxEntries() {
+    for (int i = 1; i <= 10; i++) log.add(i, 1);
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults().withMaxInFlight(2).withMaxBatchEntries(3));
+    node.nextIndex.put("n2", 1L);
+
+    node.sendHeartbeats();
+    assertEquals(2, net.sent("n2").size(), "batches fill the window");
+
+    net.respond("n2", 0, 2, true);
+    net.respond("n2", 1, 2, true);
+    net.respond("n2", 2, 2, true);
+
+    List<AppendEntriesRequest> sent = net.sent("n2");
+    assertEquals(4, sent.size());
+    long next = 1;
+    for (AppendEntriesRequest req : sent) {
+      assertEquals(next - 1, req.getPrevLogIndex());
+      assertEquals(next, req.getEntries(0).getIndex());
+      next += req.getEntriesCount();
+    }
+    assertEquals(11, next, "every entry sent exactly once");
+    assertEquals(3, sent.get(0).getEntriesCount());
+    assertEquals(1, sent.get(3).getEntriesCount());
+
+    net.respond("n2", 3, 2, true);
+    assertEquals(10L, node.matchIndex.get("n2"));
+
+    // n3 was already caught up: these are n2's four batches
+    assertEquals(4, metrics.getAppendBatchesTotal());
+    assertEquals(10, metrics.getAppendBatchEntriesTotal());
+    assertEquals(3, metrics.getAppendBatchMaxEntries());
+    assertArrayEquals(new long[] {1, 0, 3, 0}, Arrays.copyOf(metrics.getAppendBatchEntriesHistogram(), 4));
+  }
+
+  @Test
+  void batchesStopAtMaxBytes() {
+    ByteString data = ByteString.copyFromUtf8("x".repeat(100));
+    for (int i = 1; i <= 5; i++) log.add(i, 1, data);
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults().withMaxBatchBytes(250));
+    node.nextIndex.put("n2", 1L);
+
+    node.sendHeartbeats();
+
+    List<AppendEntriesRequest> sent = net.sent("n2");
+    assertEquals(3, sent.size());
+    assertEquals(2, sent.get(0).getEntriesCount());
+    assertEquals(2, sent.get(1).getEntriesCount());
+    assertEquals(1, sent.get(2).getEntriesCount());
+    assertEquals(4, sent.get(2).getPrevLogIndex());
+    for (AppendEntriesRequest req : sent) {
+      assertTrue(req.getSerializedSize() < 300, "request should stay near the byte limit");
+    }
+  }
+
+  @Test
+  void probingSendsOneBatchAtATime() {
+    for (int i = 1; i <= 10; i++) log.add(i, 1);
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults().withMaxBatchEntries(2));
+
+    // where n2's log matches ours is not known yet
+    node.nextIndex.put("n2", 5L);
+    node.sendHeartbeats();
+
+    List<AppendEntriesRequest> sent = net.sent("n2");
+    assertEquals(1, sent.size(), "the rest would likely be rejected");
+    assertEquals(4, sent.get(0).getPrevLogIndex());
+    assertEquals(2, sent.get(0).getEntriesCount());
+
+    // a match: stream the rest
+    net.respond("n2", 0, 2, true);
+    assertEquals(6L, node.matchIndex.get("n2"));
+    assertEquals(3, net.sent("n2").size());
+    assertEquals(10, net.sent("n2").get(2).getEntries(1).getIndex());
+  }
+}
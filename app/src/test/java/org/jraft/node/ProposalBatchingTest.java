@@ -0,0 +1,176 @@
+package org.jraft.node;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.jraft.core.util.FakeRepeatingTask;
+import org.jraft.metrics.RaftMetrics;
+import org.jraft.net.RaftTransport;
+import org.jraft.rpc.AppendEntriesRequest;
+import org.jraft.rpc.AppendEntriesResponse;
+import org.jraft.rpc.RequestVoteRequest;
+import org.jraft.rpc.RequestVoteResponse;
+import org.jraft.state.RaftState;
+import org.jraft.test.TestHelpers.MemLog;
+import org.jraft.test.TestHelpers.TestRaftState;
+import org.jraft.test.TestHelpers.TrackingStateMachine;
+import org.jraft.util.FakeElectionTimer;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for proposal coalescing on the leader.
+ *
+ * Key behavior tested:
+ * - Proposals queued while a batch is being appended go out as the next batch
+ * - A batch is one AppendEntries per peer, with indices in submission order
+ * - The batch size cap and the linger window
+ * - Metrics for batch size and queue delay
+ */
+public class ProposalBatchingTest {
+
+  /**
+   * grants every vote and records the entries n2 is sent; the first send
+   * with entries can be held to stall the event loop in the middle of a batch
+   */
+  private static class FakeTransport implements RaftTransport {
+    final List<AppendEntriesRequest> sentToN2 = new ArrayList<>();
+    final CountDownLatch firstSendStarted = new CountDownLatch(1);
+    final CountDownLatch releaseFirstSend = new CountDownLatch(1);
+
+    @Override
+    public void requestVote(String peerId, RequestVoteRequest req, Consumer<RequestVoteResponse> cb) {
+      cb.accept(RequestVoteResponse.newBuilder().setTerm(req.getTerm()).setVoteGranted(true).build());
+    }
+
+    @Override
+    public void appendEntries(String peerId, AppendEntriesRequest req, Consumer<AppendEntriesResponse> cb) {
+      if (!peerId.equals("n2") || req.getEntriesCount() == 0) return;
+      synchronized (this) {
+        sentToN2.add(req);
+      }
+      if (firstSendStarted.getCount() > 0) {
+        firstSendStarted.countDown();
+        try {
+          releaseFirstSend.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+
+    synchronized List<AppendEntriesRequest> sent() {
+      return new ArrayList<>(sentToN2);
+    }
+  }
+
+  private final TestRaftState state = new TestRaftState();
+  private final MemLog log = new MemLog();
+  private final FakeTransport net = new FakeTransport();
+  private final RaftMetrics metrics = new RaftMetrics();
+
+  // the loop runs on its own thread: a stalled send must not stall the test
+  private RaftNode node(RaftNode.ReplicationOptions options) {
+    return new RaftNode("n1", List.of("n2", "n3"), state, log, net, new TrackingStateMachine(),
+      new FakeRepeatingTask(), new FakeElectionTimer(), 150, 300, 50, metrics, options,
+      EventLoop.onThread("raft-n1"));
+  }
+
+  /**
+   * a node that won an election: all of its state is set on its own loop
+   */
+  private RaftNode leader(RaftNode.ReplicationOptions options) {
+    RaftNode node = node(options);
+    node.onElectionTick();
+    // handled after the votes the election tick posted
+    node.sendHeartbeats();
+    assertEquals(RaftState.Role.LEADER, state.getRole());
+    return node;
+  }
+
+  @Test
+  void proposalsQueuedDuringABatchGoOutTogether() throws Exception {
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults());
+
+    // the first batch stalls while sending to n2
+    CompletableFuture<Long> first = node.proposeAsync("p0".getBytes());
+    assertTrue(net.firstSendStarted.await(5, TimeUnit.SECONDS));
+
+    List<CompletableFuture<Long>> queued = new ArrayList<>();
+    for (int i = 1; i <= 10; i++) {
+      queued.add(node.proposeAsync(("p" + i).getBytes()));
+    }
+    net.releaseFirstSend.countDown();
+
+    assertEquals(1L, first.get(5, TimeUnit.SECONDS));
+    for (int i = 0; i < queued.size(); i++) {
+      assertEquals(i + 2L, queued.get(i).get(5, TimeUnit.SECONDS), "indices follow submission order");
+    }
+
+    List<AppendEntriesRequest> sent = net.sent();
+    assertEquals(2, sent.size(), "one AppendEntries per batch");
+    assertEquals(1, sent.get(0).getEntriesCount());
+    assertEquals(10, sent.get(1).getEntriesCount());
+    assertEquals("p10", sent.get(1).getEntries(9).getData().toStringUtf8());
+    assertEquals(11, log.lastIndex());
+
+    assertEquals(2, metrics.getProposalBatchesTotal());
+    assertEquals(11, metrics.getProposalsTotal());
+    assertEquals(10, metrics.getProposalMaxBatch());
+    assertTrue(metrics.getProposalQueueMaxMicros() > 0, "the queued ones waited on the first batch");
+  }
+
+  @Test
+  void lingerFillsBatchesUpToTheCap() throws Exception {
+    net.releaseFirstSend.countDown();
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults()
+      .withMaxProposalBatch(5)
+      .withProposalLingerMicros(TimeUnit.MILLISECONDS.toMicros(500)));
+
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    for (int i = 0; i < 7; i++) {
+      futures.add(node.proposeAsync(("p" + i).getBytes()));
+    }
+    for (CompletableFuture<Long> f : futures) {
+      f.get(5, TimeUnit.SECONDS);
+    }
+
+    assertEquals(2, metrics.getProposalBatchesTotal(), "5, then the 2 left once the linger ran out");
+    assertEquals(5, metrics.getProposalMaxBatch());
+    assertEquals(7, log.lastIndex());
+  }
+
+  @Test
+  void proposalsFailFastWhenNotLeader() throws Exception {
+    RaftNode node = node(RaftNode.ReplicationOptions.defaults());
+
+    assertEquals(-1L, node.proposeAsync("x".getBytes()).get(5, TimeUnit.SECONDS));
+    assertEquals(-1L, node.propose("x".getBytes()));
+    assertEquals(0, log.lastIndex());
+    assertEquals(0, metrics.getProposalBatchesTotal());
+  }
+
+  @Test
+  void failedAppendFailsItsProposals() throws Exception {
+    net.releaseFirstSend.countDown();
+    RaftNode node = leader(RaftNode.ReplicationOptions.defaults());
+    log.appendFailure = new IllegalStateException("disk full");
+
+    CompletableFuture<Long> failed = node.proposeAsync("x".getBytes());
+    ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+    assertEquals("disk full", e.getCause().getMessage());
+
+    // the failed batch doesn't linger in the queue
+    log.appendFailure = null;
+    assertEquals(1L, node.proposeAsync("y".getBytes()).get(5, TimeUnit.SECONDS));
+    assertEquals(1, log.lastIndex());
+  }
+}
@@ -6,12 +6,25 @@ import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
-
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.jraft.metrics.RaftMetrics;
+import org.jraft.rpc.AppendEntriesRequest;
 import org.jraft.rpc.LogEntry;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -325,6 +338,55 @@ public class FileLogStoreTest {
     log2.close();
   }
 
+  @Test
+  void testTruncateKeepsActiveSegmentPreallocated() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir, 4096);
+    for (int i = 1; i <= 5; i++) {
+      log1.append(List.of(makeEntry(i, 1, "entry" + i)));
+    }
+    log1.truncateFrom(3);
+    // the dropped records are zeroed in place, the file keeps its size
+    assertEquals(4096, Files.size(logDir.resolve("wal-0000001.log")));
+    assertEquals(2, log1.lastIndex());
+    assertEquals(1, log1.termAt(2));
+    log1.close();
+
+    FileLogStore log2 = new FileLogStore(logDir, 4096);
+    assertEquals(2, log2.lastIndex());
+    assertNull(log2.entryAt(3));
+    log2.append(List.of(makeEntry(3, 2, "new3")));
+    log2.close();
+
+    FileLogStore log3 = new FileLogStore(logDir, 4096);
+    assertEquals(3, log3.lastIndex());
+    assertEquals(2, log3.termAt(3));
+    assertNull(log3.entryAt(4));
+    log3.close();
+  }
+
+  @Test
+  void testTruncateIntoSealedSegmentReopensItPreallocated() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 12; i++) {
+      log1.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    assertTrue(countFiles(".log") > 2);
+
+    log1.truncateFrom(3);
+    assertEquals(1, countFiles(".log"));
+    assertTrue(Files.size(logDir.resolve("wal-0000001.log")) >= 1024);
+    log1.append(List.of(makeEntry(3, 2, "new3")));
+    assertEquals("new3", log1.entryAt(3).getData().toStringUtf8());
+    log1.close();
+
+    FileLogStore log2 = new FileLogStore(logDir, 1024);
+    assertEquals(3, log2.lastIndex());
+    assertEquals(data + 2, log2.entryAt(2).getData().toStringUtf8());
+    assertEquals("new3", log2.entryAt(3).getData().toStringUtf8());
+    log2.close();
+  }
+
   // --- segment rotation tests ---
 
   @Test
@@ -406,6 +468,33 @@ public class FileLogStoreTest {
     log.close();
   }
 
+  @Test
+  void testTruncateAtSegmentBoundaryThenRecover() throws IOException {
+    int smallSegmentSize = 1024;
+    FileLogStore log = new FileLogStore(logDir, smallSegmentSize);
+
+    // rotation happens once a segment passes 1KB, so index 4 starts segment 2
+    String data = "x".repeat(500);
+    for (int i = 1; i <= 8; i++) {
+      log.append(List.of(makeEntry(i, 1, data)));
+    }
+
+    log.truncateFrom(4);
+    assertEquals(3, log.lastIndex());
+    assertNotNull(log.entryAt(3));
+    assertNull(log.entryAt(4));
+
+    log.append(List.of(makeEntry(4, 2, "after")));
+    log.close();
+
+    FileLogStore reopened = new FileLogStore(logDir, smallSegmentSize);
+    assertEquals(4, reopened.lastIndex());
+    assertEquals(2, reopened.termAt(4));
+    assertEquals("after", reopened.entryAt(4).getData().toStringUtf8());
+    assertEquals(data, reopened.entryAt(1).getData().toStringUtf8());
+    reopened.close();
+  }
+
   // --- edge case tests ---
 
   @Test
@@ -559,6 +648,1359 @@ public class FileLogStoreTest {
     log.close();
   }
 
+  // --- mapped read tests ---
+
+  @Test
+  void testRepeatedReadsAcrossSealedAndActiveSegments() throws IOException {
+    // tiny mapping cache so sealed segments get evicted and remapped
+    FileLogStore log = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withMaxMappedSegments(2).withTailCacheBytes(0), null);
+
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log.append(List.of(makeEntry(i, 1, data + i)));
+    }
+
+    for (int round = 0; round < 3; round++) {
+      for (int i = 1; i <= 20; i++) {
+        assertEquals(data + i, log.entryAt(i).getData().toStringUtf8());
+      }
+    }
+
+    log.close();
+  }
+
+  @Test
+  void testInterruptedReaderLeavesActiveSegmentWritable() throws Exception {
+    // no tail cache, so reads of the active segment go to its file
+    FileLogStore log = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withTailCacheBytes(0), null);
+    for (int i = 1; i <= 5; i++) {
+      log.append(List.of(makeEntry(i, 1, "v" + i)));
+    }
+
+    // an interrupted thread closes any channel it reads from
+    Thread reader = new Thread(() -> {
+      Thread.currentThread().interrupt();
+      try {
+        log.entryAt(3);
+      } catch (RuntimeException e) {
+        // expected: the read was interrupted
+      }
+    });
+    reader.start();
+    reader.join();
+
+    log.append(List.of(makeEntry(6, 1, "v6")));
+    assertEquals("v3", log.entryAt(3).getData().toStringUtf8());
+    assertEquals("v6", log.entryAt(6).getData().toStringUtf8());
+    log.close();
+
+    FileLogStore reopened = new FileLogStore(logDir);
+    assertEquals(6, reopened.lastIndex());
+    reopened.close();
+  }
+
+  @Test
+  void testTruncateIntoSealedSegmentDropsStaleMapping() throws IOException {
+    // no tail cache, so every read goes through the mappings
+    FileLogStore log = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withTailCacheBytes(0), null);
+
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 12; i++) {
+      log.append(List.of(makeEntry(i, 1, data + i)));
+    }
+
+    // read everything so the sealed segments are mapped
+    for (int i = 1; i <= 12; i++) {
+      assertNotNull(log.entryAt(i));
+    }
+
+    // truncate into an earlier segment and overwrite with different payloads
+    log.truncateFrom(4);
+    for (int i = 4; i <= 12; i++) {
+      log.append(List.of(makeEntry(i, 2, "new" + i)));
+    }
+
+    for (int i = 1; i <= 3; i++) {
+      assertEquals(data + i, log.entryAt(i).getData().toStringUtf8());
+    }
+    for (int i = 4; i <= 12; i++) {
+      assertEquals("new" + i, log.entryAt(i).getData().toStringUtf8());
+      assertEquals(2, log.termAt(i));
+    }
+
+    log.close();
+  }
+
+  @Test
+  void testUnmappedReadsThroughOpenChannels() throws IOException {
+    // mapping off and room for two channels: sealed reads reopen evicted files
+    FileLogStore log = new FileLogStore(logDir, FileLogStore.Options.defaults().withSegmentSize(1024)
+      .withMaxMappedSegments(0).withMaxOpenSegments(2).withTailCacheBytes(0), null);
+
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    for (int round = 0; round < 2; round++) {
+      for (int i = 1; i <= 20; i++) {
+        assertEquals(data + i, log.entryAt(i).getData().toStringUtf8());
+      }
+      assertEquals(20, log.entries(1, 20, Long.MAX_VALUE).size());
+    }
+
+    // truncating into a sealed segment must not leave its old channel behind
+    log.truncateFrom(6);
+    for (int i = 6; i <= 20; i++) {
+      log.append(List.of(makeEntry(i, 2, "new" + i + data)));
+    }
+    // dropped files are recycled into new segments under new numbers
+    log.truncatePrefix(10);
+    for (int i = 21; i <= 30; i++) {
+      log.append(List.of(makeEntry(i, 2, "new" + i + data)));
+    }
+
+    for (long i = log.firstIndex(); i <= 30; i++) {
+      assertEquals("new" + i + data, log.entryAt(i).getData().toStringUtf8());
+      assertEquals(2, log.termAt(i));
+    }
+    List<LogEntry> tail = log.entries(log.firstIndex(), 30, Long.MAX_VALUE);
+    assertEquals(31 - log.firstIndex(), tail.size());
+    log.close();
+
+    FileLogStore log2 = new FileLogStore(logDir, FileLogStore.Options.defaults().withSegmentSize(1024)
+      .withMaxMappedSegments(0).withMaxOpenSegments(2), null);
+    assertEquals(30, log2.lastIndex());
+    assertEquals("new30" + data, log2.entryAt(30).getData().toStringUtf8());
+    log2.close();
+  }
+
+  // --- compression tests ---
+
+  @Test
+  void testCompressedSegmentsServeRandomReads() throws Exception {
+    // ~620 entries per segment, each segment spanning a few compressed blocks
+    FileLogStore.Options options = FileLogStore.Options.defaults().withSegmentSize(150_000)
+      .withTailCacheBytes(0).withCompressSealedSegments(true);
+    FileLogStore log = new FileLogStore(logDir, options, null);
+    for (int i = 1; i <= 2000; i++) {
+      log.append(List.of(makeEntry(i, 1 + i / 500, compressible(i))));
+    }
+    log.awaitCompression();
+
+    // every sealed segment was swapped for its compressed copy; the active one wasn't
+    long compressed = countFiles(".zlog");
+    assertTrue(compressed >= 2);
+    assertEquals(1, countFiles(".log"));
+    long compressedBytes;
+    try (var files = Files.list(logDir)) {
+      compressedBytes = files.filter(p -> p.getFileName().toString().endsWith(".zlog"))
+        .mapToLong(p -> p.toFile().length()).sum();
+    }
+    assertTrue(compressedBytes * 4 < 150_000 * compressed, "compressed to " + compressedBytes + " bytes");
+
+    Random random = new Random(42);
+    for (int n = 0; n < 500; n++) {
+      long i = 1 + random.nextInt(2000);
+      assertEquals(compressible(i), log.entryAt(i).getData().toStringUtf8());
+      assertEquals(1 + i / 500, log.termAt(i));
+    }
+    // one read across segment and block boundaries
+    List<LogEntry> range = log.entries(100, 1900, Long.MAX_VALUE);
+    assertEquals(1801, range.size());
+    for (int k = 0; k < range.size(); k++) {
+      assertEquals(100 + k, range.get(k).getIndex());
+      assertEquals(compressible(100 + k), range.get(k).getData().toStringUtf8());
+    }
+    log.close();
+
+    // compressed segments load from their sidecars like any sealed segment
+    FileLogStore log2 = new FileLogStore(logDir, options, null);
+    assertEquals(2000, log2.lastIndex());
+    for (long i = 1; i <= 2000; i++) {
+      assertEquals(compressible(i), log2.entryAt(i).getData().toStringUtf8());
+    }
+    log2.close();
+  }
+
+  @Test
+  void testTruncationsAcrossCompressedSegments() throws Exception {
+    FileLogStore.Options options = FileLogStore.Options.defaults().withSegmentSize(150_000)
+      .withTailCacheBytes(0).withCompressSealedSegments(true);
+    FileLogStore log = new FileLogStore(logDir, options, null);
+    for (int i = 1; i <= 2000; i++) {
+      log.append(List.of(makeEntry(i, 1, compressible(i))));
+    }
+    log.awaitCompression();
+
+    // into a compressed segment: it turns back into a plain .log and takes appends,
+    // then is compressed again once it is sealed a second time
+    log.truncateFrom(900);
+    assertEquals(899, log.lastIndex());
+    for (int i = 900; i <= 1600; i++) {
+      log.append(List.of(makeEntry(i, 2, "new " + compressible(i))));
+    }
+    log.awaitCompression();
+    assertEquals(1, countFiles(".log"));
+
+    // dropped compressed segments are deleted, not kept for reuse
+    log.truncatePrefix(700);
+    assertTrue(log.firstIndex() > 1);
+    assertEquals(0, countFiles(".free"));
+    for (long i = log.firstIndex(); i <= 1600; i++) {
+      String expected = i < 900 ? compressible(i) : "new " + compressible(i);
+      assertEquals(expected, log.entryAt(i).getData().toStringUtf8());
+      assertEquals(i < 900 ? 1 : 2, log.termAt(i));
+    }
+    long first = log.firstIndex();
+    log.close();
+
+    // leftovers of a compression cut short by a crash are cleaned up on open
+    Path leftover = logDir.resolve("wal-0000099.zlog.tmp");
+    Files.write(leftover, new byte[100]);
+    FileLogStore log2 = new FileLogStore(logDir, options, null);
+    assertTrue(Files.notExists(leftover));
+    assertEquals(first, log2.firstIndex());
+    assertEquals(1600, log2.lastIndex());
+    assertEquals("new " + compressible(1600), log2.entryAt(1600).getData().toStringUtf8());
+    assertEquals(compressible(first), log2.entryAt(first).getData().toStringUtf8());
+    log2.close();
+  }
+
+  private static String compressible(long i) {
+    return "entry " + i + " " + "abcdefghij".repeat(20);
+  }
+
+  // --- tail cache tests ---
+
+  @Test
+  void testRecentEntriesAreServedFromTailCache() throws IOException {
+    RaftMetrics metrics = new RaftMetrics();
+    // each entry is ~110 bytes, so a 1KB budget holds the last few only
+    FileLogStore log = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withTailCacheBytes(1024), metrics);
+
+    String data = "y".repeat(100);
+    for (int i = 1; i <= 50; i++) {
+      log.append(List.of(makeEntry(i, 1, data + i)));
+    }
+
+    for (int i = 45; i <= 50; i++) {
+      assertEquals(data + i, log.entryAt(i).getData().toStringUtf8());
+    }
+    assertEquals(6, metrics.getLogCacheHits());
+    assertEquals(0, metrics.getLogCacheMisses());
+
+    // old entries were evicted and come from the segment
+    assertEquals(data + 1, log.entryAt(1).getData().toStringUtf8());
+    assertEquals(1, metrics.getLogCacheMisses());
+
+    log.close();
+  }
+
+  @Test
+  void testTailCacheForgetsTruncatedEntries() throws IOException {
+    FileLogStore log = new FileLogStore(logDir);
+
+    log.append(List.of(makeEntry(1, 1, "a"), makeEntry(2, 1, "b"), makeEntry(3, 1, "c")));
+    log.truncateFrom(2);
+    log.append(List.of(makeEntry(2, 2, "b2")));
+
+    assertEquals("b2", log.entryAt(2).getData().toStringUtf8());
+    assertNull(log.entryAt(3));
+
+    log.close();
+  }
+
+  // --- range read tests ---
+
+  @Test
+  void testEntriesAcrossSegmentsFromDisk() throws IOException {
+    FileLogStore log = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withTailCacheBytes(0), null);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log.append(List.of(makeEntry(i, 1 + i / 10, data + i)));
+    }
+
+    List<LogEntry> all = log.entries(1, 20, Long.MAX_VALUE);
+    assertEquals(20, all.size());
+    for (int i = 1; i <= 20; i++) {
+      assertEquals(i, all.get(i - 1).getIndex());
+      assertEquals(data + i, all.get(i - 1).getData().toStringUtf8());
+    }
+
+    // range clamps to the end of the log
+    assertEquals(6, log.entries(15, 100, Long.MAX_VALUE).size());
+    assertTrue(log.entries(21, 30, Long.MAX_VALUE).isEmpty());
+
+    log.close();
+  }
+
+  @Test
+  void testEntriesStopsAtByteBudget() throws IOException {
+    FileLogStore log = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withTailCacheBytes(0), null);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log.append(List.of(makeEntry(i, 1, data)));
+    }
+    long perEntry = makeEntry(1, 1, data).getSerializedSize();
+
+    assertEquals(5, log.entries(1, 20, perEntry * 5).size());
+    assertEquals(5, log.entries(1, 20, perEntry * 5 + perEntry / 2).size());
+    // one entry is always returned so callers make progress
+    assertEquals(1, log.entries(7, 20, 1).size());
+    assertEquals(7, log.entries(7, 20, 1).get(0).getIndex());
+
+    log.close();
+  }
+
+  @Test
+  void testEntriesMixesDiskAndTailCache() throws IOException {
+    RaftMetrics metrics = new RaftMetrics();
+    FileLogStore log = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withTailCacheBytes(2048), metrics);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log.append(List.of(makeEntry(i, 1, data + i)));
+    }
+
+    List<LogEntry> all = log.entries(1, 20, Long.MAX_VALUE);
+    assertEquals(20, all.size());
+    for (int i = 1; i <= 20; i++) {
+      assertEquals(data + i, all.get(i - 1).getData().toStringUtf8());
+    }
+    assertTrue(metrics.getLogCacheHits() > 0);
+    assertTrue(metrics.getLogCacheMisses() > 0);
+    assertEquals(20, metrics.getLogCacheHits() + metrics.getLogCacheMisses());
+
+    log.close();
+  }
+
+  @Test
+  void testEncodedEntriesMatchParsedEntries() throws IOException {
+    // a protobuf-format segment, then compact segments on disk and in the tail cache
+    String data = "x".repeat(300);
+    writeProtobufSegment(1, 1, 4, 1, data);
+    FileLogStore log = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withTailCacheBytes(2048), null);
+    for (int i = 5; i <= 20; i++) {
+      log.append(List.of(makeEntry(i, 2, i == 12 ? "" : data + i)));
+    }
+    AppendEntriesRequest header = AppendEntriesRequest.newBuilder()
+      .setTerm(2).setPrevLogIndex(2).setPrevLogTerm(1).setLeaderCommit(9).build();
+
+    for (long budget : new long[] {Long.MAX_VALUE, 1, 3000}) {
+      List<LogEntry> parsed = log.entries(3, 20, budget);
+      EncodedEntries encoded = log.encodedEntries(3, 20, budget);
+      assertEquals(parsed.size(), encoded.count());
+      assertEquals(header.toBuilder().addAllEntries(parsed).build(), encoded.appendTo(header));
+    }
+    assertEquals(0, log.encodedEntries(21, 30, Long.MAX_VALUE).count());
+
+    log.close();
+  }
+
+  @Test
+  void testEncodedEntriesOutliveTruncation() throws IOException {
+    // no tail cache, so the encoding is built from the sealed segments' mappings
+    FileLogStore log = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withTailCacheBytes(0), null);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 12; i++) {
+      log.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    AppendEntriesRequest header = AppendEntriesRequest.newBuilder().setTerm(1).build();
+    AppendEntriesRequest.Builder expected = header.toBuilder();
+    for (int i = 1; i <= 6; i++) {
+      expected.addEntries(makeEntry(i, 1, data + i));
+    }
+    EncodedEntries encoded = log.encodedEntries(1, 6, Long.MAX_VALUE);
+
+    // the request may still be waiting to go out when its segments are rewritten
+    log.truncateFrom(2);
+    for (int i = 2; i <= 12; i++) {
+      log.append(List.of(makeEntry(i, 2, "y".repeat(300) + i)));
+    }
+
+    assertEquals(expected.build(), encoded.appendTo(header));
+
+    log.close();
+  }
+
+  // --- group commit tests ---
+
+  @Test
+  void testPerAppendSyncsEveryCall() throws IOException {
+    RaftMetrics metrics = new RaftMetrics();
+    FileLogStore log = new FileLogStore(logDir, FileLogStore.DEFAULT_SEGMENT_SIZE,
+      FileLogStore.SyncMode.PER_APPEND, metrics);
+
+    log.append(List.of(makeEntry(1, 1, "a"), makeEntry(2, 1, "b")));
+    log.append(List.of(makeEntry(3, 1, "c")));
+
+    assertEquals(2, metrics.getWalFsyncsTotal());
+    assertEquals(3, metrics.getWalFsyncEntriesTotal());
+    assertEquals(2, metrics.getWalFsyncMaxBatch());
+    assertEquals(3, log.durableIndex());
+
+    log.close();
+  }
+
+  @Test
+  void testGroupCommitConcurrentAppendersAreAllDurable() throws Exception {
+    RaftMetrics metrics = new RaftMetrics();
+    FileLogStore log = new FileLogStore(logDir, 4096,
+      FileLogStore.SyncMode.GROUP_COMMIT, metrics);
+
+    int threads = 8;
+    int perThread = 25;
+    int total = threads * perThread;
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // thread t owns indices t+1, t+1+threads, ... and appends them in turn,
+    // so while one thread waits on the fsync the next one writes its entry
+    List<Thread> workers = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      int first = t + 1;
+      Thread w = new Thread(() -> {
+        try {
+          for (int i = first; i <= total; i += threads) {
+            while (log.lastIndex() != i - 1) Thread.onSpinWait();
+            log.append(List.of(makeEntry(i, 1, "cmd" + i)));
+            assertTrue(log.durableIndex() >= i, "append returned before entry was durable");
+          }
+        } catch (Throwable e) {
+          failure.set(e);
+        }
+      });
+      workers.add(w);
+      w.start();
+    }
+    for (Thread w : workers) w.join(30_000);
+
+    if (failure.get() != null) throw new AssertionError(failure.get());
+    assertEquals(total, log.lastIndex());
+    assertEquals(total, log.durableIndex());
+    assertEquals(total, metrics.getWalFsyncEntriesTotal());
+    assertTrue(metrics.getWalFsyncsTotal() <= total);
+    log.close();
+
+    FileLogStore reopened = new FileLogStore(logDir, 4096);
+    assertEquals(total, reopened.lastIndex());
+    for (int i = 1; i <= total; i++) {
+      assertEquals("cmd" + i, reopened.entryAt(i).getData().toStringUtf8());
+    }
+    reopened.close();
+  }
+
+  @Test
+  void testGroupCommitTruncateLowersDurableIndex() throws IOException {
+    FileLogStore log = new FileLogStore(logDir, FileLogStore.DEFAULT_SEGMENT_SIZE,
+      FileLogStore.SyncMode.GROUP_COMMIT, null);
+
+    log.append(List.of(makeEntry(1, 1, "a"), makeEntry(2, 1, "b"), makeEntry(3, 1, "c")));
+    assertEquals(3, log.durableIndex());
+
+    log.truncateFrom(2);
+    assertEquals(1, log.durableIndex());
+
+    log.append(List.of(makeEntry(2, 2, "b2")));
+    assertEquals(2, log.durableIndex());
+    assertEquals("b2", log.entryAt(2).getData().toStringUtf8());
+
+    log.close();
+  }
+
+  @Test
+  void testAppendAsyncCompletesOnceDurable() throws Exception {
+    FileLogStore log = new FileLogStore(logDir);
+    List<CompletableFuture<Long>> futures = new ArrayList<>();
+    for (int i = 1; i <= 50; i++) {
+      futures.add(log.appendAsync(List.of(makeEntry(i, 1, "e" + i))));
+      // readable before it is durable
+      assertEquals("e" + i, log.entryAt(i).getData().toStringUtf8());
+    }
+
+    for (int i = 0; i < futures.size(); i++) {
+      long durable = futures.get(i).get(5, TimeUnit.SECONDS);
+      assertTrue(durable >= i + 1);
+    }
+    assertEquals(50, log.durableIndex());
+    log.close();
+
+    FileLogStore reopened = new FileLogStore(logDir);
+    assertEquals(50, reopened.lastIndex());
+    reopened.close();
+  }
+
+  @Test
+  void testCloseDrainsPendingAsyncAppends() throws IOException {
+    FileLogStore log = new FileLogStore(logDir, FileLogStore.Options.defaults()
+      .withSyncMode(FileLogStore.SyncMode.GROUP_COMMIT), null);
+    CompletableFuture<Long> last = null;
+    for (int i = 1; i <= 20; i++) {
+      last = log.appendAsync(List.of(makeEntry(i, 1, "e" + i)));
+    }
+    log.close();
+
+    assertTrue(last.isDone());
+    assertEquals(20, last.join());
+  }
+
+  @Test
+  void testIntervalModeSyncsInTheBackground() throws Exception {
+    RaftMetrics metrics = new RaftMetrics();
+    FileLogStore log = new FileLogStore(logDir, FileLogStore.Options.defaults()
+      .withSyncMode(FileLogStore.SyncMode.INTERVAL)
+      .withSyncIntervalMs(20), metrics);
+
+    for (int i = 1; i <= 10; i++) {
+      log.append(List.of(makeEntry(i, 1, "e" + i)));
+    }
+    // append returned without an fsync; the written index runs ahead
+    assertEquals(10, log.lastIndex());
+
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (log.durableIndex() < 10 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(10, log.durableIndex());
+    // one interval covered all of them
+    assertTrue(metrics.getWalFsyncsTotal() < 10);
+
+    CompletableFuture<Long> future = log.appendAsync(List.of(makeEntry(11, 1, "e11")));
+    assertEquals(11, future.get(5, TimeUnit.SECONDS));
+    log.close();
+  }
+
+  @Test
+  void testIntervalModeSyncsEarlyOnByteBudget() throws Exception {
+    FileLogStore log = new FileLogStore(logDir, FileLogStore.Options.defaults()
+      .withSyncMode(FileLogStore.SyncMode.INTERVAL)
+      .withSyncIntervalMs(60_000)
+      .withSyncIntervalBytes(1024), null);
+
+    CompletableFuture<Long> future = log.appendAsync(List.of(makeEntry(1, 1, "x".repeat(2048))));
+    assertEquals(1, future.get(5, TimeUnit.SECONDS));
+    log.close();
+  }
+
+  @Test
+  void testOsOnlyModeNeverFsyncsOnAppend() throws IOException {
+    RaftMetrics metrics = new RaftMetrics();
+    FileLogStore log = new FileLogStore(logDir, FileLogStore.Options.defaults()
+      .withSyncMode(FileLogStore.SyncMode.OS_ONLY), metrics);
+
+    for (int i = 1; i <= 10; i++) {
+      log.append(List.of(makeEntry(i, 1, "e" + i)));
+    }
+    assertEquals(0, metrics.getWalFsyncsTotal());
+    // written to the kernel is as durable as this mode gets
+    assertEquals(10, log.durableIndex());
+    assertTrue(log.appendAsync(List.of(makeEntry(11, 1, "e11"))).isDone());
+
+    // the file already holds everything, even without a clean close
+    Path copyDir = Files.createDirectories(logDir.resolveSibling("copy"));
+    Files.copy(logDir.resolve("wal-0000001.log"), copyDir.resolve("wal-0000001.log"));
+    FileLogStore copy = new FileLogStore(copyDir);
+    assertEquals(11, copy.lastIndex());
+    copy.close();
+    log.close();
+  }
+
+  // --- direct io tests ---
+
+  @Test
+  void testDirectIoRoundTripsAcrossRotationAndTruncation() throws IOException {
+    // falls back to buffered writes where O_DIRECT isn't supported; same results either way
+    FileLogStore.Options opts = FileLogStore.Options.defaults().withSegmentSize(16 * 1024).withDirectIo(true);
+    FileLogStore log1 = new FileLogStore(logDir, opts, null);
+    for (int i = 1; i <= 200; i++) {
+      // mostly small records, with a few larger than the write buffer
+      String data = i % 50 == 0 ? "y".repeat(70 * 1024) : "e" + i;
+      log1.append(List.of(makeEntry(i, 1, data)));
+      assertEquals(data, log1.entryAt(i).getData().toStringUtf8());
+    }
+    assertTrue(countFiles(".log") > 1);
+
+    log1.truncateFrom(190);
+    log1.append(List.of(makeEntry(190, 2, "after truncate")));
+    log1.close();
+
+    FileLogStore log2 = new FileLogStore(logDir, opts, null);
+    assertEquals(190, log2.lastIndex());
+    assertEquals("e1", log2.entryAt(1).getData().toStringUtf8());
+    assertEquals("y".repeat(70 * 1024), log2.entryAt(150).getData().toStringUtf8());
+    assertEquals("e189", log2.entryAt(189).getData().toStringUtf8());
+    assertEquals("after truncate", log2.entryAt(190).getData().toStringUtf8());
+
+    // appends resume mid-block after recovery
+    log2.append(List.of(makeEntry(191, 2, "resumed")));
+    log2.close();
+
+    FileLogStore log3 = new FileLogStore(logDir, opts, null);
+    assertEquals(191, log3.lastIndex());
+    assertEquals("resumed", log3.entryAt(191).getData().toStringUtf8());
+    assertEquals(2, log3.termAt(190));
+    log3.close();
+  }
+
+  // --- term lookup tests ---
+
+  @Test
+  void testTermAtDoesNotReadSegments() throws IOException {
+    FileLogStore log = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 30; i++) {
+      log.append(List.of(makeEntry(i, 1 + i / 7, data)));
+    }
+
+    // with the segment files gone, only the in-memory runs can answer
+    try (var files = Files.list(logDir)) {
+      for (Path p : files.toList()) {
+        if (p.getFileName().toString().endsWith(".log")) {
+          Files.write(p, new byte[0]);
+        }
+      }
+    }
+
+    for (int i = 1; i <= 30; i++) {
+      assertEquals(1 + i / 7, log.termAt(i));
+    }
+    assertEquals(0, log.termAt(31));
+
+    log.close();
+  }
+
+  @Test
+  void testTermAtAfterTruncateAndRecovery() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log1.append(List.of(makeEntry(i, i <= 5 ? 1 : 2, data)));
+    }
+    log1.truncateFrom(8);
+    log1.append(List.of(makeEntry(8, 3, "a"), makeEntry(9, 3, "b")));
+
+    assertEquals(1, log1.termAt(5));
+    assertEquals(2, log1.termAt(7));
+    assertEquals(3, log1.termAt(8));
+    log1.close();
+
+    FileLogStore log2 = new FileLogStore(logDir, 1024);
+    assertEquals(1, log2.termAt(5));
+    assertEquals(2, log2.termAt(6));
+    assertEquals(2, log2.termAt(7));
+    assertEquals(3, log2.termAt(8));
+    assertEquals(3, log2.termAt(9));
+    log2.close();
+  }
+
+  // --- sidecar index tests ---
+
+  @Test
+  void testSealedSegmentsGetSidecarsAndRecoverFromThem() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log1.append(List.of(makeEntry(i, i <= 10 ? 1 : 2, data + i)));
+    }
+    log1.close();
+
+    long segmentCount = countFiles(".log");
+    assertTrue(segmentCount > 2);
+    // every segment but the active one is sealed and indexed
+    assertEquals(segmentCount - 1, countFiles(".idx"));
+
+    FileLogStore log2 = new FileLogStore(logDir, 1024);
+    assertEquals(20, log2.lastIndex());
+    assertEquals(2, log2.termAt(20));
+    for (int i = 1; i <= 20; i++) {
+      assertEquals(data + i, log2.entryAt(i).getData().toStringUtf8());
+      assertEquals(i <= 10 ? 1 : 2, log2.termAt(i));
+    }
+    log2.append(List.of(makeEntry(21, 3, "tail")));
+    assertEquals("tail", log2.entryAt(21).getData().toStringUtf8());
+    log2.close();
+  }
+
+  @Test
+  void testCorruptSidecarFallsBackToScan() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 12; i++) {
+      log1.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    log1.close();
+
+    Path sidecar = logDir.resolve("wal-0000001.idx");
+    byte[] bytes = Files.readAllBytes(sidecar);
+    bytes[bytes.length / 2] ^= 0x5A;
+    Files.write(sidecar, bytes);
+
+    FileLogStore log2 = new FileLogStore(logDir, 1024);
+    assertEquals(12, log2.lastIndex());
+    for (int i = 1; i <= 12; i++) {
+      assertEquals(data + i, log2.entryAt(i).getData().toStringUtf8());
+    }
+    log2.close();
+  }
+
+  // --- parallel recovery tests ---
+
+  @Test
+  void testParallelRecoveryMatchesSequential() throws IOException {
+    FileLogStore.Options opts = FileLogStore.Options.defaults().withSegmentSize(1024);
+    FileLogStore log1 = new FileLogStore(logDir, opts.withRecoveryThreads(1), null);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 60; i++) {
+      log1.append(List.of(makeEntry(i, 1 + i / 20, data + i)));
+    }
+    log1.close();
+    assertTrue(countFiles(".log") > 10);
+
+    // remove half the sidecars so both load paths run concurrently
+    for (int segNum = 1; segNum < countFiles(".log"); segNum += 2) {
+      Files.deleteIfExists(logDir.resolve(String.format("wal-%07d.idx", segNum)));
+    }
+
+    FileLogStore log2 = new FileLogStore(logDir, opts.withRecoveryThreads(4), null);
+    assertEquals(60, log2.lastIndex());
+    assertEquals(4, log2.termAt(60));
+    for (int i = 1; i <= 60; i++) {
+      assertEquals(data + i, log2.entryAt(i).getData().toStringUtf8());
+      assertEquals(1 + i / 20, log2.termAt(i));
+    }
+    log2.append(List.of(makeEntry(61, 4, "tail")));
+    log2.close();
+
+    FileLogStore log3 = new FileLogStore(logDir, opts.withRecoveryThreads(1), null);
+    assertEquals(61, log3.lastIndex());
+    assertEquals("tail", log3.entryAt(61).getData().toStringUtf8());
+    log3.close();
+  }
+
+  @Test
+  void testParallelRecoveryStopsAtFirstCorruptSegment() throws IOException {
+    FileLogStore.Options opts = FileLogStore.Options.defaults().withSegmentSize(1024).withRecoveryThreads(4);
+    FileLogStore log1 = new FileLogStore(logDir, opts, null);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 30; i++) {
+      log1.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    log1.close();
+    long segmentCount = countFiles(".log");
+    assertTrue(segmentCount > 4);
+
+    // corrupt the last record of segment 2 and force a scan of it
+    Path segment = logDir.resolve("wal-0000002.log");
+    byte[] bytes = Files.readAllBytes(segment);
+    bytes[bytes.length - 10] ^= 0x5A;
+    Files.write(segment, bytes);
+    Files.delete(logDir.resolve("wal-0000002.idx"));
+
+    FileLogStore log2 = new FileLogStore(logDir, opts, null);
+    // segments hold 4 entries each; segment 2 keeps all but its last
+    assertEquals(7, log2.lastIndex());
+    assertEquals(2, countFiles(".log"));
+    assertNull(log2.entryAt(8));
+    log2.append(List.of(makeEntry(8, 2, "after")));
+    log2.close();
+
+    FileLogStore log3 = new FileLogStore(logDir, opts, null);
+    assertEquals(8, log3.lastIndex());
+    assertEquals("after", log3.entryAt(8).getData().toStringUtf8());
+    log3.close();
+  }
+
+  @Test
+  void testTornTailIsCutBeforeNewAppends() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir);
+    log1.append(List.of(makeEntry(1, 1, "a"), makeEntry(2, 1, "b")));
+    log1.close();
+
+    // simulate a crash halfway through writing a record
+    Files.write(logDir.resolve("wal-0000001.log"), new byte[] {0, 0, 0, 50, 1, 2},
+      StandardOpenOption.APPEND);
+
+    FileLogStore log2 = new FileLogStore(logDir);
+    assertEquals(2, log2.lastIndex());
+    log2.append(List.of(makeEntry(3, 1, "c")));
+    log2.close();
+
+    // the new record must not sit behind the garbage
+    FileLogStore log3 = new FileLogStore(logDir);
+    assertEquals(3, log3.lastIndex());
+    assertEquals("c", log3.entryAt(3).getData().toStringUtf8());
+    log3.close();
+  }
+
+  @Test
+  void testTruncateIntoSealedSegmentRemovesItsSidecar() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 12; i++) {
+      log1.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    log1.truncateFrom(2);
+    assertEquals(0, countFiles(".idx"));
+    log1.append(List.of(makeEntry(2, 2, "b")));
+    log1.close();
+
+    FileLogStore log2 = new FileLogStore(logDir, 1024);
+    assertEquals(2, log2.lastIndex());
+    assertEquals(2, log2.termAt(2));
+    log2.close();
+  }
+
+  // --- prefix compaction tests ---
+
+  @Test
+  void testTruncatePrefixDropsWholeSealedSegments() throws IOException {
+    // 4 records per 1KB segment: [1-4] [5-8] [9-12] [13-16] [17-20]
+    FileLogStore log = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log.append(List.of(makeEntry(i, i <= 10 ? 1 : 2, data + i)));
+    }
+    long segmentsBefore = countFiles(".log");
+
+    // index 10 lives in [9-12], so that segment stays
+    log.truncatePrefix(10);
+    assertEquals(9, log.firstIndex());
+    assertEquals(20, log.lastIndex());
+    assertEquals(segmentsBefore - 2, countFiles(".log"));
+    assertEquals(1, log.termAt(8));   // boundary term is remembered
+    assertEquals(0, log.termAt(7));
+    assertNull(log.entryAt(8));
+    assertTrue(log.entries(8, 20, Long.MAX_VALUE).isEmpty());
+    assertEquals(data + 9, log.entryAt(9).getData().toStringUtf8());
+    assertEquals(12, log.entries(9, 20, Long.MAX_VALUE).size());
+
+    // never drops the active segment
+    log.truncatePrefix(1000);
+    assertEquals(17, log.firstIndex());
+    assertEquals(2, log.termAt(16));
+    assertEquals(1, countFiles(".log"));
+    log.append(List.of(makeEntry(21, 2, "next")));
+    assertEquals("next", log.entryAt(21).getData().toStringUtf8());
+
+    log.close();
+  }
+
+  @Test
+  void testTruncatePrefixSurvivesRestart() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log1.append(List.of(makeEntry(i, i <= 10 ? 1 : 2, data + i)));
+    }
+    log1.truncatePrefix(9);
+    log1.close();
+
+    FileLogStore log2 = new FileLogStore(logDir, 1024);
+    assertEquals(9, log2.firstIndex());
+    assertEquals(20, log2.lastIndex());
+    assertEquals(1, log2.termAt(8));
+    assertNull(log2.entryAt(8));
+    for (int i = 9; i <= 20; i++) {
+      assertEquals(data + i, log2.entryAt(i).getData().toStringUtf8());
+    }
+    log2.append(List.of(makeEntry(21, 3, "c")));
+    log2.close();
+  }
+
+  @Test
+  void testRecoveryRefusesSegmentsThatDisagreeWithWalStart() throws IOException {
+    // [1-4] [5-8] [9-12] [13-16] [17-20], compacted through 8
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log1.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    log1.truncatePrefix(9);
+    log1.close();
+
+    // the first kept segment is lost: the log would silently start at 13
+    Files.delete(logDir.resolve("wal-0000003.log"));
+    Files.deleteIfExists(logDir.resolve("wal-0000003.idx"));
+
+    IOException e = assertThrows(IOException.class, () -> new FileLogStore(logDir, 1024));
+    assertTrue(e.getMessage().contains("entries are missing"), e.getMessage());
+  }
+
+  @Test
+  void testTruncateFromCompactionPointKeepsBoundary() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 12; i++) {
+      log1.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    log1.truncatePrefix(9);
+    log1.truncateFrom(9);
+
+    assertEquals(9, log1.firstIndex());
+    assertEquals(8, log1.lastIndex());
+    assertEquals(1, log1.termAt(8));
+    log1.close();
+
+    // an empty log past the compaction point still starts at the right index
+    FileLogStore log2 = new FileLogStore(logDir, 1024);
+    assertEquals(9, log2.firstIndex());
+    assertEquals(8, log2.lastIndex());
+    assertEquals(1, log2.termAt(8));
+    log2.append(List.of(makeEntry(9, 2, "b")));
+    assertEquals(2, log2.termAt(9));
+    log2.close();
+
+    // truncating everything forgets the compaction point too
+    FileLogStore log3 = new FileLogStore(logDir, 1024);
+    log3.truncateFrom(0);
+    assertEquals(1, log3.firstIndex());
+    assertEquals(0, log3.lastIndex());
+    log3.close();
+  }
+
+  @Test
+  void testInterruptedTruncatePrefixIsFinishedOnRecovery() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 12; i++) {
+      log1.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    Path first = logDir.resolve("wal-0000001.log");
+    byte[] firstSegment = Files.readAllBytes(first);
+    log1.truncatePrefix(5);
+    log1.close();
+
+    // crash after the marker moved but before the segment was deleted
+    Files.write(first, firstSegment);
+
+    FileLogStore log2 = new FileLogStore(logDir, 1024);
+    assertEquals(5, log2.firstIndex());
+    assertEquals(12, log2.lastIndex());
+    assertTrue(Files.notExists(first));
+    assertEquals(data + 5, log2.entryAt(5).getData().toStringUtf8());
+    log2.close();
+  }
+
+  // --- record format tests ---
+
+  @Test
+  void testChecksumCatchesCorruptionProtobufWouldAccept() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir);
+    log1.append(List.of(makeEntry(1, 1, "aaaa"), makeEntry(2, 1, "bbbb"), makeEntry(3, 1, "cccc")));
+    log1.close();
+
+    // flip a bit inside entry 2's data: still valid protobuf, wrong content
+    Path segment = logDir.resolve("wal-0000001.log");
+    byte[] bytes = Files.readAllBytes(segment);
+    int pos = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("bbbb");
+    bytes[pos] ^= 0x01;
+    Files.write(segment, bytes);
+
+    FileLogStore log2 = new FileLogStore(logDir);
+    assertEquals(1, log2.lastIndex());
+    assertEquals("aaaa", log2.entryAt(1).getData().toStringUtf8());
+    log2.append(List.of(makeEntry(2, 2, "new")));
+    log2.close();
+  }
+
+  @Test
+  void testLegacySegmentsStayReadable() throws IOException {
+    // segments written before checksums: no header, [4 length][protobuf] records
+    String data = "x".repeat(300);
+    writeLegacySegment(1, 1, 4, 1, data);
+    writeLegacySegment(2, 5, 6, 2, data);
+
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    assertEquals(6, log1.lastIndex());
+    for (int i = 1; i <= 6; i++) {
+      assertEquals(data + i, log1.entryAt(i).getData().toStringUtf8());
+      assertEquals(i <= 4 ? 1 : 2, log1.termAt(i));
+    }
+    assertEquals(6, log1.entries(1, 6, Long.MAX_VALUE).size());
+
+    // the legacy active segment keeps its format; rotation starts a new one
+    for (int i = 7; i <= 12; i++) {
+      log1.append(List.of(makeEntry(i, 3, data + i)));
+    }
+    log1.close();
+
+    FileLogStore log2 = new FileLogStore(logDir, 1024);
+    assertEquals(12, log2.lastIndex());
+    for (int i = 1; i <= 12; i++) {
+      assertEquals(data + i, log2.entryAt(i).getData().toStringUtf8());
+    }
+    log2.truncateFrom(6);
+    log2.append(List.of(makeEntry(6, 4, "after")));
+    log2.close();
+
+    FileLogStore log3 = new FileLogStore(logDir, 1024);
+    assertEquals(6, log3.lastIndex());
+    assertEquals(4, log3.termAt(6));
+    assertEquals("after", log3.entryAt(6).getData().toStringUtf8());
+    log3.close();
+  }
+
+  @Test
+  void testProtobufSegmentsStayReadable() throws IOException {
+    // checksummed segments from before the compact format: whole protobuf entries
+    String data = "x".repeat(300);
+    writeProtobufSegment(1, 1, 4, 1, data);
+    writeProtobufSegment(2, 5, 6, 2, data);
+
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    assertEquals(6, log1.lastIndex());
+    assertEquals(6, log1.entries(1, 6, Long.MAX_VALUE).size());
+    for (int i = 7; i <= 12; i++) {
+      log1.append(List.of(makeEntry(i, 3, data + i)));
+    }
+    log1.close();
+
+    FileLogStore log2 = new FileLogStore(logDir, 1024);
+    assertEquals(12, log2.lastIndex());
+    for (int i = 1; i <= 12; i++) {
+      assertEquals(data + i, log2.entryAt(i).getData().toStringUtf8());
+      assertEquals(i <= 4 ? 1 : i <= 6 ? 2 : 3, log2.termAt(i));
+    }
+    log2.close();
+  }
+
+  @Test
+  void testTornSegmentHeaderIsRewritten() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir, 1024);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 4; i++) {
+      log1.append(List.of(makeEntry(i, 1, data)));
+    }
+    log1.close();
+
+    // crash right after the next segment was created
+    Files.write(logDir.resolve("wal-0000002.log"), new byte[] {0x52, 0x57, 0x4C});
+
+    FileLogStore log2 = new FileLogStore(logDir, 1024);
+    assertEquals(4, log2.lastIndex());
+    log2.append(List.of(makeEntry(5, 1, "five")));
+    log2.close();
+
+    FileLogStore log3 = new FileLogStore(logDir, 1024);
+    assertEquals(5, log3.lastIndex());
+    assertEquals("five", log3.entryAt(5).getData().toStringUtf8());
+    log3.close();
+  }
+
+  // --- write path tests ---
+
+  @Test
+  void testEntriesLargerThanWriteBuffer() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir, FileLogStore.Options.defaults().withTailCacheBytes(0), null);
+    String big = "b".repeat(200_000);
+    log1.append(List.of(makeEntry(1, 1, "small"), makeEntry(2, 1, big), makeEntry(3, 1, "after")));
+    assertEquals(big, log1.entryAt(2).getData().toStringUtf8());
+    assertEquals("after", log1.entryAt(3).getData().toStringUtf8());
+    log1.close();
+
+    FileLogStore log2 = new FileLogStore(logDir);
+    assertEquals(3, log2.lastIndex());
+    assertEquals(big, log2.entryAt(2).getData().toStringUtf8());
+    assertEquals("after", log2.entryAt(3).getData().toStringUtf8());
+    log2.close();
+  }
+
+  @Test
+  void testActiveSegmentIsPreallocatedAndSealedSegmentsAreTrimmed() throws IOException {
+    FileLogStore log = new FileLogStore(logDir, 4096);
+    String data = "x".repeat(1000);
+    log.append(List.of(makeEntry(1, 1, data)));
+    assertEquals(4096, Files.size(logDir.resolve("wal-0000001.log")));
+
+    for (int i = 2; i <= 6; i++) {
+      log.append(List.of(makeEntry(i, 1, data)));
+    }
+    // segment 1 sealed once it passed 4KB: exactly header + records
+    long record = 8 + 20 + data.length();
+    long records = (4096 - 8 + record - 1) / record;
+    assertEquals(8 + records * record, Files.size(logDir.resolve("wal-0000001.log")));
+    assertEquals(4096, Files.size(logDir.resolve("wal-0000002.log")));
+    log.close();
+
+    FileLogStore reopened = new FileLogStore(logDir, 4096);
+    assertEquals(6, reopened.lastIndex());
+    reopened.append(List.of(makeEntry(7, 1, data)));
+    assertEquals(data, reopened.entryAt(7).getData().toStringUtf8());
+    reopened.close();
+  }
+
+  @Test
+  void testCompactedSegmentsAreRecycled() throws IOException {
+    // 4 records per 1KB segment: [1-4] [5-8] [9-12] [13-16] [17-20]
+    FileLogStore log1 = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withMaxRecycledSegments(2), null);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log1.append(List.of(makeEntry(i, 1, data + i)));
+    }
+
+    // three segments dropped, two kept for reuse
+    log1.truncatePrefix(13);
+    assertEquals(2, countFiles(".free"));
+
+    // the next rotation reuses one, still full of records 1-8
+    for (int i = 21; i <= 22; i++) {
+      log1.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    assertEquals(1, countFiles(".free"));
+    assertEquals(data + 21, log1.entryAt(21).getData().toStringUtf8());
+    assertEquals(data + 22, log1.entryAt(22).getData().toStringUtf8());
+    log1.close();
+
+    // old records in the reused file must not look like live ones
+    FileLogStore log2 = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withMaxRecycledSegments(2), null);
+    assertEquals(13, log2.firstIndex());
+    assertEquals(22, log2.lastIndex());
+    for (int i = 13; i <= 22; i++) {
+      assertEquals(data + i, log2.entryAt(i).getData().toStringUtf8());
+    }
+    log2.append(List.of(makeEntry(23, 1, "next")));
+    log2.close();
+
+    FileLogStore log3 = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withMaxRecycledSegments(2), null);
+    assertEquals(23, log3.lastIndex());
+    assertEquals("next", log3.entryAt(23).getData().toStringUtf8());
+    log3.close();
+  }
+
+  @Test
+  void testCrashRightAfterReusingARecycledFileKeepsTheLog() throws IOException {
+    // 4 records per 1KB segment: [1-4] [5-8] [9-12] [13-16] [17-20]
+    FileLogStore log1 = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withMaxRecycledSegments(2), null);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log1.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    log1.truncatePrefix(17);
+    log1.close();
+
+    // INTERVAL with nothing due: 21 rotates into a recycled file, but only its
+    // rename reaches the disk before the crash, not the new header or record
+    FileLogStore log2 = new FileLogStore(logDir, FileLogStore.Options.defaults().withSegmentSize(1024)
+      .withMaxRecycledSegments(2).withSyncMode(FileLogStore.SyncMode.INTERVAL)
+      .withSyncIntervalMs(3_600_000).withSyncIntervalBytes(Long.MAX_VALUE), null);
+    log2.append(List.of(makeEntry(21, 1, data + 21)));
+    Path crashed = tempDir.resolve("crashed");
+    Files.createDirectories(crashed);
+    try (var files = Files.list(logDir)) {
+      for (Path file : files.toList()) {
+        Files.copy(file, crashed.resolve(file.getFileName()));
+      }
+    }
+    log2.close();
+
+    FileLogStore log3 = new FileLogStore(crashed,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withMaxRecycledSegments(2), null);
+    assertEquals(17, log3.firstIndex());
+    assertEquals(20, log3.lastIndex());
+    for (int i = 17; i <= 20; i++) {
+      assertEquals(data + i, log3.entryAt(i).getData().toStringUtf8());
+    }
+    log3.close();
+  }
+
+  @Test
+  void testStaleFileAfterTheActiveSegmentDoesNotReplaceIt() throws IOException {
+    FileLogStore log1 = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withMaxRecycledSegments(2), null);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log1.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    log1.truncatePrefix(17);
+    log1.close();
+
+    // a recycled file renamed into place with its old records 1-4 still in it,
+    // as a store without the cut-off left it
+    Files.move(logDir.resolve("wal-0000001.free"), logDir.resolve("wal-0000006.log"));
+
+    FileLogStore log2 = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withMaxRecycledSegments(2), null);
+    assertEquals(17, log2.firstIndex());
+    assertEquals(20, log2.lastIndex());
+    for (int i = 17; i <= 20; i++) {
+      assertEquals(data + i, log2.entryAt(i).getData().toStringUtf8());
+    }
+    log2.close();
+  }
+
+  @Test
+  void testEntriesReadBeforeCompactionSurviveRecycling() throws IOException {
+    // no tail cache, so entries are read from the sealed segments' mappings
+    FileLogStore log = new FileLogStore(logDir, FileLogStore.Options.defaults().withSegmentSize(1024)
+      .withTailCacheBytes(0).withMaxRecycledSegments(2), null);
+    String data = "x".repeat(300);
+    for (int i = 1; i <= 20; i++) {
+      log.append(List.of(makeEntry(i, 1, data + i)));
+    }
+    List<LogEntry> held = log.entries(1, 8, Long.MAX_VALUE);
+
+    // compact them away, then rotate into their recycled files
+    log.truncatePrefix(13);
+    for (int i = 21; i <= 28; i++) {
+      log.append(List.of(makeEntry(i, 1, "y".repeat(300) + i)));
+    }
+    assertEquals(0, countFiles(".free"));
+
+    for (int i = 1; i <= 8; i++) {
+      assertEquals(makeEntry(i, 1, data + i), held.get(i - 1));
+    }
+    log.close();
+  }
+
+  @Test
+  void testReadsDoNotWaitForTheWriter() throws Exception {
+    // 1KB segments and a small tail cache: reads hit sealed segments, the
+    // active one and the cache
+    FileLogStore log = new FileLogStore(logDir,
+      FileLogStore.Options.defaults().withSegmentSize(1024).withTailCacheBytes(200), null);
+    String data = "x".repeat(100);
+    for (int i = 1; i <= 20; i++) {
+      log.append(List.of(makeEntry(i, 1 + i / 10, data + i)));
+    }
+
+    // hold the writer's lock, as a slow append would
+    synchronized (log) {
+      CompletableFuture<List<LogEntry>> reads = CompletableFuture.supplyAsync(() -> {
+        assertEquals(1, log.firstIndex());
+        assertEquals(20, log.lastIndex());
+        assertEquals(2, log.termAt(15));
+        assertEquals(20, log.entries(1, 20, Long.MAX_VALUE).size());
+        List<LogEntry> out = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+          out.add(log.entryAt(i));
+        }
+        return out;
+      });
+      List<LogEntry> entries = reads.get(10, TimeUnit.SECONDS);
+      for (int i = 1; i <= 20; i++) {
+        assertEquals(data + i, entries.get(i - 1).getData().toStringUtf8());
+      }
+    }
+    log.close();
+  }
+
+  @Test
+  void testConcurrentReadersSeeConsistentEntries() throws Exception {
+    // everything a reader gets is copied (no mappings, no cache), so entries
+    // stay intact after a truncation overwrites their records. INTERVAL
+    // leaves records in the write buffer for readers to flush, and two open
+    // channels make readers evict each other's.
+    FileLogStore log = new FileLogStore(logDir, FileLogStore.Options.defaults()
+      .withSegmentSize(4096)
+      .withSyncMode(FileLogStore.SyncMode.INTERVAL)
+      .withTailCacheBytes(0)
+      .withMaxMappedSegments(0)
+      .withMaxOpenSegments(2), null);
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    AtomicBoolean done = new AtomicBoolean();
+
+    List<Thread> readers = new ArrayList<>();
+    for (int t = 0; t < 3; t++) {
+      Thread r = new Thread(() -> {
+        Random random = new Random();
+        try {
+          while (!done.get()) {
+            long first = log.firstIndex();
+            long last = log.lastIndex();
+            if (last < first) continue;
+            long i = first + random.nextInt((int) (last - first + 1));
+
+            // an entry's data names its own index and term
+            LogEntry entry = log.entryAt(i);
+            if (entry != null) {
+              assertEquals(i, entry.getIndex());
+              assertEquals(i + "@" + entry.getTerm(), entry.getData().toStringUtf8());
+            }
+            long previousTerm = 0;
+            long expected = i;
+            for (LogEntry e : log.entries(i, i + 20, Long.MAX_VALUE)) {
+              assertEquals(expected++, e.getIndex());
+              assertEquals(e.getIndex() + "@" + e.getTerm(), e.getData().toStringUtf8());
+              assertTrue(e.getTerm() >= previousTerm, "terms go down at " + e.getIndex());
+              previousTerm = e.getTerm();
+            }
+            log.termAt(i);
+          }
+        } catch (Throwable e) {
+          failure.compareAndSet(null, e);
+        }
+      });
+      readers.add(r);
+      r.start();
+    }
+
+    // the writer appends, rotates, overwrites its tail in a new term and compacts
+    long last = 0;
+    for (long term = 1; term <= 60 && failure.get() == null; term++) {
+      if (term % 3 == 0) {
+        last -= 15;
+        log.truncateFrom(last + 1);
+      }
+      for (int k = 0; k < 40; k++) {
+        last++;
+        log.append(List.of(makeEntry(last, term, last + "@" + term)));
+      }
+      if (term % 10 == 0) {
+        log.truncatePrefix(last - 100);
+      }
+    }
+    done.set(true);
+    for (Thread r : readers) r.join(30_000);
+
+    if (failure.get() != null) throw new AssertionError(failure.get());
+    assertEquals(last, log.lastIndex());
+    log.close();
+  }
+
+  private void writeLegacySegment(int segNum, long from, long to, long term, String data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(out);
+    for (long i = from; i <= to; i++) {
+      byte[] entry = makeEntry(i, term, data + i).toByteArray();
+      dos.writeInt(entry.length);
+      dos.write(entry);
+    }
+    Files.createDirectories(logDir);
+    Files.write(logDir.resolve(String.format("wal-%07d.log", segNum)), out.toByteArray());
+  }
+
+  private void writeProtobufSegment(int segNum, long from, long to, long term, String data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(out);
+    dos.writeInt(WalRecord.SEGMENT_MAGIC);
+    dos.writeInt(WalRecord.CHECKSUMMED);
+    for (long i = from; i <= to; i++) {
+      byte[] entry = makeEntry(i, term, data + i).toByteArray();
+      dos.writeInt(entry.length);
+      dos.writeInt(WalRecord.checksum(ByteBuffer.wrap(entry)));
+      dos.write(entry);
+    }
+    Files.createDirectories(logDir);
+    Files.write(logDir.resolve(String.format("wal-%07d.log", segNum)), out.toByteArray());
+  }
+
+  private long countFiles(String suffix) throws IOException {
+    try (var files = Files.list(logDir)) {
+      return files.filter(p -> p.getFileName().toString().endsWith(suffix)).count();
+    }
+  }
+
   // --- helper methods ---
 
   private LogEntry makeEntry(long index, long term, String data) {
@@ -0,0 +1,116 @@
+package org.jraft.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * tests for the per-segment primitive offset table
+ */
+public class SegmentIndexTest {
+
+  @Test
+  void testEmptySegment() {
+    SegmentIndex seg = new SegmentIndex(3, 100);
+
+    assertEquals(0, seg.size());
+    assertEquals(99, seg.lastIndex());
+    assertFalse(seg.contains(100));
+  }
+
+  @Test
+  void testOffsetsAreKeyedByDistanceFromFirstIndex() {
+    SegmentIndex seg = new SegmentIndex(1, 50);
+    seg.add(0, 1);
+    seg.add(120, 1);
+    seg.add(260, 1);
+
+    assertEquals(52, seg.lastIndex());
+    assertEquals(0, seg.offsetOf(50));
+    assertEquals(120, seg.offsetOf(51));
+    assertEquals(260, seg.offsetOf(52));
+    assertTrue(seg.contains(52));
+    assertFalse(seg.contains(49));
+    assertFalse(seg.contains(53));
+  }
+
+  @Test
+  void testGrowsPastInitialCapacity() {
+    SegmentIndex seg = new SegmentIndex(1, 1);
+    for (int i = 0; i < 10_000; i++) {
+      seg.add(i * 10L, 1);
+    }
+
+    assertEquals(10_000, seg.size());
+    assertEquals(99_990, seg.offsetOf(10_000));
+  }
+
+  @Test
+  void testTracksTermRuns() {
+    SegmentIndex seg = new SegmentIndex(1, 10);
+    seg.add(0, 1);
+    seg.add(10, 1);
+    seg.add(20, 2);
+    seg.add(30, 2);
+    seg.add(40, 5);
+
+    assertEquals(3, seg.runCount());
+    assertEquals(10, seg.runStart(0));
+    assertEquals(12, seg.runStart(1));
+    assertEquals(14, seg.runStart(2));
+    assertEquals(5, seg.runTerm(2));
+    assertEquals(5, seg.lastTerm());
+
+    // truncating into a run keeps it, truncating at its start drops it
+    seg.truncateFrom(14);
+    assertEquals(2, seg.runCount());
+    assertEquals(2, seg.lastTerm());
+    seg.truncateFrom(13);
+    assertEquals(2, seg.runCount());
+    seg.truncateFrom(12);
+    assertEquals(1, seg.runCount());
+    assertEquals(1, seg.lastTerm());
+  }
+
+  @Test
+  void testTermAtSearchesRuns() {
+    SegmentIndex seg = new SegmentIndex(1, 100);
+    long[] terms = {1, 1, 1, 3, 3, 4, 7, 7, 7, 7};
+    for (int i = 0; i < terms.length; i++) {
+      seg.add(i * 10L, terms[i]);
+    }
+
+    for (int i = 0; i < terms.length; i++) {
+      assertEquals(terms[i], seg.termAt(100 + i));
+    }
+
+    seg.truncateFrom(105);
+    assertEquals(3, seg.termAt(104));
+    seg.add(999, 9);
+    assertEquals(9, seg.termAt(105));
+  }
+
+  @Test
+  void testTruncateFromKeepsPrefix() {
+    SegmentIndex seg = new SegmentIndex(1, 10);
+    for (int i = 0; i < 5; i++) {
+      seg.add(i * 100L, 1);
+    }
+
+    seg.truncateFrom(12);
+    assertEquals(2, seg.size());
+    assertEquals(11, seg.lastIndex());
+
+    // truncating below the segment empties it, above it is a no-op
+    seg.truncateFrom(100);
+    assertEquals(2, seg.size());
+    seg.truncateFrom(5);
+    assertEquals(0, seg.size());
+
+    // slots are reused after truncation
+    seg.add(42, 1);
+    assertEquals(42, seg.offsetOf(10));
+  }
+}
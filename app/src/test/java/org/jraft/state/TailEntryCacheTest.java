@@ -0,0 +1,103 @@
+package org.jraft.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.jraft.rpc.LogEntry;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * tests for the byte-bounded tail entry cache
+ */
+public class TailEntryCacheTest {
+
+  @Test
+  void testServesContiguousTail() {
+    TailEntryCache cache = new TailEntryCache(1 << 20);
+    for (int i = 1; i <= 1000; i++) {
+      cache.append(entry(i, "v" + i));
+    }
+
+    assertEquals(1000, cache.size());
+    assertEquals("v1", cache.get(1).getData().toStringUtf8());
+    assertEquals("v1000", cache.get(1000).getData().toStringUtf8());
+    assertNull(cache.get(0));
+    assertNull(cache.get(1001));
+  }
+
+  @Test
+  void testEvictsOldestWhenOverBudget() {
+    LogEntry sample = entry(1, "x".repeat(100));
+    long perEntry = sample.getSerializedSize();
+    TailEntryCache cache = new TailEntryCache(perEntry * 10);
+
+    for (int i = 1; i <= 25; i++) {
+      cache.append(entry(i, "x".repeat(100)));
+    }
+
+    assertTrue(cache.bytes() <= perEntry * 10);
+    assertNull(cache.get(15));
+    assertNotNull(cache.get(16));
+    assertNotNull(cache.get(25));
+  }
+
+  @Test
+  void testTruncateAndGapHandling() {
+    TailEntryCache cache = new TailEntryCache(1 << 20);
+    for (int i = 1; i <= 10; i++) {
+      cache.append(entry(i, "v" + i));
+    }
+
+    cache.truncateFrom(6);
+    assertEquals(5, cache.size());
+    assertNull(cache.get(6));
+
+    cache.append(entry(6, "new6"));
+    assertEquals("new6", cache.get(6).getData().toStringUtf8());
+
+    // a gap restarts the cache at the new entry
+    cache.append(entry(50, "v50"));
+    assertEquals(1, cache.size());
+    assertNull(cache.get(6));
+    assertNotNull(cache.get(50));
+  }
+
+  @Test
+  void testGrowsAcrossTheEndOfTheRing() {
+    // starting at 200, the first 256 entries wrap around the initial ring
+    TailEntryCache cache = new TailEntryCache(1 << 20);
+    for (int i = 200; i <= 1000; i++) {
+      cache.append(entry(i, "v" + i));
+    }
+
+    assertEquals(801, cache.size());
+    assertEquals(200, cache.firstIndex());
+    for (int i = 200; i <= 1000; i++) {
+      assertEquals("v" + i, cache.get(i).getData().toStringUtf8());
+    }
+    // a slot reused by a newer index is a miss for the older one
+    assertNull(cache.get(1000 - 1024));
+    assertNull(cache.get(1000 + 1024));
+  }
+
+  @Test
+  void testDisabledCacheHoldsNothing() {
+    TailEntryCache cache = new TailEntryCache(0);
+    cache.append(entry(1, "a"));
+
+    assertEquals(0, cache.size());
+    assertNull(cache.get(1));
+  }
+
+  private static LogEntry entry(long index, String data) {
+    return LogEntry.newBuilder()
+      .setIndex(index)
+      .setTerm(1)
+      .setData(ByteString.copyFromUtf8(data))
+      .build();
+  }
+}
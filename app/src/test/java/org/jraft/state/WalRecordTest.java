@@ -0,0 +1,119 @@
+package org.jraft.state;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.jraft.rpc.LogEntry;
+import org.junit.jupiter.api.Test;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * tests for the WAL segment and record layout helpers
+ */
+public class WalRecordTest {
+
+  @Test
+  void testIndexAndTermWithoutFullParse() throws IOException {
+    LogEntry entry = LogEntry.newBuilder()
+      .setIndex(123_456_789_012L)
+      .setTerm(42)
+      .setData(ByteString.copyFromUtf8("x".repeat(10_000)))
+      .build();
+
+    WalRecord.Position position = WalRecord.indexAndTerm(ByteBuffer.wrap(entry.toByteArray()));
+    assertEquals(123_456_789_012L, position.index());
+    assertEquals(42, position.term());
+  }
+
+  @Test
+  void testIndexAndTermWithDefaultFields() throws IOException {
+    // proto3 omits zero fields, so term 0 and empty data serialize to just the index
+    LogEntry entry = LogEntry.newBuilder().setIndex(7).build();
+
+    WalRecord.Position position = WalRecord.indexAndTerm(ByteBuffer.wrap(entry.toByteArray()));
+    assertEquals(7, position.index());
+    assertEquals(0, position.term());
+  }
+
+  @Test
+  void testDetectFormat() throws IOException {
+    assertEquals(WalRecord.CHECKSUMMED, WalRecord.detectFormat(WalRecord.segmentHeader(WalRecord.CHECKSUMMED)));
+    assertEquals(WalRecord.COMPACT, WalRecord.detectFormat(WalRecord.segmentHeader(WalRecord.COMPACT)));
+    // a legacy segment starts straight with a record length
+    assertEquals(WalRecord.LEGACY, WalRecord.detectFormat(ByteBuffer.allocate(8).putInt(0, 17)));
+    // too short to tell: empty or a torn header
+    assertEquals(0, WalRecord.detectFormat(ByteBuffer.allocate(0)));
+    assertEquals(0, WalRecord.detectFormat(WalRecord.segmentHeader(WalRecord.CHECKSUMMED).limit(6)));
+
+    ByteBuffer future = ByteBuffer.allocate(8).putInt(WalRecord.SEGMENT_MAGIC).putInt(99).flip();
+    assertThrows(IOException.class, () -> WalRecord.detectFormat(future));
+  }
+
+  @Test
+  void testChecksumCoversEveryByte() {
+    byte[] data = "hello wal".getBytes();
+    int crc = WalRecord.checksum(ByteBuffer.wrap(data));
+    assertEquals(crc, WalRecord.checksum(ByteBuffer.wrap(data.clone())));
+
+    data[4] ^= 1;
+    assertNotEquals(crc, WalRecord.checksum(ByteBuffer.wrap(data)));
+  }
+
+  @Test
+  void testCompactPayloadRoundTrip() throws IOException {
+    LogEntry entry = LogEntry.newBuilder()
+      .setIndex(987_654_321L)
+      .setTerm(17)
+      .setData(ByteString.copyFromUtf8("put k v"))
+      .build();
+
+    ByteBuffer payload = ByteBuffer.allocate(WalRecord.payloadLength(entry, WalRecord.COMPACT));
+    WalRecord.writePayload(entry, WalRecord.COMPACT, payload);
+    assertFalse(payload.hasRemaining());
+    payload.flip();
+
+    assertEquals(entry, WalRecord.decode(payload, WalRecord.COMPACT));
+    WalRecord.Position position = WalRecord.indexAndTerm(payload, WalRecord.COMPACT);
+    assertEquals(987_654_321L, position.index());
+    assertEquals(17, position.term());
+  }
+
+  @Test
+  void testCompactDecodeWrapsTheDataWithoutCopying() throws IOException {
+    LogEntry entry = LogEntry.newBuilder().setIndex(1).setTerm(1).setData(ByteString.copyFromUtf8("abc")).build();
+    ByteBuffer payload = ByteBuffer.allocate(WalRecord.payloadLength(entry, WalRecord.COMPACT));
+    WalRecord.writePayload(entry, WalRecord.COMPACT, payload);
+    payload.flip();
+
+    LogEntry decoded = WalRecord.decode(payload, WalRecord.COMPACT);
+    payload.put(WalRecord.COMPACT_FIXED_BYTES, (byte) 'x');
+    assertEquals("xbc", decoded.getData().toStringUtf8());
+  }
+
+  @Test
+  void testCompactEntrySizeMatchesProtobuf() {
+    LogEntry[] entries = {
+      LogEntry.newBuilder().setIndex(1).setTerm(1).setData(ByteString.copyFromUtf8("x".repeat(300))).build(),
+      LogEntry.newBuilder().setIndex(Long.MAX_VALUE).setTerm(1L << 40).build(),
+      LogEntry.newBuilder().setIndex(5).build(),
+    };
+    for (LogEntry entry : entries) {
+      int payload = WalRecord.payloadLength(entry, WalRecord.COMPACT);
+      assertEquals(entry.getSerializedSize(),
+        WalRecord.entrySize(WalRecord.COMPACT, payload, entry.getIndex(), entry.getTerm()));
+    }
+  }
+
+  @Test
+  void testCompactRejectsUnknownType() {
+    ByteBuffer payload = ByteBuffer.allocate(WalRecord.COMPACT_FIXED_BYTES)
+      .putLong(1).putLong(1).putInt(7).flip();
+    assertThrows(IOException.class, () -> WalRecord.decode(payload, WalRecord.COMPACT));
+  }
+}
@@ -2,6 +2,7 @@ package org.jraft.test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import com.google.protobuf.ByteString;
 import org.jraft.core.StateMachine;
@@ -18,23 +19,40 @@ public final class TestHelpers {
   /**
    * In-memory log implementation for testing.
    * Uses 1-based indexing: index 0 is "empty", termAt(0) = 0.
+   * truncatePrefix drops entries exactly, remembering the boundary term.
+   * With holdSyncs set, appendAsync leaves entries non-durable until sync().
+   * With appendFailure set, every append throws it.
    */
   public static final class MemLog implements LogStore {
     public final ArrayList<LogEntry> entries = new ArrayList<>();
+    private long compactedIndex = 0;
+    private long compactedTerm = 0;
+
+    public boolean holdSyncs = false;
+    public RuntimeException appendFailure = null;
+    private long durableIndex = -1;  // -1: everything appended is durable
+    private final List<CompletableFuture<Long>> pendingSyncs = new ArrayList<>();
+
+    @Override
+    public long firstIndex() {
+      return compactedIndex + 1;
+    }
 
     @Override
     public long lastIndex() {
-      return entries.size();
+      return compactedIndex + entries.size();
     }
 
     @Override
     public long termAt(long index) {
-      if (index <= 0 || index > entries.size()) return 0;
-      return entries.get((int) index - 1).getTerm();
+      if (index == compactedIndex) return compactedTerm;
+      if (index <= compactedIndex || index > lastIndex()) return 0;
+      return entries.get(slot(index)).getTerm();
     }
 
     @Override
     public void append(List<LogEntry> batch) {
+      if (appendFailure != null) throw appendFailure;
       if (batch.isEmpty()) return;
       long expected = lastIndex() + 1;
       if (batch.get(0).getIndex() != expected) {
@@ -48,17 +66,83 @@ public final class TestHelpers {
     public void truncateFrom(long index) {
       if (index <= 0) {
         entries.clear();
+        compactedIndex = 0;
+        compactedTerm = 0;
         return;
       }
-      while (entries.size() >= index) {
+      while (!entries.isEmpty() && lastIndex() >= index) {
         entries.remove(entries.size() - 1);
       }
     }
 
+    @Override
+    public void truncatePrefix(long index) {
+      while (entries.size() > 1 && firstIndex() < index) {
+        compactedTerm = entries.remove(0).getTerm();
+        compactedIndex++;
+      }
+    }
+
     @Override
     public LogEntry entryAt(long index) {
-      if (index <= 0 || index > entries.size()) return null;
-      return entries.get((int) index - 1);
+      if (index <= compactedIndex || index > lastIndex()) return null;
+      return entries.get(slot(index));
+    }
+
+    @Override
+    public List<LogEntry> entries(long from, long toInclusive, long maxBytes) {
+      if (from <= compactedIndex) return List.of();
+      int start = slot(Math.max(from, 1));
+      int end = slot(Math.min(toInclusive, lastIndex())) + 1;
+      if (start >= end) return List.of();
+
+      // slice, then trim to the byte budget (always keeping the first entry)
+      int stop = start + 1;
+      long bytes = entries.get(start).getSerializedSize();
+      while (stop < end) {
+        bytes += entries.get(stop).getSerializedSize();
+        if (bytes > maxBytes) break;
+        stop++;
+      }
+      return new ArrayList<>(entries.subList(start, stop));
+    }
+
+    @Override
+    public CompletableFuture<Long> appendAsync(List<LogEntry> batch) {
+      if (!holdSyncs) return LogStore.super.appendAsync(batch);
+      if (durableIndex < 0) durableIndex = lastIndex();
+      append(batch);
+      CompletableFuture<Long> future = new CompletableFuture<>();
+      pendingSyncs.add(future);
+      return future;
+    }
+
+    @Override
+    public long durableIndex() {
+      return durableIndex < 0 ? lastIndex() : Math.min(durableIndex, lastIndex());
+    }
+
+    /**
+     * Make everything appended durable and complete the held futures.
+     */
+    public void sync() {
+      durableIndex = -1;
+      List<CompletableFuture<Long>> done = new ArrayList<>(pendingSyncs);
+      pendingSyncs.clear();
+      done.forEach(f -> f.complete(lastIndex()));
+    }
+
+    /**
+     * Fail the held futures with cause, as a failed fsync would.
+     */
+    public void failSyncs(Throwable cause) {
+      List<CompletableFuture<Long>> failed = new ArrayList<>(pendingSyncs);
+      pendingSyncs.clear();
+      failed.forEach(f -> f.completeExceptionally(cause));
+    }
+
+    private int slot(long index) {
+      return (int) (index - compactedIndex - 1);
     }
 
     /**
@@ -84,6 +168,8 @@ public final class TestHelpers {
      */
     public void clear() {
       entries.clear();
+      compactedIndex = 0;
+      compactedTerm = 0;
     }
   }
 